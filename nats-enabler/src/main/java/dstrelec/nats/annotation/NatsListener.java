@@ -61,6 +61,14 @@ import org.springframework.messaging.handler.annotation.MessageMapping;
  * MessageHeaderAccessor} for convenient access to all method arguments.</li>
  * </ul>
  *
+ * <p>A non-null return value is converted and published to the reply subject of the
+ * incoming message. Messages without a reply subject are answered on the subject of
+ * a {@link org.springframework.messaging.handler.annotation.SendTo @SendTo}
+ * annotation, if present; otherwise the result is discarded.
+ * Methods may also return a {@link java.util.concurrent.CompletionStage}; the
+ * container then tracks its completion without blocking the delivering thread and
+ * publishes the completed value as the reply.
+ *
  * <p>When defined at the method level, a listener container is created for each method.
  * The {@link dstrelec.nats.listener.MessageListener} is a
  * {@link dstrelec.nats.listener.adapter.MessagingMessageListenerAdapter},
@@ -108,10 +116,50 @@ public @interface NatsListener {
 	 * The subjects for this listener.
 	 * The entries can be 'subject name', 'property-placeholder keys' or 'expressions'.
 	 * Expression must be resolved to the subject name.
+	 * <p>Tokens of the form {@code {name}} are subscribed to as {@code *} and can be
+	 * bound to parameters with {@link SubjectVariable @SubjectVariable}.
 	 * @return the subject names or expressions (SpEL) to listen to.
 	 */
 	String[] subjects() default {};
 
+	/**
+	 * The Nats queue group for this listener; each message is delivered to one
+	 * member of the group only. Can be a 'property-placeholder key' or an 'expression'.
+	 * @return the queue group.
+	 */
+	String queueGroup() default "";
+
+	/**
+	 * A SpEL expression selecting the messages this listener handles; messages for which
+	 * it does not evaluate to {@code true} are discarded. The expression can refer to
+	 * {@code subject}, {@code replyTo}, {@code data}, {@code headers} and {@code payload};
+	 * expressions not referring to {@code headers} or {@code payload} are evaluated
+	 * before the message is converted. Property placeholders are resolved.
+	 * <p>Example: {@code filter = "subject.endsWith('.created')"}.
+	 * @return the filter expression.
+	 */
+	String filter() default "";
+
+	/**
+	 * The top-level field of the payload compared with {@link #routingValue()}; the
+	 * listener only receives messages whose field has that value. The field is read
+	 * from JSON, Smile or CBOR payloads as decoded by the converter of the container
+	 * factory; endpoints whose converter produces payloads without fields, such as
+	 * Kryo, fail to start. Unlike a {@link #filter()}, routing conditions of listeners
+	 * sharing a subject are indexed when subjects are multiplexed, so each message is
+	 * matched to its listeners with one lookup.
+	 * @return the routing field.
+	 * @see dstrelec.nats.config.NatsListenerEndpointRegistry#setMultiplexSubjects(boolean)
+	 */
+	String routingField() default "";
+
+	/**
+	 * The value of the {@link #routingField()} this listener receives messages for.
+	 * Can be a 'property-placeholder key' or an 'expression'.
+	 * @return the routing value.
+	 */
+	String routingValue() default "";
+
 	/**
 	 * If provided, the listener container for this listener will be added to a bean
 	 * with this value as its name, of type {@code Collection<NatsListenerContainer>}.
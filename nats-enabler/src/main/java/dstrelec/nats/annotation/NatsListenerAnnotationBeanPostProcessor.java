@@ -22,6 +22,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import dstrelec.nats.config.*;
+import dstrelec.nats.support.SubjectPattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -41,10 +42,12 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.expression.StandardBeanExpressionResolver;
 import org.springframework.core.MethodIntrospector;
+import org.springframework.core.MethodParameter;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.format.support.DefaultFormattingConversionService;
 import org.springframework.messaging.converter.GenericMessageConverter;
+import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
 import org.springframework.messaging.handler.annotation.support.HeaderMethodArgumentResolver;
 import org.springframework.messaging.handler.annotation.support.HeadersMethodArgumentResolver;
@@ -108,6 +111,8 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 
 	private final NatsListenerEndpointRegistrar registrar = new NatsListenerEndpointRegistrar();
 
+	private final SubjectVariableMethodArgumentResolver subjectVariableResolver = new SubjectVariableMethodArgumentResolver();
+
 	private final AtomicInteger counter = new AtomicInteger();
 
 	private BeanExpressionResolver resolver = new StandardBeanExpressionResolver();
@@ -144,6 +149,9 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 	 * can be configured further to support additional method arguments
 	 * or to customize conversion and validation support. See
 	 * {@link DefaultMessageHandlerMethodFactory} Javadoc for more details.
+	 * <p>{@link SubjectVariable @SubjectVariable} parameters are only resolved by the
+	 * default factory; listener methods declaring them fail to register with a
+	 * custom factory.
 	 * @param messageHandlerMethodFactory the {@link MessageHandlerMethodFactory} instance.
 	 */
 	public void setMessageHandlerMethodFactory(MessageHandlerMethodFactory messageHandlerMethodFactory) {
@@ -292,6 +300,7 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 		for (NatsListener classLevelListener : classLevelListeners) {
 			MultiMethodNatsListenerEndpoint endpoint = new MultiMethodNatsListenerEndpoint(checkedMethods, bean);
 			endpoint.setBeanFactory(this.beanFactory);
+			endpoint.setReplySubject(resolveSendTo(AnnotationUtils.findAnnotation(AopUtils.getTargetClass(bean), SendTo.class)));
 			processListener(endpoint, classLevelListener, bean, bean.getClass(), beanName);
 		}
 	}
@@ -301,6 +310,7 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 		MethodNatsListenerEndpoint endpoint = new MethodNatsListenerEndpoint();
 		endpoint.setMethod(methodToUse);
 		endpoint.setBeanFactory(this.beanFactory);
+		endpoint.setReplySubject(resolveSendTo(AnnotationUtils.findAnnotation(method, SendTo.class)));
 		processListener(endpoint, natsListener, bean, methodToUse, beanName);
 	}
 
@@ -339,7 +349,7 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 		endpoint.setBean(bean);
 		endpoint.setMessageHandlerMethodFactory(this.messageHandlerMethodFactory);
 		endpoint.setId(getEndpointId(natsListener));
-		endpoint.setSubjects(resolveSubjects(natsListener));
+		endpoint.setSubjects(resolveSubjectPatterns(endpoint, natsListener));
 		String group = natsListener.group();
 		if (StringUtils.hasText(group)) {
 			Object resolvedGroup = resolveExpression(group);
@@ -347,6 +357,22 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 				endpoint.setGroup((String) resolvedGroup);
 			}
 		}
+		String queueGroup = natsListener.queueGroup();
+		if (StringUtils.hasText(queueGroup)) {
+			Object resolvedQueueGroup = resolveExpression(queueGroup);
+			if (resolvedQueueGroup instanceof String && StringUtils.hasText((String) resolvedQueueGroup)) {
+				endpoint.setQueueGroup((String) resolvedQueueGroup);
+			}
+		}
+		if (StringUtils.hasText(natsListener.filter())) {
+			endpoint.setFilterExpression(resolve(natsListener.filter()));
+		}
+		if (StringUtils.hasText(natsListener.routingField())) {
+			Object routingValue = resolveExpression(natsListener.routingValue());
+			Assert.state(routingValue != null && StringUtils.hasText(routingValue.toString()),
+					"@NatsListener routingField requires a routingValue");
+			endpoint.setRoutingField(resolve(natsListener.routingField()), routingValue.toString());
+		}
 
 		NatsListenerContainerFactory factory = null;
 		String containerFactoryBeanName = resolve(natsListener.containerFactory());
@@ -364,6 +390,16 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 		this.registrar.registerEndpoint(endpoint, factory);
 	}
 
+	private String resolveSendTo(SendTo sendTo) {
+		if (sendTo == null || sendTo.value().length == 0) {
+			return null;
+		}
+		Assert.state(sendTo.value().length == 1, "@SendTo on a @NatsListener supports a single reply subject");
+		Object resolved = resolveExpression(sendTo.value()[0]);
+		Assert.state(resolved instanceof String, "@SendTo must resolve to a String subject");
+		return StringUtils.hasText((String) resolved) ? (String) resolved : null;
+	}
+
 	private String getEndpointId(NatsListener natsListener) {
 		if (StringUtils.hasText(natsListener.id())) {
 			return resolve(natsListener.id());
@@ -384,6 +420,38 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 		return result.toArray(new String[result.size()]);
 	}
 
+	/*
+	 * Subscribe to patterns with variables as wildcard subjects and register them for
+	 * the methods binding their variables.
+	 */
+	private String[] resolveSubjectPatterns(MethodNatsListenerEndpoint endpoint, NatsListener natsListener) {
+		String[] subjects = resolveSubjects(natsListener);
+		List<SubjectPattern> patterns = new ArrayList<>(subjects.length);
+		for (int i = 0; i < subjects.length; i++) {
+			SubjectPattern pattern = SubjectPattern.compile(subjects[i]);
+			subjects[i] = pattern.getSubject();
+			patterns.add(pattern);
+		}
+		List<Method> methods = endpoint instanceof MultiMethodNatsListenerEndpoint
+				? ((MultiMethodNatsListenerEndpoint) endpoint).getMethods()
+				: Collections.singletonList(endpoint.getMethod());
+		for (Method method : methods) {
+			if (hasSubjectVariable(method)) {
+				this.subjectVariableResolver.registerPatterns(method, patterns);
+			}
+		}
+		return subjects;
+	}
+
+	private static boolean hasSubjectVariable(Method method) {
+		for (int i = 0; i < method.getParameterCount(); i++) {
+			if (new MethodParameter(method, i).hasParameterAnnotation(SubjectVariable.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void resolveAsString(Object resolvedValue, List<String> result) {
 		if (resolvedValue instanceof String[]) {
@@ -439,18 +507,26 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 
 		private MessageHandlerMethodFactory messageHandlerMethodFactory;
 
+		private MessageHandlerMethodFactory defaultMessageHandlerMethodFactory;
+
 		public void setMessageHandlerMethodFactory(MessageHandlerMethodFactory natsHandlerMethodFactory1) {
 			this.messageHandlerMethodFactory = natsHandlerMethodFactory1;
 		}
 
 		@Override
 		public InvocableHandlerMethod createInvocableHandlerMethod(Object bean, Method method) {
-			return getMessageHandlerMethodFactory().createInvocableHandlerMethod(bean, method);
+			MessageHandlerMethodFactory factory = getMessageHandlerMethodFactory();
+			Assert.state(factory == this.defaultMessageHandlerMethodFactory || !hasSubjectVariable(method),
+					"@SubjectVariable parameters of " + method + " cannot be resolved by the custom "
+							+ "MessageHandlerMethodFactory; use the default factory or bind the subject with "
+							+ "@Header(NatsHeaders.SUBJECT)");
+			return factory.createInvocableHandlerMethod(bean, method);
 		}
 
 		private MessageHandlerMethodFactory getMessageHandlerMethodFactory() {
 			if (this.messageHandlerMethodFactory == null) {
-				this.messageHandlerMethodFactory = createDefaultMessageHandlerMethodFactory();
+				this.defaultMessageHandlerMethodFactory = createDefaultMessageHandlerMethodFactory();
+				this.messageHandlerMethodFactory = this.defaultMessageHandlerMethodFactory;
 			}
 			return this.messageHandlerMethodFactory;
 		}
@@ -471,6 +547,8 @@ public class NatsListenerAnnotationBeanPostProcessor implements BeanPostProcesso
 			// Annotation-based argument resolution
 			argumentResolvers.add(new HeaderMethodArgumentResolver(conversionService, cbf));
 			argumentResolvers.add(new HeadersMethodArgumentResolver());
+			NatsListenerAnnotationBeanPostProcessor.this.subjectVariableResolver.setConversionService(conversionService);
+			argumentResolvers.add(NatsListenerAnnotationBeanPostProcessor.this.subjectVariableResolver);
 
 			// Type-based argument resolution
 			final GenericMessageConverter messageConverter = new GenericMessageConverter(conversionService);
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation that binds a method parameter to a variable token of the subject
+ * pattern of a {@link NatsListener}, such as {@code region} in
+ * {@code orders.{region}.created}.
+ * <p>
+ * The listener subscribes to the pattern with every variable replaced by {@code *};
+ * the token is converted to the parameter type if necessary.
+ * <p>
+ * The parameters are resolved by the default message handler method factory; a
+ * listener method declaring them fails to register when a custom
+ * {@link org.springframework.messaging.handler.annotation.support.MessageHandlerMethodFactory}
+ * is configured.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.support.SubjectPattern
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SubjectVariable {
+
+	/**
+	 * The name of the variable; defaults to the parameter name.
+	 * @return the variable name.
+	 */
+	String value() default "";
+
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.annotation;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dstrelec.nats.support.NatsHeaders;
+import dstrelec.nats.support.SubjectPattern;
+
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.handler.invocation.HandlerMethodArgumentResolver;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Resolves {@link SubjectVariable @SubjectVariable} parameters from the subject of the
+ * message.
+ * <p>
+ * The subject patterns of a listener method are registered when its endpoint is
+ * processed; the token index of every parameter is determined then, so resolving
+ * an argument only locates that token in the received subject.
+ *
+ * @author Dario Strelec
+ *
+ */
+public class SubjectVariableMethodArgumentResolver implements HandlerMethodArgumentResolver {
+
+	private static final TypeDescriptor STRING_TYPE = TypeDescriptor.valueOf(String.class);
+
+	private final Map<Method, List<SubjectPattern>> patterns = new ConcurrentHashMap<>();
+
+	private final Map<Method, Binding[]> bindings = new ConcurrentHashMap<>();
+
+	private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+	private ConversionService conversionService = DefaultConversionService.getSharedInstance();
+
+	/**
+	 * Set the conversion service for parameters other than {@link String}.
+	 * @param conversionService the conversion service.
+	 */
+	public void setConversionService(ConversionService conversionService) {
+		Assert.notNull(conversionService, "'conversionService' cannot be null");
+		this.conversionService = conversionService;
+	}
+
+	/**
+	 * Register the subject patterns a listener method is subscribed with.
+	 * @param method the method.
+	 * @param subjectPatterns the patterns.
+	 * @throws IllegalStateException if a variable of the method is missing from a pattern.
+	 */
+	public synchronized void registerPatterns(Method method, Collection<SubjectPattern> subjectPatterns) {
+		List<SubjectPattern> methodPatterns = new ArrayList<>();
+		List<SubjectPattern> existing = this.patterns.get(method);
+		if (existing != null) {
+			methodPatterns.addAll(existing);
+		}
+		methodPatterns.addAll(subjectPatterns);
+		SubjectPattern[] patternArray = methodPatterns.toArray(new SubjectPattern[methodPatterns.size()]);
+		Binding[] methodBindings = new Binding[method.getParameterCount()];
+		for (int i = 0; i < methodBindings.length; i++) {
+			MethodParameter parameter = new MethodParameter(method, i);
+			SubjectVariable subjectVariable = parameter.getParameterAnnotation(SubjectVariable.class);
+			if (subjectVariable != null) {
+				methodBindings[i] = new Binding(variableName(parameter, subjectVariable), patternArray);
+			}
+		}
+		this.patterns.put(method, methodPatterns);
+		this.bindings.put(method, methodBindings);
+	}
+
+	private String variableName(MethodParameter parameter, SubjectVariable subjectVariable) {
+		if (StringUtils.hasText(subjectVariable.value())) {
+			return subjectVariable.value();
+		}
+		parameter.initParameterNameDiscovery(this.parameterNameDiscoverer);
+		String name = parameter.getParameterName();
+		Assert.state(name != null, "No variable name for parameter " + parameter.getParameterIndex() + " of "
+				+ parameter.getMethod() + "; specify it in @SubjectVariable or compile with -parameters");
+		return name;
+	}
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return parameter.hasParameterAnnotation(SubjectVariable.class);
+	}
+
+	@Override
+	public Object resolveArgument(MethodParameter parameter, Message<?> message) throws Exception { //NOSONAR
+		Binding[] methodBindings = this.bindings.get(parameter.getMethod());
+		Binding binding = methodBindings == null ? null : methodBindings[parameter.getParameterIndex()];
+		if (binding == null) {
+			throw new MessageHandlingException(message, "No subject pattern registered for " + parameter.getMethod());
+		}
+		String subject = (String) message.getHeaders().get(NatsHeaders.SUBJECT);
+		String value = subject == null ? null : binding.resolve(subject);
+		if (value == null) {
+			throw new MessageHandlingException(message, "Subject '" + subject + "' does not match the patterns of "
+					+ parameter.getMethod());
+		}
+		if (String.class.equals(parameter.getParameterType())) {
+			return value;
+		}
+		return this.conversionService.convert(value, STRING_TYPE, new TypeDescriptor(parameter));
+	}
+
+
+	private static final class Binding {
+
+		private final SubjectPattern[] patterns;
+
+		private final int[] indexes;
+
+		Binding(String variable, SubjectPattern[] patterns) {
+			this.patterns = patterns;
+			this.indexes = new int[patterns.length];
+			for (int i = 0; i < patterns.length; i++) {
+				this.indexes[i] = patterns[i].indexOf(variable);
+				Assert.state(this.indexes[i] >= 0,
+						"Subject pattern '" + patterns[i] + "' does not define variable '" + variable + "'");
+			}
+		}
+
+		String resolve(String subject) {
+			if (this.patterns.length == 1) {
+				return SubjectPattern.token(subject, this.indexes[0]);
+			}
+			for (int i = 0; i < this.patterns.length; i++) {
+				if (this.patterns[i].matches(subject)) {
+					return SubjectPattern.token(subject, this.indexes[i]);
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
\ No newline at end of file
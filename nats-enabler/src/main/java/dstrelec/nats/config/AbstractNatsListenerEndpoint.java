@@ -21,12 +21,17 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import dstrelec.nats.core.CoalescingPublisher;
 import dstrelec.nats.listener.MessageListener;
 import dstrelec.nats.listener.NatsListenerContainer;
+import dstrelec.nats.listener.RoutingCondition;
+import dstrelec.nats.listener.adapter.ExpressionMessageFilterStrategy;
 import dstrelec.nats.listener.adapter.FilteringMessageListenerAdapter;
+import dstrelec.nats.listener.adapter.JsonFieldKeyExtractor;
 import dstrelec.nats.listener.adapter.MessageFilterStrategy;
 import dstrelec.nats.listener.adapter.MessagingMessageListenerAdapter;
 import dstrelec.nats.support.converter.MessageConverter;
+import dstrelec.nats.support.converter.MessagingMessageConverter;
 
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
@@ -34,7 +39,14 @@ import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.config.BeanExpressionContext;
 import org.springframework.beans.factory.config.BeanExpressionResolver;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.expression.BeanFactoryResolver;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.util.Assert;
 
 /**
@@ -60,8 +72,22 @@ public abstract class AbstractNatsListenerEndpoint implements NatsListenerEndpoi
 
 	private String group;
 
+	private String queueGroup;
+
 	private MessageFilterStrategy messageFilterStrategy;
 
+	private CoalescingPublisher replyPublisher;
+
+	private String replySubject;
+
+	private String filterExpression;
+
+	private RoutingCondition routingCondition;
+
+	private String routingField;
+
+	private String routingValue;
+
 	@Override
 	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
 		this.beanFactory = beanFactory;
@@ -124,6 +150,19 @@ public abstract class AbstractNatsListenerEndpoint implements NatsListenerEndpoi
 		this.group = group;
 	}
 
+	public String getQueueGroup() {
+		return this.queueGroup;
+	}
+
+	/**
+	 * Set the Nats queue group the subscriptions join; each message is then delivered
+	 * to one member of the group only.
+	 * @param queueGroup the queue group.
+	 */
+	public void setQueueGroup(String queueGroup) {
+		this.queueGroup = queueGroup;
+	}
+
 	@Override
 	public void afterPropertiesSet() {
 		if (getSubjects().isEmpty()) {
@@ -143,11 +182,97 @@ public abstract class AbstractNatsListenerEndpoint implements NatsListenerEndpoi
 		this.messageFilterStrategy = messageFilterStrategy;
 	}
 
+	protected CoalescingPublisher getReplyPublisher() {
+		return this.replyPublisher;
+	}
+
+	/**
+	 * Set the publisher used to send listener results to the reply subject.
+	 * @param replyPublisher the publisher.
+	 */
+	public void setReplyPublisher(CoalescingPublisher replyPublisher) {
+		this.replyPublisher = replyPublisher;
+	}
+
+	protected String getReplySubject() {
+		return this.replySubject;
+	}
+
+	/**
+	 * Set the subject for listener results of messages without a reply subject.
+	 * @param replySubject the default reply subject.
+	 */
+	public void setReplySubject(String replySubject) {
+		this.replySubject = replySubject;
+	}
+
+	protected String getFilterExpression() {
+		return this.filterExpression;
+	}
+
+	/**
+	 * Set a SpEL expression over {@code subject}, {@code replyTo}, {@code data},
+	 * {@code headers} and {@code payload}; messages for which it does not evaluate to
+	 * {@code true} are discarded.
+	 * @param filterExpression the expression.
+	 * @see dstrelec.nats.listener.adapter.FilterExpressionRoot
+	 */
+	public void setFilterExpression(String filterExpression) {
+		this.filterExpression = filterExpression;
+	}
+
+	public RoutingCondition getRoutingCondition() {
+		return this.routingCondition;
+	}
+
+	/**
+	 * Set an equality condition on a routing key, such as a tenant id; endpoints sharing
+	 * a subject with different values are routed through a hash index when multiplexed.
+	 * @param routingCondition the condition.
+	 * @see NatsListenerEndpointRegistry#setMultiplexSubjects(boolean)
+	 */
+	public void setRoutingCondition(RoutingCondition routingCondition) {
+		this.routingCondition = routingCondition;
+	}
+
+	/**
+	 * Set a routing condition on a top-level field of the payload; the field is read
+	 * by a {@link JsonFieldKeyExtractor} for the converter of the listener when the
+	 * container is set up.
+	 * @param routingField the field.
+	 * @param routingValue the value.
+	 * @see #setRoutingCondition(RoutingCondition)
+	 */
+	public void setRoutingField(String routingField, String routingValue) {
+		Assert.hasText(routingField, "'routingField' must not be empty");
+		Assert.hasText(routingValue, "'routingValue' must not be empty");
+		this.routingField = routingField;
+		this.routingValue = routingValue;
+	}
+
 	@Override
 	public void setupListenerContainer(NatsListenerContainer listenerContainer, MessageConverter messageConverter) {
+		if (this.routingField != null) {
+			this.routingCondition = new RoutingCondition(createFieldKeyExtractor(messageConverter), this.routingValue);
+		}
 		setupMessageListener(listenerContainer, messageConverter);
 	}
 
+	/*
+	 * Listeners use their default converter unless a MessagingMessageConverter is set.
+	 */
+	private JsonFieldKeyExtractor createFieldKeyExtractor(MessageConverter messageConverter) {
+		if (!(messageConverter instanceof MessagingMessageConverter)) {
+			return new JsonFieldKeyExtractor(this.routingField);
+		}
+		try {
+			return new JsonFieldKeyExtractor(this.routingField, (MessagingMessageConverter) messageConverter);
+		}
+		catch (IllegalArgumentException ex) {
+			throw new IllegalStateException("Endpoint [" + this + "] cannot route on '" + this.routingField + "'", ex);
+		}
+	}
+
 	/**
 	 * Create a {@link MessageListener} that is able to serve this endpoint for the
 	 * specified container.
@@ -160,14 +285,42 @@ public abstract class AbstractNatsListenerEndpoint implements NatsListenerEndpoi
 
 	@SuppressWarnings("unchecked")
 	private void setupMessageListener(NatsListenerContainer container, MessageConverter messageConverter) {
-		MessageListener messageListener = createMessageListener(container, messageConverter);
-		Assert.state(messageListener != null, "Endpoint [" + this + "] must provide a non null message listener");
+		MessagingMessageListenerAdapter adapter = createMessageListener(container, messageConverter);
+		Assert.state(adapter != null, "Endpoint [" + this + "] must provide a non null message listener");
+		MessageListener messageListener = adapter;
+		if (this.filterExpression != null) {
+			Expression expression = parseFilterExpression(this.filterExpression);
+			StandardEvaluationContext evaluationContext = new StandardEvaluationContext();
+			if (this.beanFactory != null) {
+				evaluationContext.setBeanResolver(new BeanFactoryResolver(this.beanFactory));
+			}
+			if (ExpressionMessageFilterStrategy.requiresConversion(expression)) {
+				adapter.setFilterExpression(expression, evaluationContext);
+			}
+			else {
+				messageListener = new FilteringMessageListenerAdapter(messageListener,
+						new ExpressionMessageFilterStrategy(expression, evaluationContext));
+			}
+		}
 		if (this.messageFilterStrategy != null) {
 			messageListener = new FilteringMessageListenerAdapter(messageListener, this.messageFilterStrategy);
 		}
 		container.setupMessageListener(messageListener);
 	}
 
+	/*
+	 * Parse with the compiler enabled, so the expression is compiled to bytecode on its
+	 * first evaluation.
+	 */
+	private Expression parseFilterExpression(String expressionString) {
+		ClassLoader classLoader = this.beanFactory instanceof ConfigurableBeanFactory
+				? ((ConfigurableBeanFactory) this.beanFactory).getBeanClassLoader()
+				: getClass().getClassLoader();
+		SpelExpressionParser parser = new SpelExpressionParser(
+				new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, classLoader));
+		return parser.parseExpression(expressionString);
+	}
+
 	/**
 	 * Return a description for this endpoint.
 	 * @return a description for this endpoint.
@@ -17,9 +17,11 @@
 package dstrelec.nats.config;
 
 
+import dstrelec.nats.core.CoalescingPublisher;
 import dstrelec.nats.listener.DefaultNatsListenerContainer;
 import dstrelec.nats.support.converter.MessageConverter;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 
@@ -39,7 +41,8 @@ import java.util.Collection;
  *
  * @see DefaultNatsListenerContainer
  */
-public class DefaultNatsListenerContainerFactory implements NatsListenerContainerFactory, ApplicationEventPublisherAware {
+public class DefaultNatsListenerContainerFactory implements NatsListenerContainerFactory, ApplicationEventPublisherAware,
+		DisposableBean {
 
 	private final ContainerProperties containerProperties = new ContainerProperties();
 
@@ -55,6 +58,12 @@ public class DefaultNatsListenerContainerFactory implements NatsListenerContaine
 
 	private ApplicationEventPublisher applicationEventPublisher;
 
+	private CoalescingPublisher replyPublisher;
+
+	private boolean replyPublisherCreated;
+
+	private Boolean methodHandleInvocation;
+
 	/**
 	 * Specify a {@link NatsConnectionFactory} to use.
 	 * @param connectionFactory The consumer factory.
@@ -101,6 +110,27 @@ public class DefaultNatsListenerContainerFactory implements NatsListenerContaine
 		this.messageFilterStrategy = messageFilterStrategy;
 	}
 
+	/**
+	 * Set the publisher used by the listeners to send their results to the
+	 * reply subject. By default a {@link CoalescingPublisher} for the
+	 * {@link #setConnectionFactory(NatsConnectionFactory) connection factory}
+	 * is created and shared by all containers of this factory.
+	 * @param replyPublisher the publisher.
+	 */
+	public void setReplyPublisher(CoalescingPublisher replyPublisher) {
+		this.replyPublisher = replyPublisher;
+	}
+
+	/**
+	 * Set to true to invoke listener methods through method handles with
+	 * precomputed argument extractors instead of the reflective handler method.
+	 * @param methodHandleInvocation true to use method handle invocation.
+	 * @see MethodNatsListenerEndpoint#setMethodHandleInvocation(boolean)
+	 */
+	public void setMethodHandleInvocation(Boolean methodHandleInvocation) {
+		this.methodHandleInvocation = methodHandleInvocation;
+	}
+
 	@Override
 	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
 		this.applicationEventPublisher = applicationEventPublisher;
@@ -135,14 +165,43 @@ public class DefaultNatsListenerContainerFactory implements NatsListenerContaine
 			if (this.messageFilterStrategy != null) {
 				aklEndpoint.setMessageFilterStrategy(this.messageFilterStrategy);
 			}
+			aklEndpoint.setReplyPublisher(getReplyPublisher());
+		}
+		if (this.methodHandleInvocation != null && endpoint instanceof MethodNatsListenerEndpoint) {
+			((MethodNatsListenerEndpoint) endpoint).setMethodHandleInvocation(this.methodHandleInvocation);
 		}
 
 		endpoint.setupListenerContainer(instance, this.messageConverter);
 		initializeContainer(instance);
 
+		if (endpoint instanceof AbstractNatsListenerEndpoint) {
+			AbstractNatsListenerEndpoint aklEndpoint = (AbstractNatsListenerEndpoint) endpoint;
+			if (aklEndpoint.getQueueGroup() != null) {
+				instance.getContainerProperties().setQueueGroup(aklEndpoint.getQueueGroup());
+			}
+			if (aklEndpoint.getRoutingCondition() != null) {
+				instance.getContainerProperties().setRoutingCondition(aklEndpoint.getRoutingCondition());
+			}
+		}
+
 		return instance;
 	}
 
+	private synchronized CoalescingPublisher getReplyPublisher() {
+		if (this.replyPublisher == null && getConnectionFactory() != null) {
+			this.replyPublisher = new CoalescingPublisher(getConnectionFactory());
+			this.replyPublisherCreated = true;
+		}
+		return this.replyPublisher;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.replyPublisherCreated) {
+			this.replyPublisher.destroy();
+		}
+	}
+
 	/**
 	 * Create an empty container instance.
 	 * @param endpoint the endpoint.
@@ -21,6 +21,7 @@ import java.lang.reflect.Method;
 import dstrelec.nats.listener.NatsListenerContainer;
 import dstrelec.nats.listener.adapter.HandlerAdapter;
 import dstrelec.nats.listener.adapter.MessagingMessageListenerAdapter;
+import dstrelec.nats.listener.adapter.MethodHandleInvoker;
 import dstrelec.nats.support.converter.MessageConverter;
 import dstrelec.nats.support.converter.MessagingMessageConverter;
 import org.springframework.messaging.handler.annotation.support.MessageHandlerMethodFactory;
@@ -44,6 +45,8 @@ public class MethodNatsListenerEndpoint extends AbstractNatsListenerEndpoint {
 
 	private MessageHandlerMethodFactory messageHandlerMethodFactory;
 
+	private boolean methodHandleInvocation;
+
 
 	/**
 	 * Set the object instance that should manage this endpoint.
@@ -87,6 +90,20 @@ public class MethodNatsListenerEndpoint extends AbstractNatsListenerEndpoint {
 		return this.messageHandlerMethodFactory;
 	}
 
+	/**
+	 * Set to true to invoke the method through a {@link MethodHandleInvoker} when all
+	 * its parameters are supported by it; the {@link InvocableHandlerMethod} is then
+	 * only used for messages that need argument conversion.
+	 * @param methodHandleInvocation true to use method handle invocation.
+	 */
+	public void setMethodHandleInvocation(boolean methodHandleInvocation) {
+		this.methodHandleInvocation = methodHandleInvocation;
+	}
+
+	public boolean isMethodHandleInvocation() {
+		return this.methodHandleInvocation;
+	}
+
 	@Override
 	protected MessagingMessageListenerAdapter createMessageListener(NatsListenerContainer container, MessageConverter messageConverter) {
 		Assert.state(this.messageHandlerMethodFactory != null, "Could not create message listener - MessageHandlerMethodFactory not set");
@@ -102,6 +119,12 @@ public class MethodNatsListenerEndpoint extends AbstractNatsListenerEndpoint {
 	 */
 	protected HandlerAdapter configureListenerAdapter(MessagingMessageListenerAdapter messageListener) {
 		InvocableHandlerMethod invocableHandlerMethod = this.messageHandlerMethodFactory.createInvocableHandlerMethod(getBean(), getMethod());
+		if (this.methodHandleInvocation) {
+			MethodHandleInvoker invoker = MethodHandleInvoker.create(invocableHandlerMethod);
+			if (invoker != null) {
+				return new HandlerAdapter(invoker);
+			}
+		}
 		return new HandlerAdapter(invocableHandlerMethod);
 	}
 
@@ -115,6 +138,8 @@ public class MethodNatsListenerEndpoint extends AbstractNatsListenerEndpoint {
 		if (messageConverter instanceof MessagingMessageConverter) {
 			messageListener.setMessageConverter(messageConverter);
 		}
+		messageListener.setReplyPublisher(getReplyPublisher());
+		messageListener.setReplySubject(getReplySubject());
 		return messageListener;
 	}
 
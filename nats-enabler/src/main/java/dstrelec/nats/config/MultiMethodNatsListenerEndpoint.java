@@ -45,6 +45,10 @@ public class MultiMethodNatsListenerEndpoint extends MethodNatsListenerEndpoint
 		setBean(bean);
 	}
 
+	public List<Method> getMethods() {
+		return this.methods;
+	}
+
 	@Override
 	protected HandlerAdapter configureListenerAdapter(MessagingMessageListenerAdapter messageListener) {
 		List<InvocableHandlerMethod> invocableHandlerMethods = new ArrayList<>();
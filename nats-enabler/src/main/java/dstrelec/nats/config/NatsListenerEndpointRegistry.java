@@ -19,13 +19,18 @@ package dstrelec.nats.config;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.listener.DefaultNatsListenerContainer;
 import dstrelec.nats.listener.NatsListenerContainer;
+import dstrelec.nats.listener.SubscriptionMultiplexer;
+import dstrelec.nats.listener.config.ContainerProperties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -79,6 +84,14 @@ public class NatsListenerEndpointRegistry implements DisposableBean, SmartLifecy
 
 	private boolean contextRefreshed;
 
+	private boolean multiplexSubjects;
+
+	private int multiplexPrefixTokens = 1;
+
+	private boolean sharedDelivery;
+
+	private final Map<NatsConnectionFactory, SubscriptionMultiplexer> multiplexers = new IdentityHashMap<>();
+
 
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
@@ -87,6 +100,40 @@ public class NatsListenerEndpointRegistry implements DisposableBean, SmartLifecy
 		}
 	}
 
+	/**
+	 * Set to true to have the containers of all endpoints sharing a connection factory
+	 * subscribe through a {@link SubscriptionMultiplexer}, which collapses subjects with
+	 * a common prefix into one wildcard subscription. Must be set before the endpoints
+	 * are registered.
+	 * @param multiplexSubjects true to multiplex.
+	 */
+	public void setMultiplexSubjects(boolean multiplexSubjects) {
+		this.multiplexSubjects = multiplexSubjects;
+	}
+
+	/**
+	 * Set to true to deliver each message once to the JVM and fan it out to all local
+	 * endpoints listening to its subject, which share the decoded payload when they use
+	 * the same converter and payload type. Payloads must then be treated as immutable.
+	 * Implies a {@link SubscriptionMultiplexer}; subjects are only collapsed into
+	 * wildcard subscriptions if {@link #setMultiplexSubjects(boolean)} is also set.
+	 * Must be set before the endpoints are registered.
+	 * @param sharedDelivery true for shared delivery.
+	 * @see dstrelec.nats.support.SharedMessage
+	 */
+	public void setSharedDelivery(boolean sharedDelivery) {
+		this.sharedDelivery = sharedDelivery;
+	}
+
+	/**
+	 * Set the number of leading subject tokens shared by a multiplexed subscription.
+	 * @param multiplexPrefixTokens the number of tokens.
+	 * @see SubscriptionMultiplexer#setPrefixTokens(int)
+	 */
+	public void setMultiplexPrefixTokens(int multiplexPrefixTokens) {
+		this.multiplexPrefixTokens = multiplexPrefixTokens;
+	}
+
 	/**
 	 * Return the {@link NatsListenerContainer} with the specified id or
 	 * {@code null} if no such container exists.
@@ -182,6 +229,14 @@ public class NatsListenerEndpointRegistry implements DisposableBean, SmartLifecy
 
 		NatsListenerContainer listenerContainer = factory.createListenerContainer(endpoint);
 
+		if ((this.multiplexSubjects || this.sharedDelivery) && listenerContainer instanceof DefaultNatsListenerContainer) {
+			DefaultNatsListenerContainer container = (DefaultNatsListenerContainer) listenerContainer;
+			ContainerProperties containerProperties = container.getContainerProperties();
+			if (containerProperties.getSubscriptionMultiplexer() == null) {
+				containerProperties.setSubscriptionMultiplexer(getMultiplexer(container.getConnectionFactory()));
+			}
+		}
+
 		if (listenerContainer instanceof InitializingBean) {
 			try {
 				((InitializingBean) listenerContainer).afterPropertiesSet();
@@ -203,6 +258,19 @@ public class NatsListenerEndpointRegistry implements DisposableBean, SmartLifecy
 		return listenerContainer;
 	}
 
+	private SubscriptionMultiplexer getMultiplexer(NatsConnectionFactory connectionFactory) {
+		synchronized (this.multiplexers) {
+			SubscriptionMultiplexer multiplexer = this.multiplexers.get(connectionFactory);
+			if (multiplexer == null) {
+				multiplexer = new SubscriptionMultiplexer(connectionFactory);
+				multiplexer.setPrefixTokens(this.multiplexSubjects ? this.multiplexPrefixTokens : 0);
+				multiplexer.setShareConversions(this.sharedDelivery);
+				this.multiplexers.put(connectionFactory, multiplexer);
+			}
+			return multiplexer;
+		}
+	}
+
 
 	@Override
 	public void destroy() {
@@ -216,6 +284,12 @@ public class NatsListenerEndpointRegistry implements DisposableBean, SmartLifecy
 				}
 			}
 		}
+		synchronized (this.multiplexers) {
+			for (SubscriptionMultiplexer multiplexer : this.multiplexers.values()) {
+				multiplexer.destroy();
+			}
+			this.multiplexers.clear();
+		}
 	}
 
 
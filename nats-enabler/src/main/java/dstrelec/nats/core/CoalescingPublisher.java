@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dstrelec.nats.NatsException;
+import io.nats.client.Connection;
+import io.nats.client.Message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * Publishes messages for components that send many small messages from many threads,
+ * such as listener replies and dead letters.
+ * <p>
+ * By default messages are published on the calling thread. The connection only
+ * appends them to its buffer and its flusher writes whatever has accumulated in one
+ * go, so concurrent publishers are coalesced into few socket writes without a
+ * hand-off to another thread. Failures to obtain the connection or to publish are
+ * thrown to the caller as {@link NatsException}s.
+ * <p>
+ * With a {@link #setQueueCapacity(int) queue capacity}, callers only enqueue the
+ * message and a writer thread, started on the first publish, publishes it; callers
+ * are then not held up by a slow or reconnecting connection, and publishing failures
+ * are logged instead. When the queue is full, the {@link OverflowPolicy} decides
+ * whether the caller publishes the message itself or it is dropped.
+ * <p>
+ * Once {@link #destroy() destroyed}, the publisher rejects further messages; the
+ * writer publishes the messages still queued before it stops.
+ *
+ * @author Dario Strelec
+ */
+public class CoalescingPublisher implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(CoalescingPublisher.class);
+
+	private static final long SHUTDOWN_TIMEOUT = 10000;
+
+	private final NatsConnectionFactory connectionFactory;
+
+	private final Object lifecycleMonitor = new Object();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile BlockingQueue<Message> queue;
+
+	private OverflowPolicy overflowPolicy = OverflowPolicy.CALLER_RUNS;
+
+	private String threadName = "nats-coalescing-publisher";
+
+	private Thread writer;
+
+	private volatile boolean destroyed;
+
+	/**
+	 * Create an instance.
+	 * @param connectionFactory the connection factory.
+	 */
+	public CoalescingPublisher(NatsConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "'connectionFactory' cannot be null");
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * Set the maximum number of messages waiting for the writer thread; 0 (the
+	 * default) to publish on the calling thread. Must be set before the first publish.
+	 * @param queueCapacity the queue capacity.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		Assert.isTrue(queueCapacity >= 0, "'queueCapacity' must not be negative");
+		synchronized (this.lifecycleMonitor) {
+			Assert.state(this.writer == null, "The queue capacity cannot be changed once publishing started");
+			this.queue = queueCapacity == 0 ? null : new ArrayBlockingQueue<Message>(queueCapacity);
+		}
+	}
+
+	/**
+	 * Set what happens to a message when the queue is full; defaults to
+	 * {@link OverflowPolicy#CALLER_RUNS}.
+	 * @param overflowPolicy the overflow policy.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "'overflowPolicy' cannot be null");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set the name of the writer thread.
+	 * @param threadName the thread name.
+	 */
+	public void setThreadName(String threadName) {
+		this.threadName = threadName;
+	}
+
+	/**
+	 * Return the number of messages waiting for the writer thread.
+	 * @return the queue size.
+	 */
+	public int getQueueSize() {
+		BlockingQueue<Message> queue = this.queue;
+		return queue == null ? 0 : queue.size();
+	}
+
+	/**
+	 * Return the number of messages dropped because the queue was full.
+	 * @return the count.
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Publish a message, or enqueue it for the writer thread.
+	 * @param message the message.
+	 * @throws NatsException if the message is published on the calling thread and
+	 * cannot be published.
+	 * @throws IllegalStateException if the publisher has been destroyed.
+	 */
+	public void publish(Message message) {
+		Assert.notNull(message, "'message' cannot be null");
+		Assert.state(!this.destroyed, "The publisher has been destroyed");
+		BlockingQueue<Message> queue = this.queue;
+		if (queue == null) {
+			doPublish(message);
+			return;
+		}
+		if (this.writer == null) {
+			startWriter();
+		}
+		if (queue.offer(message)) {
+			return;
+		}
+		if (this.overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+			doPublish(message);
+		}
+		else {
+			long dropped = this.dropped.incrementAndGet();
+			if (logger.isWarnEnabled()) {
+				logger.warn("Publish queue full; dropped a message to " + message.getSubject() + " (" + dropped
+						+ " dropped in total)");
+			}
+		}
+	}
+
+	private void doPublish(Message message) {
+		Connection connection;
+		try {
+			connection = this.connectionFactory.getConnection();
+		}
+		catch (IOException e) {
+			throw new NatsException("Failed to obtain a connection to publish to " + message.getSubject(), e);
+		}
+		try {
+			connection.publish(message);
+		}
+		catch (IOException | IllegalStateException e) {
+			throw new NatsException("Failed to publish to " + message.getSubject(), e);
+		}
+	}
+
+	private void startWriter() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.writer != null || this.destroyed) {
+				return;
+			}
+			Thread writer = new Thread(new Writer(), this.threadName);
+			writer.setDaemon(true);
+			writer.start();
+			this.writer = writer;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		Thread writer;
+		synchronized (this.lifecycleMonitor) {
+			this.destroyed = true;
+			writer = this.writer;
+		}
+		if (writer != null) {
+			try {
+				writer.join(SHUTDOWN_TIMEOUT);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/**
+	 * What to do with a message when the queue is full.
+	 */
+	public enum OverflowPolicy {
+
+		/**
+		 * Publish the message on the calling thread.
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Drop and count the message.
+		 */
+		DROP
+
+	}
+
+	/*
+	 * Publishes the queued messages in batches until destroyed and drained; a message
+	 * that cannot be published is logged and does not affect the others.
+	 */
+	private final class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			BlockingQueue<Message> queue = CoalescingPublisher.this.queue;
+			List<Message> batch = new ArrayList<>();
+			while (!CoalescingPublisher.this.destroyed || !queue.isEmpty()) {
+				try {
+					Message first = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+					queue.drainTo(batch);
+					for (Message message : batch) {
+						try {
+							doPublish(message);
+						}
+						catch (RuntimeException e) {
+							logger.error("Failed to publish to " + message.getSubject(), e);
+						}
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				finally {
+					batch.clear();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.core.reactive;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.converter.MessageConverter;
+import io.nats.client.Connection;
+import io.nats.client.SyncSubscription;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.Message;
+
+/**
+ * A {@link Publisher} backed by a synchronous Nats subscription. Each subscriber gets
+ * its own subscription and polling thread, which only takes messages from the
+ * subscription while the subscriber has outstanding demand; unrequested messages stay
+ * in the pending buffer of the Nats client, subject to its pending limits.
+ *
+ * @author Dario Strelec
+ */
+class DemandDrivenSubscriptionPublisher implements Publisher<Message<?>> {
+
+	private static final Log logger = LogFactory.getLog(DemandDrivenSubscriptionPublisher.class);
+
+	private final NatsConnectionFactory connectionFactory;
+
+	private final String subject;
+
+	private final String queueGroup;
+
+	private final MessageConverter messageConverter;
+
+	private final Type payloadType;
+
+	private final long pollTimeout;
+
+	private final Executor executor;
+
+	DemandDrivenSubscriptionPublisher(NatsConnectionFactory connectionFactory, String subject, String queueGroup,
+			MessageConverter messageConverter, Type payloadType, long pollTimeout, Executor executor) {
+		this.connectionFactory = connectionFactory;
+		this.subject = subject;
+		this.queueGroup = queueGroup;
+		this.messageConverter = messageConverter;
+		this.payloadType = payloadType;
+		this.pollTimeout = pollTimeout;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super Message<?>> subscriber) {
+		DemandSubscription subscription = new DemandSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		this.executor.execute(subscription);
+	}
+
+
+	private final class DemandSubscription implements Subscription, Runnable {
+
+		private final Subscriber<? super Message<?>> subscriber;
+
+		private final AtomicLong demand = new AtomicLong();
+
+		private final AtomicBoolean terminated = new AtomicBoolean();
+
+		private final Object monitor = new Object();
+
+		private volatile boolean cancelled;
+
+		private volatile Throwable invalidDemand;
+
+		private DemandSubscription(Subscriber<? super Message<?>> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				// signalled by the polling thread, which may be in onNext
+				this.invalidDemand = new IllegalArgumentException("Demand must be positive, was " + n);
+				synchronized (this.monitor) {
+					this.monitor.notifyAll();
+				}
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = this.demand.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			}
+			while (!this.demand.compareAndSet(current, next));
+			synchronized (this.monitor) {
+				this.monitor.notifyAll();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			synchronized (this.monitor) {
+				this.monitor.notifyAll();
+			}
+		}
+
+		@Override
+		public void run() {
+			SyncSubscription subscription = null;
+			try {
+				Connection connection = DemandDrivenSubscriptionPublisher.this.connectionFactory.getConnection();
+				String queueGroup = DemandDrivenSubscriptionPublisher.this.queueGroup;
+				subscription = queueGroup == null
+						? connection.subscribeSync(DemandDrivenSubscriptionPublisher.this.subject)
+						: connection.subscribeSync(DemandDrivenSubscriptionPublisher.this.subject, queueGroup);
+				while (!this.cancelled) {
+					if (this.invalidDemand != null) {
+						error(this.invalidDemand);
+						this.cancelled = true;
+						break;
+					}
+					if (this.demand.get() == 0) {
+						synchronized (this.monitor) {
+							while (this.demand.get() == 0 && !this.cancelled && this.invalidDemand == null) {
+								this.monitor.wait();
+							}
+						}
+						continue;
+					}
+					io.nats.client.Message message;
+					try {
+						message = subscription.nextMessage(DemandDrivenSubscriptionPublisher.this.pollTimeout,
+								TimeUnit.MILLISECONDS);
+					}
+					catch (TimeoutException e) {
+						continue;
+					}
+					if (message == null || this.cancelled) {
+						continue;
+					}
+					Message<?> converted = DemandDrivenSubscriptionPublisher.this.messageConverter
+							.toMessage(message, DemandDrivenSubscriptionPublisher.this.payloadType);
+					if (this.demand.get() != Long.MAX_VALUE) {
+						this.demand.decrementAndGet();
+					}
+					this.subscriber.onNext(converted);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error(e);
+			}
+			catch (Exception e) {
+				error(e);
+			}
+			finally {
+				if (subscription != null) {
+					try {
+						subscription.unsubscribe();
+					}
+					catch (Exception e) {
+						logger.debug("Failed to unsubscribe from " + subscription.getSubject(), e);
+					}
+				}
+			}
+		}
+
+		private void error(Throwable t) {
+			if (!this.cancelled && this.terminated.compareAndSet(false, true)) {
+				this.subscriber.onError(t);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.core.reactive;
+
+import java.lang.reflect.Type;
+
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.Message;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The reactive Nats operations contract; consumption and publishing are driven by
+ * Reactive Streams demand.
+ *
+ * @author Dario Strelec
+ *
+ */
+public interface ReactiveNatsOperations {
+
+	/**
+	 * Receive messages from the subject with payloads as provided by the converter
+	 * for {@link Object}. Messages are only pulled from the subscription as they
+	 * are requested by the subscriber.
+	 * @param subject the subject.
+	 * @param queueGroup the queue group, or null for a plain subscription.
+	 * @return the messages.
+	 */
+	Flux<Message<?>> receive(String subject, String queueGroup);
+
+	/**
+	 * Receive messages from the subject, converting the payloads to the requested type.
+	 * Messages are only pulled from the subscription as they are requested by the subscriber.
+	 * @param subject the subject.
+	 * @param queueGroup the queue group, or null for a plain subscription.
+	 * @param payloadType the payload type.
+	 * @param <T> the payload type.
+	 * @return the messages.
+	 */
+	<T> Flux<Message<T>> receive(String subject, String queueGroup, Class<T> payloadType);
+
+	/**
+	 * Receive messages from the subject, converting the payloads to the requested type.
+	 * @param subject the subject.
+	 * @param queueGroup the queue group, or null for a plain subscription.
+	 * @param payloadType the payload type.
+	 * @return the messages.
+	 * @see #receive(String, String, Class)
+	 */
+	Flux<Message<?>> receive(String subject, String queueGroup, Type payloadType);
+
+	/**
+	 * Publish the messages, requesting them from the publisher in batches. Routing
+	 * information is taken from the message headers as for
+	 * {@link dstrelec.nats.core.NatsOperations#publishMessage(Message)}.
+	 * @param messages the messages to send.
+	 * @return a {@link Mono} completing once all messages were written and flushed.
+	 */
+	Mono<Void> send(Publisher<Message<?>> messages);
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.core.reactive;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import dstrelec.nats.NatsException;
+import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.converter.MessageConverter;
+import dstrelec.nats.support.converter.MessagingMessageConverter;
+import io.nats.client.Connection;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A reactive template for consuming and publishing Nats messages with backpressure.
+ * <p>
+ * {@link #receive(String, String, Type) Receiving} opens a synchronous subscription per
+ * subscriber and pulls only as many messages as were requested downstream.
+ * {@link #send(Publisher) Sending} requests messages from the upstream publisher in
+ * batches of {@link #setSendBatchSize(int) sendBatchSize}, writes them without flushing
+ * and flushes the connection once when the upstream completes.
+ *
+ * @author Dario Strelec
+ */
+public class ReactiveNatsTemplate implements ReactiveNatsOperations {
+
+	private static final String DEFAULT_SUBJECT = "default";
+
+	private static final int DEFAULT_SEND_BATCH_SIZE = 256;
+
+	private static final long DEFAULT_POLL_TIMEOUT = 1000;
+
+	private final NatsConnectionFactory connectionFactory;
+
+	private MessageConverter messageConverter = new MessagingMessageConverter();
+
+	private volatile String defaultSubject = DEFAULT_SUBJECT;
+
+	private int sendBatchSize = DEFAULT_SEND_BATCH_SIZE;
+
+	private long pollTimeout = DEFAULT_POLL_TIMEOUT;
+
+	private TaskExecutor receiveTaskExecutor = new SimpleAsyncTaskExecutor("nats-reactive-receive-");
+
+	/**
+	 * Create an instance using the supplied connection factory.
+	 * @param connectionFactory the connection factory.
+	 */
+	public ReactiveNatsTemplate(NatsConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "'connectionFactory' cannot be null");
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * Return the message converter.
+	 * @return the message converter.
+	 */
+	public MessageConverter getMessageConverter() {
+		return this.messageConverter;
+	}
+
+	/**
+	 * Set the message converter to use.
+	 * @param messageConverter the message converter.
+	 */
+	public void setMessageConverter(MessageConverter messageConverter) {
+		Assert.notNull(messageConverter, "'messageConverter' cannot be null");
+		this.messageConverter = messageConverter;
+	}
+
+	/**
+	 * The default subject for messages without a subject header.
+	 * @return the subject.
+	 */
+	public String getDefaultSubject() {
+		return this.defaultSubject;
+	}
+
+	/**
+	 * Set the default subject for messages without a subject header.
+	 * @param defaultSubject the subject.
+	 */
+	public void setDefaultSubject(String defaultSubject) {
+		this.defaultSubject = defaultSubject;
+	}
+
+	/**
+	 * Set the number of messages requested from the upstream publisher at a time
+	 * when sending.
+	 * @param sendBatchSize the batch size.
+	 */
+	public void setSendBatchSize(int sendBatchSize) {
+		Assert.isTrue(sendBatchSize > 0, "'sendBatchSize' must be greater than 0");
+		this.sendBatchSize = sendBatchSize;
+	}
+
+	/**
+	 * Set how long a receiving thread waits for a message before checking for
+	 * cancellation, in milliseconds.
+	 * @param pollTimeout the poll timeout.
+	 */
+	public void setPollTimeout(long pollTimeout) {
+		Assert.isTrue(pollTimeout > 0, "'pollTimeout' must be greater than 0");
+		this.pollTimeout = pollTimeout;
+	}
+
+	/**
+	 * Set the executor providing a polling thread per receiving subscriber.
+	 * @param receiveTaskExecutor the executor.
+	 */
+	public void setReceiveTaskExecutor(TaskExecutor receiveTaskExecutor) {
+		Assert.notNull(receiveTaskExecutor, "'receiveTaskExecutor' cannot be null");
+		this.receiveTaskExecutor = receiveTaskExecutor;
+	}
+
+	@Override
+	public Flux<Message<?>> receive(String subject, String queueGroup) {
+		return receive(subject, queueGroup, (Type) Object.class);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public <T> Flux<Message<T>> receive(String subject, String queueGroup, Class<T> payloadType) {
+		return (Flux) receive(subject, queueGroup, (Type) payloadType);
+	}
+
+	@Override
+	public Flux<Message<?>> receive(String subject, String queueGroup, Type payloadType) {
+		Assert.hasText(subject, "'subject' must not be empty");
+		return Flux.from(new DemandDrivenSubscriptionPublisher(this.connectionFactory, subject, queueGroup,
+				this.messageConverter, payloadType, this.pollTimeout, this.receiveTaskExecutor));
+	}
+
+	@Override
+	public Mono<Void> send(Publisher<Message<?>> messages) {
+		return Mono.defer(() -> {
+			Connection connection = getConnection();
+			return Flux.from(messages)
+					.limitRate(this.sendBatchSize)
+					.doOnNext(message -> publish(connection, message))
+					.thenEmpty(Mono.fromRunnable(() -> flush(connection)));
+		});
+	}
+
+	private void publish(Connection connection, Message<?> message) {
+		try {
+			connection.publish(this.messageConverter.fromMessage(message, this.defaultSubject));
+		}
+		catch (IOException e) {
+			throw new NatsException("Publish failed.", e);
+		}
+	}
+
+	private void flush(Connection connection) {
+		try {
+			connection.flush();
+		}
+		catch (Exception e) {
+			throw new NatsException("Flush failed.", e);
+		}
+	}
+
+	private Connection getConnection() throws NatsException {
+		try {
+			return this.connectionFactory.getConnection();
+		}
+		catch (IOException e) {
+			throw new NatsException("Connection failed.", e);
+		}
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.nats.client.Message;
+
+import dstrelec.nats.NatsException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * An {@link ErrorHandler} that aggregates failures instead of logging each of them.
+ * <p>
+ * Failures are grouped by exception type and message subject, rather than by
+ * subscription, since a multiplexed subscription serves many listeners under one
+ * wildcard. The type is that of the first cause that is not a {@link NatsException},
+ * since listener adapters wrap every failure in one. The first failure of a group is
+ * logged right away; after that, the group only counts failures and keeps one sample,
+ * and a summary with the count and the sample's stack trace is logged once per
+ * {@link #setInterval(long) interval} for every group that failed in it. Counting is a
+ * single atomic increment, so the delivering threads neither take a lock nor wait for
+ * the logging appender. Once {@link #destroy() destroyed}, failures are logged
+ * individually.
+ *
+ * @author Dario Strelec
+ */
+public class AggregatingErrorHandler implements ErrorHandler, DisposableBean {
+
+	private static final Log defaultLogger = LogFactory.getLog(AggregatingErrorHandler.class);
+
+	private static final long DEFAULT_INTERVAL = 10000;
+
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, FailureGroup>> groups = new ConcurrentHashMap<>();
+
+	private final Object lifecycleMonitor = new Object();
+
+	private Log logger = defaultLogger;
+
+	private long interval = DEFAULT_INTERVAL;
+
+	private volatile ScheduledExecutorService scheduler;
+
+	private volatile boolean destroyed;
+
+	/**
+	 * Set the interval between summaries in milliseconds.
+	 * @param interval the interval.
+	 */
+	public void setInterval(long interval) {
+		Assert.isTrue(interval > 0, "'interval' must be greater than 0");
+		this.interval = interval;
+	}
+
+	/**
+	 * Set the log category the summaries are written to.
+	 * @param category the category.
+	 */
+	public void setLogCategory(String category) {
+		this.logger = LogFactory.getLog(category);
+	}
+
+	@Override
+	public void handle(Exception thrownException, Message message) {
+		if (this.scheduler == null && !start()) {
+			this.logger.error("Error while processing: " + ObjectUtils.nullSafeToString(message), thrownException);
+			return;
+		}
+		Class<?> type = typeOf(thrownException);
+		String source = sourceOf(message);
+		ConcurrentMap<String, FailureGroup> byType = this.groups.get(type);
+		if (byType == null) {
+			ConcurrentMap<String, FailureGroup> created = new ConcurrentHashMap<>();
+			byType = this.groups.putIfAbsent(type, created);
+			if (byType == null) {
+				byType = created;
+			}
+		}
+		while (true) {
+			FailureGroup group = byType.get(source);
+			if (group == null) {
+				FailureGroup created = new FailureGroup();
+				group = byType.putIfAbsent(source, created);
+				if (group == null) {
+					this.logger.error("Error while processing: " + ObjectUtils.nullSafeToString(message)
+							+ " (further " + type.getName() + " failures on '" + source + "' are summarized every "
+							+ this.interval + "ms)", thrownException);
+					return;
+				}
+			}
+			if (group.count.getAndIncrement() < 0) {
+				// detached by logSummaries(); count in a new group
+				byType.remove(source, group);
+				continue;
+			}
+			if (group.sample.get() == null) {
+				group.sample.compareAndSet(null, new Sample(thrownException, message));
+			}
+			return;
+		}
+	}
+
+	private static Class<?> typeOf(Exception exception) {
+		Throwable cause = exception;
+		while (cause instanceof NatsException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause == null ? Exception.class : cause.getClass();
+	}
+
+	private static String sourceOf(Message message) {
+		if (message == null) {
+			return "unknown";
+		}
+		return message.getSubject();
+	}
+
+	/*
+	 * Return false if destroyed.
+	 */
+	private boolean start() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.destroyed) {
+				return false;
+			}
+			if (this.scheduler != null) {
+				return true;
+			}
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("nats-error-summary-");
+			threadFactory.setDaemon(true);
+			ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					logSummaries();
+				}
+
+			}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+			this.scheduler = scheduler;
+			return true;
+		}
+	}
+
+	/**
+	 * Log a summary for every group that failed since the last summary, and forget the
+	 * groups that did not.
+	 */
+	public synchronized void logSummaries() {
+		for (Map.Entry<Class<?>, ConcurrentMap<String, FailureGroup>> byType : this.groups.entrySet()) {
+			for (Map.Entry<String, FailureGroup> entry : byType.getValue().entrySet()) {
+				FailureGroup group = entry.getValue();
+				if (group.count.compareAndSet(0, FailureGroup.DETACHED)) {
+					byType.getValue().remove(entry.getKey(), group);
+					continue;
+				}
+				Sample sample = group.sample.getAndSet(null);
+				long count = group.count.getAndSet(0);
+				this.logger.error(count + " more " + byType.getKey().getName() + " failure(s) on '" + entry.getKey()
+						+ "' in the last " + this.interval + "ms; sample message: "
+						+ (sample == null ? "none" : ObjectUtils.nullSafeToString(sample.message)),
+						sample == null ? null : sample.exception);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ScheduledExecutorService scheduler;
+		synchronized (this.lifecycleMonitor) {
+			this.destroyed = true;
+			scheduler = this.scheduler;
+			this.scheduler = null;
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			logSummaries();
+		}
+	}
+
+
+	/*
+	 * A group whose count is DETACHED has been removed; failures counted on it go to a
+	 * new group.
+	 */
+	private static final class FailureGroup {
+
+		private static final long DETACHED = Long.MIN_VALUE;
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicReference<Sample> sample = new AtomicReference<>();
+
+	}
+
+	private static final class Sample {
+
+		private final Exception exception;
+
+		private final Message message;
+
+		private Sample(Exception exception, Message message) {
+			this.exception = exception;
+			this.message = message;
+		}
+
+	}
+
+}
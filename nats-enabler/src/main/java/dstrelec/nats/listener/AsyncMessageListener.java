@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import io.nats.client.Message;
+
+/**
+ * Listener for handling individual incoming messages that may complete asynchronously.
+ * The container tracks the returned stage instead of blocking the delivering thread,
+ * and routes an exceptional completion to its {@link ErrorHandler}.
+ *
+ * @author Dario Strelec
+ *
+ */
+public interface AsyncMessageListener extends MessageListener {
+
+	/**
+	 * The stage to return for a message the listener did not process, such as one
+	 * rejected by a filter; the container counts it as neither a success nor a failure.
+	 */
+	CompletionStage<?> IGNORED = CompletableFuture.completedFuture(null);
+
+	/**
+	 * Process the message.
+	 * @param message the message.
+	 * @return a stage completing when the message has been processed, {@code null}
+	 * if it was processed synchronously, or {@link #IGNORED} if it was not processed.
+	 */
+	CompletionStage<?> onMessageAsync(Message message);
+
+}
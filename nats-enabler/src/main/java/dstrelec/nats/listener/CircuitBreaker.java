@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dstrelec.nats.listener.config.CircuitBreakerProperties;
+
+import org.springframework.util.Assert;
+
+/**
+ * Tracks the outcome of listener invocations and opens when the listener keeps failing.
+ * <p>
+ * A closed circuit opens after {@link CircuitBreakerProperties#getConsecutiveFailures()
+ * consecutive failures} or when the failure rate within the current window of
+ * invocations reaches the {@link CircuitBreakerProperties#getFailureRateThreshold()
+ * threshold}. The owner moves an open circuit to half-open after the open duration;
+ * a half-open circuit closes after the configured number of successful probes and
+ * opens again on the first failure, or once the {@link #setProbeLimit(int) probe limit}
+ * is used up by successes and {@link #recordIgnored() ignored} messages without enough
+ * successes.
+ * <p>
+ * Recording an outcome is lock-free. State changes are reported to the
+ * {@link StateListener}, which {@link DefaultNatsListenerContainer} uses to remove and
+ * restore its subscriptions.
+ *
+ * @author Dario Strelec
+ */
+public class CircuitBreaker {
+
+	private static final long CALLS_UNIT = 1L << 32;
+
+	private static final long FAILURES_MASK = CALLS_UNIT - 1;
+
+	private final CircuitBreakerProperties properties;
+
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	/*
+	 * Calls in the upper, failures in the lower 32 bits.
+	 */
+	private final AtomicLong window = new AtomicLong();
+
+	private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+	private final AtomicInteger probesTaken = new AtomicInteger();
+
+	private volatile int probeLimit;
+
+	private volatile StateListener stateListener;
+
+	/**
+	 * Create an instance.
+	 * @param properties the circuit breaker settings.
+	 */
+	public CircuitBreaker(CircuitBreakerProperties properties) {
+		Assert.notNull(properties, "'properties' cannot be null");
+		this.properties = properties;
+	}
+
+	/**
+	 * Set the listener notified of state changes.
+	 * @param stateListener the listener.
+	 */
+	public void setStateListener(StateListener stateListener) {
+		this.stateListener = stateListener;
+	}
+
+	/**
+	 * Set the number of messages a half-open circuit receives, for example the probes
+	 * per subscription times the number of subscriptions; defaults to the number of
+	 * probes.
+	 * @param probeLimit the probe limit.
+	 */
+	public void setProbeLimit(int probeLimit) {
+		this.probeLimit = probeLimit;
+	}
+
+	public State getState() {
+		return this.state.get();
+	}
+
+	/**
+	 * Record a successful invocation.
+	 */
+	public void recordSuccess() {
+		State current = this.state.get();
+		if (current == State.CLOSED) {
+			if (this.consecutiveFailures.get() != 0) {
+				this.consecutiveFailures.set(0);
+			}
+			record(false);
+		}
+		else if (current == State.HALF_OPEN) {
+			int taken = this.probesTaken.incrementAndGet();
+			if (this.probeSuccesses.incrementAndGet() >= this.properties.getProbes()) {
+				transition(State.HALF_OPEN, State.CLOSED);
+			}
+			else if (taken >= getProbeLimit()) {
+				transition(State.HALF_OPEN, State.OPEN);
+			}
+		}
+	}
+
+	/**
+	 * Record a message that was consumed without invoking the listener, for example
+	 * because it did not match the routing condition or is quarantined. While half-open
+	 * it uses up a probe; the circuit opens again when no probes are left.
+	 */
+	public void recordIgnored() {
+		if (this.state.get() == State.HALF_OPEN && this.probesTaken.incrementAndGet() >= getProbeLimit()) {
+			transition(State.HALF_OPEN, State.OPEN);
+		}
+	}
+
+	/**
+	 * Record a failed invocation.
+	 */
+	public void recordFailure() {
+		State current = this.state.get();
+		if (current == State.CLOSED) {
+			int consecutive = this.consecutiveFailures.incrementAndGet();
+			int threshold = this.properties.getConsecutiveFailures();
+			if ((threshold > 0 && consecutive >= threshold) | record(true)) {
+				transition(State.CLOSED, State.OPEN);
+			}
+		}
+		else if (current == State.HALF_OPEN) {
+			transition(State.HALF_OPEN, State.OPEN);
+		}
+	}
+
+	/**
+	 * Move an open circuit to half-open.
+	 * @return true if the circuit was open.
+	 */
+	public boolean halfOpen() {
+		return transition(State.OPEN, State.HALF_OPEN);
+	}
+
+	/**
+	 * Open the circuit, whatever its state.
+	 * @return true if the circuit was not open.
+	 */
+	public boolean open() {
+		State current = this.state.get();
+		return current != State.OPEN && transition(current, State.OPEN);
+	}
+
+	/**
+	 * Close the circuit, whatever its state.
+	 */
+	public void reset() {
+		State current = this.state.get();
+		if (current != State.CLOSED) {
+			transition(current, State.CLOSED);
+		}
+	}
+
+	/*
+	 * Add the outcome to the window; return true if the failure rate threshold is reached.
+	 */
+	private boolean record(boolean failure) {
+		int windowSize = Math.max(1, this.properties.getWindowSize());
+		long previous;
+		long next;
+		do {
+			previous = this.window.get();
+			next = previous + CALLS_UNIT + (failure ? 1 : 0);
+			if ((next >>> 32) >= windowSize) {
+				next = 0;
+			}
+		}
+		while (!this.window.compareAndSet(previous, next));
+		int threshold = this.properties.getFailureRateThreshold();
+		if (!failure || threshold <= 0) {
+			return false;
+		}
+		long calls = (previous >>> 32) + 1;
+		long failures = (previous & FAILURES_MASK) + 1;
+		return calls >= this.properties.getMinimumCalls() && failures * 100 >= threshold * calls;
+	}
+
+	private int getProbeLimit() {
+		int probeLimit = this.probeLimit;
+		return probeLimit > 0 ? probeLimit : this.properties.getProbes();
+	}
+
+	private boolean transition(State from, State to) {
+		if (!this.state.compareAndSet(from, to)) {
+			return false;
+		}
+		this.consecutiveFailures.set(0);
+		this.window.set(0);
+		this.probeSuccesses.set(0);
+		this.probesTaken.set(0);
+		StateListener listener = this.stateListener;
+		if (listener != null) {
+			listener.stateChanged(from, to);
+		}
+		return true;
+	}
+
+	/**
+	 * The circuit states.
+	 */
+	public enum State {
+
+		/**
+		 * Messages are delivered normally.
+		 */
+		CLOSED,
+
+		/**
+		 * The listener is failing; no messages are consumed.
+		 */
+		OPEN,
+
+		/**
+		 * A limited number of probe messages is consumed.
+		 */
+		HALF_OPEN
+
+	}
+
+	/**
+	 * Callback for circuit state changes.
+	 */
+	public interface StateListener {
+
+		/**
+		 * Called after the state changed, on the thread that caused the change.
+		 * @param previous the previous state.
+		 * @param current the new state.
+		 */
+		void stateChanged(State previous, State current);
+
+	}
+
+}
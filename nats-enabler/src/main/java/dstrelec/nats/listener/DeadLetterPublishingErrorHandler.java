@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import dstrelec.nats.NatsException;
+import dstrelec.nats.core.CoalescingPublisher;
+import dstrelec.nats.core.NatsConnectionFactory;
+import io.nats.client.Message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * An {@link ErrorHandler} that republishes failed messages to a dead-letter subject.
+ * <p>
+ * The dead-letter message is a JSON envelope carrying the original subject and reply
+ * subject, the failure ({@code exception}, {@code exceptionMessage},
+ * {@code rootCause}), a {@code timestamp} and the original data as base64
+ * {@code payload}.
+ * <p>
+ * Publishing goes through a {@link CoalescingPublisher}. The one the handler creates
+ * itself hands the envelopes to its writer thread through a bounded queue, so a burst
+ * of errors, or a connection that is reconnecting, does not hold up the delivering
+ * threads; envelopes that do not fit in the queue are dropped and logged. An envelope
+ * that cannot be published is logged with the failure.
+ *
+ * @author Dario Strelec
+ */
+public class DeadLetterPublishingErrorHandler implements ErrorHandler, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(DeadLetterPublishingErrorHandler.class);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	private final CoalescingPublisher publisher;
+
+	private final boolean publisherCreated;
+
+	private final String deadLetterSubject;
+
+	/**
+	 * Create an instance publishing through its own {@link CoalescingPublisher}, with a
+	 * queue of 10000 envelopes that drops envelopes when full.
+	 * @param connectionFactory the connection factory.
+	 * @param deadLetterSubject the dead-letter subject.
+	 */
+	public DeadLetterPublishingErrorHandler(NatsConnectionFactory connectionFactory, String deadLetterSubject) {
+		this(createPublisher(connectionFactory), deadLetterSubject, true);
+	}
+
+	/**
+	 * Create an instance publishing through the supplied publisher, which is not
+	 * destroyed with this handler.
+	 * @param publisher the publisher.
+	 * @param deadLetterSubject the dead-letter subject.
+	 */
+	public DeadLetterPublishingErrorHandler(CoalescingPublisher publisher, String deadLetterSubject) {
+		this(publisher, deadLetterSubject, false);
+	}
+
+	private DeadLetterPublishingErrorHandler(CoalescingPublisher publisher, String deadLetterSubject,
+			boolean publisherCreated) {
+		Assert.notNull(publisher, "'publisher' cannot be null");
+		Assert.hasText(deadLetterSubject, "'deadLetterSubject' must not be empty");
+		this.publisher = publisher;
+		this.deadLetterSubject = deadLetterSubject;
+		this.publisherCreated = publisherCreated;
+	}
+
+	private static CoalescingPublisher createPublisher(NatsConnectionFactory connectionFactory) {
+		CoalescingPublisher publisher = new CoalescingPublisher(connectionFactory);
+		publisher.setQueueCapacity(DEFAULT_QUEUE_CAPACITY);
+		publisher.setOverflowPolicy(CoalescingPublisher.OverflowPolicy.DROP);
+		publisher.setThreadName("nats-dead-letter-publisher");
+		return publisher;
+	}
+
+	public String getDeadLetterSubject() {
+		return this.deadLetterSubject;
+	}
+
+	@Override
+	public void handle(Exception thrownException, Message message) {
+		if (message == null) {
+			logger.error("Error without a message; nothing to dead-letter", thrownException);
+			return;
+		}
+		byte[] envelope;
+		try {
+			envelope = createEnvelope(thrownException, message);
+		}
+		catch (IOException e) {
+			logger.error("Failed to create the dead-letter envelope for: "
+					+ ObjectUtils.nullSafeToString(message), e);
+			return;
+		}
+		try {
+			this.publisher.publish(new Message(this.deadLetterSubject, null, envelope));
+		}
+		catch (NatsException | IllegalStateException e) {
+			logger.error("Failed to dead-letter: " + ObjectUtils.nullSafeToString(message) + "; failure was: "
+					+ thrownException, e);
+		}
+	}
+
+	/**
+	 * Create the dead-letter envelope for a failed message.
+	 * @param thrownException the exception.
+	 * @param message the failed message.
+	 * @return the envelope.
+	 * @throws IOException if the envelope cannot be written.
+	 */
+	protected byte[] createEnvelope(Exception thrownException, Message message) throws IOException {
+		byte[] data = message.getData();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (data == null ? 0 : data.length * 4 / 3));
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+			generator.writeStartObject();
+			generator.writeStringField("subject", message.getSubject());
+			generator.writeStringField("replyTo", message.getReplyTo());
+			generator.writeNumberField("timestamp", System.currentTimeMillis());
+			if (thrownException != null) {
+				generator.writeStringField("exception", thrownException.getClass().getName());
+				generator.writeStringField("exceptionMessage", thrownException.getMessage());
+				Throwable rootCause = thrownException.getCause();
+				while (rootCause != null && rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+					rootCause = rootCause.getCause();
+				}
+				if (rootCause != null) {
+					generator.writeStringField("rootCause", rootCause.getClass().getName());
+					generator.writeStringField("rootCauseMessage", rootCause.getMessage());
+				}
+			}
+			if (data != null) {
+				generator.writeFieldName("payload");
+				generator.writeBinary(data);
+			}
+			generator.writeEndObject();
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public void destroy() {
+		if (this.publisherCreated) {
+			this.publisher.destroy();
+		}
+	}
+
+}
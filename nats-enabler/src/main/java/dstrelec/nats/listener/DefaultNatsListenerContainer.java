@@ -19,21 +19,38 @@ package dstrelec.nats.listener;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.nats.client.AsyncSubscription;
 import io.nats.client.Connection;
 import io.nats.client.Message;
 import io.nats.client.MessageHandler;
 
+import dstrelec.nats.NatsException;
 import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.listener.config.CircuitBreakerProperties;
 import dstrelec.nats.listener.config.ContainerProperties;
+import dstrelec.nats.listener.config.RetryProperties;
+import dstrelec.nats.support.Fingerprints;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 
 /**
@@ -69,10 +86,66 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 
 	private MessageListener listener;
 
+	private MessageListener retryListener;
+
 	private ErrorHandler errorHandler;
 
 	private List<AsyncSubscription> subscriptions = new ArrayList<>();
 
+	private List<SubscriptionMultiplexer.Registration> registrations = new ArrayList<>();
+
+	private volatile DeficitRoundRobinDispatcher dispatcher;
+
+	private Semaphore inFlight;
+
+	private ScheduledExecutorService scheduler;
+
+	private ExecutorService retryExecutor;
+
+	private ScheduledExecutorService circuitScheduler;
+
+	private RetryScheduler retryScheduler;
+
+	private PoisonMessageQuarantine quarantine;
+
+	private CircuitBreaker circuitBreaker;
+
+	private MessageHandler messageHandler;
+
+	private MessageHandler subscriptionHandler;
+
+	private volatile boolean paused;
+
+	private final RetryScheduler.Redelivery redelivery = new RetryScheduler.Redelivery() {
+
+		/*
+		 * Runs on the retry executor, or on the retry timer when dispatching: a full
+		 * queue then defers the retry by another backoff instead of blocking the timer.
+		 */
+		@Override
+		public void redeliver(Message message, final int attempt, Exception previous) {
+			if (!DefaultNatsListenerContainer.this.containerProperties.isFairDispatch()) {
+				invokeMessageListener(message, attempt);
+				return;
+			}
+			DeficitRoundRobinDispatcher dispatcher = DefaultNatsListenerContainer.this.dispatcher;
+			if (dispatcher != null && dispatcher.tryDispatch(message, retried -> invokeMessageListener(retried, attempt))) {
+				return;
+			}
+			RetryScheduler retryScheduler = DefaultNatsListenerContainer.this.retryScheduler;
+			if (dispatcher == null || !dispatcher.isRunning() || retryScheduler == null
+					|| !retryScheduler.schedule(message, attempt - 1, previous, this)) {
+				handleError(previous, message);
+			}
+		}
+
+		@Override
+		public void discard(Message message, Exception previous) {
+			handleError(previous, message);
+		}
+
+	};
+
 	/**
 	 * Construct an instance with the supplied configuration properties.
 	 * @param connectionFactory the connection factory.
@@ -121,10 +194,24 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 		return this.phase;
 	}
 
+	public NatsConnectionFactory getConnectionFactory() {
+		return this.connectionFactory;
+	}
+
 	public ContainerProperties getContainerProperties() {
 		return this.containerProperties;
 	}
 
+	/**
+	 * Return the fair dispatcher of the running container, e.g. to inspect its
+	 * {@link DeficitRoundRobinDispatcher#getQueueMetrics() queue metrics}.
+	 * @return the dispatcher, or null if fair dispatching is not enabled.
+	 * @see ContainerProperties#setFairDispatch(boolean)
+	 */
+	public DeficitRoundRobinDispatcher getDispatcher() {
+		return this.dispatcher;
+	}
+
 	@Override
 	public void setupMessageListener(MessageListener messageListener) {
 		this.containerProperties.setMessageListener(messageListener);
@@ -173,21 +260,51 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 
 		this.listener = containerProperties.getMessageListener();
 		Assert.state(this.listener != null, "A MessageListener is required");
+		MessageListener retryListener = this.listener;
+		while (retryListener instanceof DelegatingMessageListener) {
+			retryListener = ((DelegatingMessageListener) retryListener).getDelegate();
+		}
+		this.retryListener = retryListener;
+
+		ErrorHandler errHandler = containerProperties.getErrorHandler();
+		this.errorHandler = errHandler == null ? new LoggingErrorHandler() : errHandler;
+		this.inFlight = new Semaphore(containerProperties.getMaxInFlight());
+		this.quarantine = containerProperties.getQuarantine();
+		RetryProperties retry = containerProperties.getRetry();
+		if (retry != null) {
+			this.scheduler = createScheduler("-retry-timer-");
+			if (containerProperties.isFairDispatch()) {
+				this.retryScheduler = new RetryScheduler(retry, this.scheduler);
+			}
+			else {
+				this.retryExecutor = createRetryExecutor(retry.getThreads());
+				this.retryScheduler = new RetryScheduler(retry, this.scheduler, this.retryExecutor);
+			}
+		}
+
+		CircuitBreakerProperties circuitBreakerProperties = containerProperties.getCircuitBreaker();
+		if (circuitBreakerProperties != null) {
+			this.circuitBreaker = new CircuitBreaker(circuitBreakerProperties);
+			this.circuitBreaker.setProbeLimit(circuitBreakerProperties.getProbes()
+					* containerProperties.getSubjects().length);
+			this.circuitScheduler = createScheduler("-circuit-");
+			this.circuitBreaker.setStateListener(new CircuitStateListener(this.circuitScheduler));
+		}
 
 		try {
 			final Connection connection = DefaultNatsListenerContainer.this.connectionFactory.getConnection();
 
 			MessageHandler messageHandler = createMessageHandler();
-
-			for (String subject : containerProperties.getSubjects()) {
-				AsyncSubscription subscription = connection.subscribe(subject, messageHandler);
-				subscriptions.add(subscription);
+			if (containerProperties.isFairDispatch()) {
+				this.dispatcher = createDispatcher(messageHandler);
+				messageHandler = this.dispatcher;
 			}
 
 			this.connection = connection;
-			ErrorHandler errHandler = containerProperties.getErrorHandler();
-
-			this.errorHandler = errHandler == null ? new LoggingErrorHandler() : errHandler;
+			this.messageHandler = messageHandler;
+			this.subscriptionHandler = routingFilter(messageHandler, containerProperties.getRoutingCondition());
+			subscribe(0);
+			this.paused = false;
 			this.running = true;
 		} catch (IOException e) {
 			//TODO handle exception
@@ -197,15 +314,34 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 
 	protected void doStop(final Runnable callback) {
 		if (isRunning()) {
-			for (AsyncSubscription subscription : subscriptions) {
-				//subscription.unsubscribe();
-				if (logger.isDebugEnabled()) {
-					logger.debug("Unsubscribed from subject " + subscription.getSubject());
-				}
+			unsubscribe();
+			this.circuitBreaker = null;
+
+			// drain before closing: queued and in-flight work may still publish replies
+			if (this.dispatcher != null) {
+				this.dispatcher.stop(this.containerProperties.getShutdownTimeout());
+				this.dispatcher = null;
+			}
+
+			awaitInFlight();
+
+			if (this.scheduler != null) {
+				this.scheduler.shutdown();
+				this.retryScheduler.cancelPending();
+				this.retryScheduler = null;
+				this.scheduler = null;
+			}
+			if (this.retryExecutor != null) {
+				this.retryExecutor.shutdown();
+				this.retryExecutor = null;
+			}
+			if (this.circuitScheduler != null) {
+				this.circuitScheduler.shutdown();
+				this.circuitScheduler = null;
 			}
 
-			if (connection != null) {
-				connection.close();
+			if (this.connection != null) {
+				this.connection.close();
 			}
 
 			if (callback != null) {
@@ -216,6 +352,109 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 		}
 	}
 
+	/**
+	 * Remove the subscriptions of the running container, so that it stops consuming
+	 * messages and the other members of its queue group receive them instead.
+	 * Messages already received are still processed.
+	 */
+	public void pause() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.running && !this.paused) {
+				unsubscribe();
+				this.paused = true;
+			}
+		}
+	}
+
+	/**
+	 * Restore the subscriptions of a {@link #pause() paused} container.
+	 */
+	public void resume() {
+		synchronized (this.lifecycleMonitor) {
+			if (this.running && this.paused) {
+				resubscribe(0);
+			}
+		}
+	}
+
+	public boolean isPaused() {
+		return this.paused;
+	}
+
+	/**
+	 * Return the circuit breaker of the running container.
+	 * @return the circuit breaker, or null if not enabled.
+	 * @see ContainerProperties#setCircuitBreaker(CircuitBreakerProperties)
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
+	/*
+	 * Replace the subscriptions; must be called holding the lifecycle monitor.
+	 * Returns false if subscribing failed and the container stays paused.
+	 */
+	private boolean resubscribe(int maxMessages) {
+		unsubscribe();
+		try {
+			subscribe(maxMessages);
+			this.paused = false;
+			return true;
+		}
+		catch (IOException | RuntimeException e) {
+			this.logger.error("Failed to subscribe; the container stays paused", e);
+			unsubscribe();
+			this.paused = true;
+			return false;
+		}
+	}
+
+	/*
+	 * Subscribe to every subject, unsubscribing automatically after maxMessages if positive.
+	 * Unlimited subscriptions go through the multiplexer, if any.
+	 */
+	private void subscribe(int maxMessages) throws IOException {
+		String queueGroup = this.containerProperties.getQueueGroup();
+		SubscriptionMultiplexer multiplexer = this.containerProperties.getSubscriptionMultiplexer();
+		if (multiplexer != null && maxMessages == 0) {
+			for (String subject : this.containerProperties.getSubjects()) {
+				this.registrations.add(multiplexer.register(subject, queueGroup,
+						this.containerProperties.getRoutingCondition(), this.messageHandler));
+			}
+			return;
+		}
+		for (String subject : this.containerProperties.getSubjects()) {
+			AsyncSubscription subscription = queueGroup == null
+					? this.connection.subscribe(subject, this.subscriptionHandler)
+					: this.connection.subscribe(subject, queueGroup, this.subscriptionHandler);
+			this.subscriptions.add(subscription);
+			if (maxMessages > 0) {
+				subscription.autoUnsubscribe(maxMessages);
+			}
+		}
+	}
+
+	private void unsubscribe() {
+		for (SubscriptionMultiplexer.Registration registration : this.registrations) {
+			registration.cancel();
+		}
+		this.registrations.clear();
+		for (AsyncSubscription subscription : this.subscriptions) {
+			try {
+				if (subscription.isValid()) {
+					subscription.unsubscribe();
+				}
+				if (this.logger.isDebugEnabled()) {
+					this.logger.debug("Unsubscribed from subject " + subscription.getSubject());
+				}
+			}
+			catch (IOException | IllegalStateException e) {
+				this.logger.warn("Failed to unsubscribe from subject " + subscription.getSubject(), e);
+			}
+		}
+		this.subscriptions.clear();
+	}
+
 	@Override
 	public String toString() {
 		return "DefaultNatsListenerContainer [id=" + beanName + "]";
@@ -227,27 +466,282 @@ public class DefaultNatsListenerContainer implements NatsListenerContainer, Bean
 
 			@Override
 			public void onMessage(Message message) {
-				invokeMessageListener(message);
+				invokeMessageListener(message, 1);
 			}
 		};
 	}
 
-	private void invokeMessageListener(final Message message) {
+	/*
+	 * A timer thread; retries and circuit state changes each get their own, so that
+	 * neither delays the other.
+	 */
+	private ScheduledExecutorService createScheduler(String suffix) {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, threadFactory(suffix));
+		scheduler.setRemoveOnCancelPolicy(true);
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		return scheduler;
+	}
+
+	/*
+	 * The threads running due retries without fair dispatch; the queue is bounded by
+	 * the retry scheduler's pending bytes, which include the retries waiting here.
+	 */
+	private ExecutorService createRetryExecutor(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				threadFactory("-retry-"));
+	}
+
+	private CustomizableThreadFactory threadFactory(String suffix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+				(this.beanName == null ? "natsListener" : this.beanName) + suffix);
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
+	/*
+	 * Subscriptions of our own apply the routing condition as a filter; a multiplexer
+	 * applies it through its index instead.
+	 */
+	private MessageHandler routingFilter(final MessageHandler messageHandler, final RoutingCondition condition) {
+		if (condition == null) {
+			return messageHandler;
+		}
+		return new MessageHandler() {
+
+			@Override
+			public void onMessage(Message message) {
+				if (condition.matches(message)) {
+					messageHandler.onMessage(message);
+				}
+				else {
+					recordIgnored();
+				}
+			}
+
+		};
+	}
+
+	private DeficitRoundRobinDispatcher createDispatcher(MessageHandler messageHandler) {
+		ContainerProperties containerProperties = getContainerProperties();
+		DeficitRoundRobinDispatcher dispatcher = new DeficitRoundRobinDispatcher(messageHandler);
+		dispatcher.setKeyStrategy(containerProperties.getDispatchKeyStrategy());
+		dispatcher.setWeights(containerProperties.getQueueWeights());
+		dispatcher.setQueueCapacity(containerProperties.getQueueCapacity());
+		dispatcher.setIdleQueueTimeout(containerProperties.getIdleQueueTimeout());
+		dispatcher.setConcurrency(containerProperties.getConcurrency());
+		TaskExecutor executor = containerProperties.getDispatchTaskExecutor();
+		if (executor == null) {
+			executor = new SimpleAsyncTaskExecutor((this.beanName == null ? "natsListener" : this.beanName) + "-dispatch-");
+		}
+		dispatcher.start(executor);
+		return dispatcher;
+	}
+
+	private void invokeMessageListener(final Message message, int attempt) {
 		if (this.logger.isTraceEnabled()) {
 			this.logger.trace("Processing " + message);
 		}
+		if (attempt == 1 && this.quarantine != null && this.quarantine.isQuarantined(message)) {
+			recordIgnored();
+			handleError(new QuarantinedMessageException("Message is quarantined: " + message,
+					Fingerprints.of(message.getSubject(), message.getData())), message);
+			return;
+		}
+		// retries bypass filters, the message passed them on its first delivery
+		MessageListener listener = attempt == 1 ? this.listener : this.retryListener;
 		try {
-			this.listener.onMessage(message);
+			if (listener instanceof AsyncMessageListener) {
+				CompletionStage<?> completion = invokeAsync((AsyncMessageListener) listener, message);
+				if (completion == AsyncMessageListener.IGNORED) {
+					recordIgnored();
+					return;
+				}
+				if (completion != null) {
+					trackCompletion(completion, message, attempt);
+					return;
+				}
+			}
+			else {
+				listener.onMessage(message);
+			}
+			recordSuccess();
 		} catch (Exception e) {
+			handleFailure(e, message, attempt);
+		}
+	}
+
+	/*
+	 * Blocks the delivering thread while the maximum number of asynchronous invocations
+	 * is outstanding; the permit is held until the returned stage completes.
+	 */
+	private CompletionStage<?> invokeAsync(AsyncMessageListener listener, Message message) {
+		Semaphore inFlight = this.inFlight;
+		inFlight.acquireUninterruptibly();
+		CompletionStage<?> completion;
+		try {
+			completion = listener.onMessageAsync(message);
+		}
+		catch (RuntimeException | Error e) {
+			inFlight.release();
+			throw e;
+		}
+		if (completion == null || completion == AsyncMessageListener.IGNORED) {
+			inFlight.release();
+		}
+		return completion;
+	}
+
+	private void trackCompletion(CompletionStage<?> completion, final Message message, final int attempt) {
+		final Semaphore inFlight = this.inFlight;
+		completion.whenComplete((result, ex) -> {
+			inFlight.release();
+			if (ex == null) {
+				recordSuccess();
+			}
+			else {
+				Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+				handleFailure(cause instanceof Exception
+						? (Exception) cause
+						: new NatsException("Listener completed with an error", cause), message, attempt);
+			}
+		});
+	}
+
+	private void awaitInFlight() {
+		int permits = this.containerProperties.getMaxInFlight();
+		try {
+			if (this.inFlight.tryAcquire(permits, this.containerProperties.getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+				this.inFlight.release(permits);
+			}
+			else {
+				this.logger.warn("Stopped with asynchronous listener invocations still in flight");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Schedules a retry when configured, attempts remain and the retry queue has room;
+	 * otherwise passes the message to the error handler.
+	 */
+	private void handleFailure(Exception e, Message message, int attempt) {
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null) {
+			circuitBreaker.recordFailure();
+		}
+		RetryScheduler retryScheduler = this.retryScheduler;
+		if (retryScheduler != null && retryScheduler.schedule(message, attempt, e, this.redelivery)) {
+			if (this.logger.isDebugEnabled()) {
+				this.logger.debug("Attempt " + attempt + " failed for " + message + "; retry scheduled", e);
+			}
+			return;
+		}
+		if (this.quarantine != null && this.quarantine.recordFailure(message) && this.logger.isWarnEnabled()) {
+			this.logger.warn("Quarantined after repeated failures: " + message);
+		}
+		handleError(e, message);
+	}
+
+	private void recordSuccess() {
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null) {
+			circuitBreaker.recordSuccess();
+		}
+	}
+
+	private void recordIgnored() {
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		if (circuitBreaker != null) {
+			circuitBreaker.recordIgnored();
+		}
+	}
+
+	private void handleError(Exception e, Message message) {
+		try {
+			this.errorHandler.handle(e, message);
+		} catch (Exception ee) {
+			this.logger.error("Error handler threw an exception", ee);
+		} catch (Error er) { //NOSONAR
+			this.logger.error("Error handler threw an error", er);
+			throw er;
+		}
+	}
+
+
+
+	/*
+	 * Applies circuit state changes to the subscriptions on the scheduler thread, so the
+	 * delivering thread never unsubscribes itself. A circuit that cannot resubscribe, or
+	 * stays half-open past the timeout, is opened again.
+	 */
+	private final class CircuitStateListener implements CircuitBreaker.StateListener {
+
+		private final ScheduledExecutorService scheduler;
+
+		private final AtomicInteger halfOpenCycle = new AtomicInteger();
+
+		private CircuitStateListener(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+		}
+
+		@Override
+		public void stateChanged(CircuitBreaker.State previous, CircuitBreaker.State current) {
+			final CircuitBreaker circuitBreaker = DefaultNatsListenerContainer.this.circuitBreaker;
+			if (circuitBreaker == null) {
+				return;
+			}
+			final CircuitBreakerProperties properties = DefaultNatsListenerContainer.this.containerProperties
+					.getCircuitBreaker();
+			final int cycle = this.halfOpenCycle.incrementAndGet();
 			try {
-				this.errorHandler.handle(e, message);
-			} catch (Exception ee) {
-				this.logger.error("Error handler threw an exception", ee);
-			} catch (Error er) { //NOSONAR
-				this.logger.error("Error handler threw an error", er);
-				throw er;
+				switch (current) {
+					case OPEN:
+						DefaultNatsListenerContainer.this.logger.warn("Circuit opened for " + DefaultNatsListenerContainer.this
+								+ "; removing subscriptions");
+						this.scheduler.execute(() -> pause());
+						this.scheduler.schedule(() -> circuitBreaker.halfOpen(), properties.getOpenDuration(),
+								TimeUnit.MILLISECONDS);
+						break;
+					case HALF_OPEN:
+						// already on the scheduler thread
+						synchronized (DefaultNatsListenerContainer.this.lifecycleMonitor) {
+							if (!DefaultNatsListenerContainer.this.running) {
+								return;
+							}
+							if (!resubscribe(properties.getProbes())) {
+								circuitBreaker.open();
+								return;
+							}
+						}
+						this.scheduler.schedule(() -> {
+							if (this.halfOpenCycle.get() == cycle
+									&& circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+								DefaultNatsListenerContainer.this.logger.warn("Circuit still half-open for "
+										+ DefaultNatsListenerContainer.this + " after " + properties.getHalfOpenTimeout()
+										+ "ms; opening it again");
+								circuitBreaker.open();
+							}
+						}, properties.getHalfOpenTimeout(), TimeUnit.MILLISECONDS);
+						break;
+					case CLOSED:
+						DefaultNatsListenerContainer.this.logger.info("Circuit closed for " + DefaultNatsListenerContainer.this);
+						this.scheduler.execute(() -> {
+							synchronized (DefaultNatsListenerContainer.this.lifecycleMonitor) {
+								if (DefaultNatsListenerContainer.this.running && !resubscribe(0)) {
+									circuitBreaker.open();
+								}
+							}
+						});
+						break;
+				}
+			}
+			catch (RejectedExecutionException e) {
+				// stopping
 			}
 		}
+
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,613 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageHandler} that decouples the subscription threads from the listener
+ * by placing every message on a per-key sub-queue and serving the sub-queues with
+ * deficit round robin.
+ * <p>
+ * Each active queue receives a quantum of {@code weight} credits per round and every
+ * message costs one credit, so a queue with weight 3 is served three times as often
+ * as a queue with weight 1, regardless of how many messages are waiting in either.
+ * A noisy key therefore only delays its own messages.
+ * <p>
+ * Every sub-queue is bounded; when a queue is full the delivering thread blocks until
+ * a worker takes a message from it. With the default subject key this pushes back on
+ * the subscription of the noisy subject only. The buffer of a queue grows with its
+ * backlog up to the capacity, and queues that stay empty for the
+ * {@link #setIdleQueueTimeout(long) idle timeout} are removed, so that keys seen only
+ * once, such as wildcard subjects or tenants, do not accumulate.
+ * <p>
+ * Messages can also be {@link #dispatch(Message, MessageHandler) dispatched} to another
+ * handler, such as retries of failed messages, which then share the queues and workers
+ * with the first deliveries.
+ *
+ * @author Dario Strelec
+ *
+ * @see DispatchKeyStrategy
+ */
+public class DeficitRoundRobinDispatcher implements MessageHandler {
+
+	private static final Log logger = LogFactory.getLog(DeficitRoundRobinDispatcher.class);
+
+	private static final int INITIAL_QUEUE_SIZE = 16;
+
+	private static final long DEFAULT_IDLE_QUEUE_TIMEOUT = 60000;
+
+	private static final DispatchKeyStrategy SUBJECT_KEY_STRATEGY = new DispatchKeyStrategy() {
+
+		@Override
+		public String getKey(Message message) {
+			return message.getSubject();
+		}
+
+	};
+
+	private final MessageHandler delegate;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = this.lock.newCondition();
+
+	private final Condition notFull = this.lock.newCondition();
+
+	private final Map<String, SubQueue> queues = new HashMap<>();
+
+	private final ArrayDeque<SubQueue> activeQueues = new ArrayDeque<>();
+
+	private DispatchKeyStrategy keyStrategy = SUBJECT_KEY_STRATEGY;
+
+	private Map<String, Integer> weights = Collections.emptyMap();
+
+	private int queueCapacity = 1000;
+
+	private int concurrency = 1;
+
+	private long idleQueueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_QUEUE_TIMEOUT);
+
+	private long lastEviction = System.nanoTime();
+
+	private volatile boolean running;
+
+	private CountDownLatch workersLatch;
+
+	private Executor executor;
+
+	/**
+	 * Create an instance dispatching to the supplied handler.
+	 * @param delegate the handler invoked by the workers.
+	 */
+	public DeficitRoundRobinDispatcher(MessageHandler delegate) {
+		Assert.notNull(delegate, "'delegate' cannot be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Set the strategy determining the queue for a message; defaults to the message subject.
+	 * @param keyStrategy the key strategy.
+	 */
+	public void setKeyStrategy(DispatchKeyStrategy keyStrategy) {
+		this.keyStrategy = keyStrategy == null ? SUBJECT_KEY_STRATEGY : keyStrategy;
+	}
+
+	/**
+	 * Set the weights of the queues by key; queues without an entry have weight 1.
+	 * @param weights the weights.
+	 */
+	public void setWeights(Map<String, Integer> weights) {
+		this.weights = weights == null ? Collections.<String, Integer>emptyMap() : weights;
+	}
+
+	/**
+	 * Set the maximum number of messages waiting in a single queue.
+	 * @param queueCapacity the capacity.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		Assert.isTrue(queueCapacity > 0, "'queueCapacity' must be greater than 0");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Set the number of worker threads invoking the delegate.
+	 * @param concurrency the number of workers.
+	 */
+	public void setConcurrency(int concurrency) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be greater than 0");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Set how long an empty queue is kept, in milliseconds; its metrics are discarded
+	 * with it. Default 60 seconds.
+	 * @param idleQueueTimeout the timeout.
+	 */
+	public void setIdleQueueTimeout(long idleQueueTimeout) {
+		Assert.isTrue(idleQueueTimeout > 0, "'idleQueueTimeout' must be greater than 0");
+		this.idleQueueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleQueueTimeout);
+	}
+
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Start the workers on the supplied executor.
+	 * @param executor the executor; must provide at least {@code concurrency} threads.
+	 */
+	public void start(Executor executor) {
+		Assert.notNull(executor, "'executor' cannot be null");
+		this.lock.lock();
+		try {
+			if (this.running) {
+				return;
+			}
+			this.running = true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+		this.workersLatch = new CountDownLatch(this.concurrency);
+		this.executor = executor;
+		for (int i = 0; i < this.concurrency; i++) {
+			executor.execute(new Worker());
+		}
+	}
+
+	/**
+	 * Stop accepting messages and wait for the workers to drain the queues.
+	 * @param timeout the maximum time to wait in milliseconds.
+	 */
+	public void stop(long timeout) {
+		this.lock.lock();
+		try {
+			if (!this.running) {
+				return;
+			}
+			this.running = false;
+			this.notEmpty.signalAll();
+			this.notFull.signalAll();
+		}
+		finally {
+			this.lock.unlock();
+		}
+		try {
+			this.workersLatch.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void onMessage(Message message) {
+		if (!dispatch(message, null) && logger.isDebugEnabled()) {
+			logger.debug("Dispatcher stopped; discarding " + message);
+		}
+	}
+
+	/**
+	 * Enqueue a message for the supplied handler instead of the delegate, blocking while
+	 * the queue of the message is full.
+	 * @param message the message.
+	 * @param handler the handler invoked by the worker; null for the delegate.
+	 * @return false if the dispatcher is stopped and the message was not enqueued.
+	 */
+	public boolean dispatch(Message message, MessageHandler handler) {
+		return enqueue(message, handler, true);
+	}
+
+	/**
+	 * Enqueue a message for the supplied handler instead of the delegate, unless the
+	 * queue of the message is full; never blocks.
+	 * @param message the message.
+	 * @param handler the handler invoked by the worker; null for the delegate.
+	 * @return false if the queue is full or the dispatcher is stopped and the message
+	 * was not enqueued.
+	 */
+	public boolean tryDispatch(Message message, MessageHandler handler) {
+		return enqueue(message, handler, false);
+	}
+
+	private boolean enqueue(Message message, MessageHandler handler, boolean wait) {
+		String key = this.keyStrategy.getKey(message);
+		long now = System.nanoTime();
+		this.lock.lock();
+		try {
+			if (now - this.lastEviction > this.idleQueueTimeoutNanos) {
+				evictIdleQueues(now);
+			}
+			SubQueue queue = this.queues.get(key);
+			if (queue == null) {
+				queue = new SubQueue(key, Math.min(INITIAL_QUEUE_SIZE, this.queueCapacity));
+				this.queues.put(key, queue);
+			}
+			if (this.running && queue.size >= this.queueCapacity) {
+				if (!wait) {
+					return false;
+				}
+				queue.blocked++;
+				do {
+					this.notFull.awaitUninterruptibly();
+				}
+				while (this.running && queue.size >= this.queueCapacity);
+			}
+			if (!this.running) {
+				return false;
+			}
+			queue.offer(handler == null ? message : new Redispatch(message, handler), now);
+			if (!queue.active) {
+				queue.active = true;
+				queue.deficit = 0;
+				this.activeQueues.addLast(queue);
+				this.notEmpty.signal();
+			}
+			return true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the next message or redispatch according to deficit round robin. Blocks while
+	 * all queues are empty; returns {@code null} once stopped and drained.
+	 */
+	private Object next() {
+		this.lock.lock();
+		try {
+			while (true) {
+				SubQueue queue = this.activeQueues.peekFirst();
+				if (queue == null) {
+					if (!this.running) {
+						return null;
+					}
+					this.notEmpty.awaitUninterruptibly();
+					continue;
+				}
+				if (queue.deficit <= 0) {
+					queue.deficit += weightOf(queue.key);
+				}
+				Object message = queue.poll(System.nanoTime());
+				queue.deficit--;
+				if (queue.size == 0) {
+					this.activeQueues.pollFirst();
+					queue.active = false;
+					queue.deficit = 0;
+					queue.idleSince = System.nanoTime();
+				}
+				else if (queue.deficit <= 0) {
+					this.activeQueues.pollFirst();
+					this.activeQueues.addLast(queue);
+				}
+				this.notFull.signalAll();
+				return message;
+			}
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/*
+	 * Remove the queues that have been empty for the idle timeout; must be called
+	 * holding the lock.
+	 */
+	private void evictIdleQueues(long now) {
+		this.lastEviction = now;
+		Iterator<SubQueue> iterator = this.queues.values().iterator();
+		while (iterator.hasNext()) {
+			SubQueue queue = iterator.next();
+			if (queue.size == 0 && now - queue.idleSince > this.idleQueueTimeoutNanos) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private int weightOf(String key) {
+		Integer weight = this.weights.get(key);
+		return weight == null || weight < 1 ? 1 : weight;
+	}
+
+	/**
+	 * Return a snapshot of the metrics of every queue that has not been evicted.
+	 * @return the metrics by queue key.
+	 */
+	public Map<String, QueueMetrics> getQueueMetrics() {
+		this.lock.lock();
+		try {
+			Map<String, QueueMetrics> metrics = new LinkedHashMap<>();
+			for (SubQueue queue : this.queues.values()) {
+				metrics.put(queue.key, new QueueMetrics(queue.key, weightOf(queue.key), queue.size,
+						queue.maxSize, queue.enqueued, queue.dispatched, queue.blocked, queue.totalWaitNanos,
+						queue.maxWaitNanos));
+			}
+			return metrics;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+
+	/*
+	 * A worker hit by an Error hands its place to a new worker and rethrows, so the
+	 * Error still reaches the executor while the queues keep being served.
+	 */
+	private final class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			boolean replaced = false;
+			try {
+				Object message;
+				while ((message = next()) != null) {
+					try {
+						if (message instanceof Redispatch) {
+							Redispatch redispatch = (Redispatch) message;
+							redispatch.handler.onMessage(redispatch.message);
+						}
+						else {
+							DeficitRoundRobinDispatcher.this.delegate.onMessage((Message) message);
+						}
+					}
+					catch (RuntimeException e) {
+						logger.error("Message handler threw an exception", e);
+					}
+					catch (Error e) { //NOSONAR
+						logger.error("Message handler threw an error; replacing the worker", e);
+						replaced = replace();
+						throw e;
+					}
+				}
+			}
+			finally {
+				if (!replaced) {
+					DeficitRoundRobinDispatcher.this.workersLatch.countDown();
+				}
+			}
+		}
+
+		private boolean replace() {
+			try {
+				DeficitRoundRobinDispatcher.this.executor.execute(new Worker());
+				return true;
+			}
+			catch (RuntimeException e) {
+				logger.error("Failed to replace the worker", e);
+				return false;
+			}
+		}
+
+	}
+
+	private static final class Redispatch {
+
+		private final Message message;
+
+		private final MessageHandler handler;
+
+		private Redispatch(Message message, MessageHandler handler) {
+			this.message = message;
+			this.handler = handler;
+		}
+
+	}
+
+	/*
+	 * Ring buffer of messages or redispatches and their enqueue times, doubling when
+	 * full; guarded by the dispatcher lock.
+	 */
+	private static final class SubQueue {
+
+		private final String key;
+
+		private Object[] messages;
+
+		private long[] enqueueTimes;
+
+		private int head;
+
+		private int size;
+
+		private int deficit;
+
+		private boolean active;
+
+		private int maxSize;
+
+		private long enqueued;
+
+		private long dispatched;
+
+		private long blocked;
+
+		private long totalWaitNanos;
+
+		private long maxWaitNanos;
+
+		private long idleSince;
+
+		private SubQueue(String key, int initialSize) {
+			this.key = key;
+			this.messages = new Object[initialSize];
+			this.enqueueTimes = new long[initialSize];
+			this.idleSince = System.nanoTime();
+		}
+
+		private void offer(Object message, long now) {
+			if (this.size == this.messages.length) {
+				grow();
+			}
+			int tail = (this.head + this.size) % this.messages.length;
+			this.messages[tail] = message;
+			this.enqueueTimes[tail] = now;
+			this.size++;
+			this.enqueued++;
+			if (this.size > this.maxSize) {
+				this.maxSize = this.size;
+			}
+		}
+
+		private Object poll(long now) {
+			Object message = this.messages[this.head];
+			long wait = now - this.enqueueTimes[this.head];
+			this.messages[this.head] = null;
+			this.head = (this.head + 1) % this.messages.length;
+			this.size--;
+			this.dispatched++;
+			this.totalWaitNanos += wait;
+			if (wait > this.maxWaitNanos) {
+				this.maxWaitNanos = wait;
+			}
+			return message;
+		}
+
+		private void grow() {
+			int length = this.messages.length;
+			Object[] messages = new Object[length * 2];
+			long[] enqueueTimes = new long[length * 2];
+			int first = length - this.head;
+			System.arraycopy(this.messages, this.head, messages, 0, first);
+			System.arraycopy(this.messages, 0, messages, first, this.head);
+			System.arraycopy(this.enqueueTimes, this.head, enqueueTimes, 0, first);
+			System.arraycopy(this.enqueueTimes, 0, enqueueTimes, first, this.head);
+			this.messages = messages;
+			this.enqueueTimes = enqueueTimes;
+			this.head = 0;
+		}
+
+	}
+
+	/**
+	 * Point-in-time metrics of a single dispatcher queue.
+	 */
+	public static final class QueueMetrics {
+
+		private final String key;
+
+		private final int weight;
+
+		private final int depth;
+
+		private final int maxDepth;
+
+		private final long enqueued;
+
+		private final long dispatched;
+
+		private final long blocked;
+
+		private final long totalWaitNanos;
+
+		private final long maxWaitNanos;
+
+		QueueMetrics(String key, int weight, int depth, int maxDepth, long enqueued, long dispatched,
+				long blocked, long totalWaitNanos, long maxWaitNanos) {
+			this.key = key;
+			this.weight = weight;
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+			this.enqueued = enqueued;
+			this.dispatched = dispatched;
+			this.blocked = blocked;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+		}
+
+		public String getKey() {
+			return this.key;
+		}
+
+		public int getWeight() {
+			return this.weight;
+		}
+
+		/**
+		 * Return the number of messages currently waiting.
+		 * @return the depth.
+		 */
+		public int getDepth() {
+			return this.depth;
+		}
+
+		/**
+		 * Return the highest number of messages that were waiting at the same time.
+		 * @return the maximum depth.
+		 */
+		public int getMaxDepth() {
+			return this.maxDepth;
+		}
+
+		public long getEnqueued() {
+			return this.enqueued;
+		}
+
+		public long getDispatched() {
+			return this.dispatched;
+		}
+
+		/**
+		 * Return how many times a delivering thread had to wait because the queue was full.
+		 * @return the blocked count.
+		 */
+		public long getBlocked() {
+			return this.blocked;
+		}
+
+		/**
+		 * Return the average time a dispatched message spent in the queue.
+		 * @return the average wait in nanoseconds.
+		 */
+		public long getAverageWaitNanos() {
+			return this.dispatched == 0 ? 0 : this.totalWaitNanos / this.dispatched;
+		}
+
+		public long getMaxWaitNanos() {
+			return this.maxWaitNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "QueueMetrics [key=" + this.key + ", weight=" + this.weight + ", depth=" + this.depth
+					+ ", maxDepth=" + this.maxDepth + ", enqueued=" + this.enqueued + ", dispatched="
+					+ this.dispatched + ", blocked=" + this.blocked + ", averageWaitNanos="
+					+ getAverageWaitNanos() + ", maxWaitNanos=" + this.maxWaitNanos + "]";
+		}
+
+	}
+
+}
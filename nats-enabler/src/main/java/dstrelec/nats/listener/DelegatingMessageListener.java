@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+/**
+ * A {@link MessageListener} that decides whether a message reaches its delegate, such
+ * as a filter. Retries of a failed message are delivered straight to the delegate, as
+ * the message already passed this listener on its first delivery.
+ *
+ * @author Dario Strelec
+ *
+ */
+public interface DelegatingMessageListener extends MessageListener {
+
+	/**
+	 * Return the listener messages are delegated to.
+	 * @return the delegate.
+	 */
+	MessageListener getDelegate();
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import io.nats.client.Message;
+
+/**
+ * Strategy to determine the sub-queue of a {@link DeficitRoundRobinDispatcher}
+ * an incoming message is assigned to.
+ *
+ * @author Dario Strelec
+ *
+ */
+public interface DispatchKeyStrategy {
+
+	/**
+	 * Return the key of the queue for the message; messages with the same key are
+	 * dequeued in arrival order, different keys are served fairly.
+	 * @param message the message.
+	 * @return the queue key, never {@code null}.
+	 */
+	String getKey(Message message);
+
+}
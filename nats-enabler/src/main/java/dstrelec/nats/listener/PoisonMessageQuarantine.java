@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import dstrelec.nats.support.Fingerprints;
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+/**
+ * Remembers messages that repeatedly failed in a listener so later copies can be
+ * diverted before they are converted and the listener is invoked.
+ * <p>
+ * Messages are identified by their {@link Fingerprints fingerprint} (subject plus
+ * payload). A fingerprint is quarantined once it has failed
+ * {@link #setThreshold(int) threshold} times within the {@link #setTimeToLive(long)
+ * time to live}; its entry expires after the time to live since the last failure.
+ * <p>
+ * The fingerprints are kept in a fixed-size open-addressing table backed by an
+ * {@link AtomicLongArray}; lookups and updates are lock-free and a full probe window
+ * evicts the entry closest to expiry, so memory is bounded by the capacity. As a
+ * cache, the table is best-effort: under contention a failure may occasionally not be
+ * counted. As long as nothing is quarantined, {@link #isQuarantined(Message)} returns
+ * without hashing the payload.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.listener.config.ContainerProperties#setQuarantine(PoisonMessageQuarantine)
+ */
+public class PoisonMessageQuarantine {
+
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	private static final int PROBE_LIMIT = 8;
+
+	private static final int COUNT_BITS = 8;
+
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	/*
+	 * Slot i occupies elements 2i (fingerprint) and 2i + 1 (expiry << COUNT_BITS | failures).
+	 */
+	private final AtomicLongArray table;
+
+	private final int mask;
+
+	private int threshold = 3;
+
+	private long timeToLive = TimeUnit.MINUTES.toMillis(10);
+
+	/*
+	 * Latest expiry of any quarantined entry; nothing is quarantined after it.
+	 */
+	private final AtomicLong quarantinedUntil = new AtomicLong();
+
+	/**
+	 * Create an instance with the default capacity of 4096 fingerprints.
+	 */
+	public PoisonMessageQuarantine() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an instance with the supplied capacity, rounded up to a power of two.
+	 * @param capacity the maximum number of fingerprints.
+	 */
+	public PoisonMessageQuarantine(int capacity) {
+		Assert.isTrue(capacity > 0 && capacity <= 1 << 28, "'capacity' must be between 1 and 2^28");
+		int size = Math.max(PROBE_LIMIT, Integer.highestOneBit(capacity - 1) << 1);
+		this.table = new AtomicLongArray(size * 2);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Set the number of failures after which a message is quarantined.
+	 * @param threshold the threshold.
+	 */
+	public void setThreshold(int threshold) {
+		Assert.isTrue(threshold > 0 && threshold <= COUNT_MASK, "'threshold' must be between 1 and " + COUNT_MASK);
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Set how long failures and quarantined fingerprints are remembered, in milliseconds.
+	 * @param timeToLive the time to live.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		Assert.isTrue(timeToLive > 0, "'timeToLive' must be greater than 0");
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Return true if the message is quarantined.
+	 * @param message the message.
+	 * @return true if the message is quarantined.
+	 */
+	public boolean isQuarantined(Message message) {
+		long now = System.currentTimeMillis();
+		if (now >= this.quarantinedUntil.get()) {
+			return false;
+		}
+		return isQuarantined(Fingerprints.of(message.getSubject(), message.getData()), now);
+	}
+
+	/**
+	 * Return true if the fingerprint is quarantined.
+	 * @param fingerprint the fingerprint.
+	 * @param now the current time in milliseconds.
+	 * @return true if quarantined.
+	 */
+	public boolean isQuarantined(long fingerprint, long now) {
+		int start = indexOf(fingerprint);
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			int slot = ((start + i) & this.mask) << 1;
+			if (this.table.get(slot) == fingerprint) {
+				long state = this.table.get(slot + 1);
+				if (this.table.get(slot) != fingerprint) {
+					return false;
+				}
+				return (state & COUNT_MASK) >= this.threshold && (state >>> COUNT_BITS) > now;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Record a failure of the message.
+	 * @param message the message.
+	 * @return true if the message is now quarantined.
+	 */
+	public boolean recordFailure(Message message) {
+		return recordFailure(Fingerprints.of(message.getSubject(), message.getData()));
+	}
+
+	/**
+	 * Record a failure of the message with the fingerprint.
+	 * @param fingerprint the fingerprint.
+	 * @return true if the fingerprint is now quarantined.
+	 */
+	public boolean recordFailure(long fingerprint) {
+		long now = System.currentTimeMillis();
+		long expiry = now + this.timeToLive;
+		int start = indexOf(fingerprint);
+		int victim = -1;
+		long victimState = 0;
+		long victimExpiry = Long.MAX_VALUE;
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			int slot = ((start + i) & this.mask) << 1;
+			long key = this.table.get(slot);
+			long state = this.table.get(slot + 1);
+			if (key == fingerprint) {
+				long count = (state >>> COUNT_BITS) > now ? state & COUNT_MASK : 0;
+				count = Math.min(count + 1, COUNT_MASK);
+				if (this.table.compareAndSet(slot + 1, state, expiry << COUNT_BITS | count)) {
+					return quarantined(count, expiry);
+				}
+				return false;
+			}
+			long slotExpiry = key == 0 ? 0 : state >>> COUNT_BITS;
+			if (slotExpiry < victimExpiry) {
+				victim = slot;
+				victimState = state;
+				victimExpiry = slotExpiry;
+			}
+		}
+		// reset the state first so a concurrent lookup never pairs the new key with the evicted state
+		if (this.table.compareAndSet(victim + 1, victimState, 0)) {
+			this.table.set(victim, fingerprint);
+			this.table.set(victim + 1, expiry << COUNT_BITS | 1);
+			return quarantined(1, expiry);
+		}
+		return false;
+	}
+
+	private boolean quarantined(long count, long expiry) {
+		if (count < this.threshold) {
+			return false;
+		}
+		this.quarantinedUntil.accumulateAndGet(expiry, Math::max);
+		return true;
+	}
+
+	/**
+	 * Remove every fingerprint.
+	 */
+	public void clear() {
+		this.quarantinedUntil.set(0);
+		for (int i = 0; i < this.table.length(); i++) {
+			this.table.set(i, 0);
+		}
+	}
+
+	private int indexOf(long fingerprint) {
+		return (int) (fingerprint ^ (fingerprint >>> 32)) & this.mask;
+	}
+
+}
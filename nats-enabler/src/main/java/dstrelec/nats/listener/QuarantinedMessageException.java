@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import dstrelec.nats.NatsException;
+
+/**
+ * Passed to the {@link ErrorHandler} for a message diverted by a
+ * {@link PoisonMessageQuarantine} without invoking the listener.
+ *
+ * @author Dario Strelec
+ */
+@SuppressWarnings("serial")
+public class QuarantinedMessageException extends NatsException {
+
+	private final long fingerprint;
+
+	public QuarantinedMessageException(String message, long fingerprint) {
+		super(message);
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Return the fingerprint of the quarantined message.
+	 * @return the fingerprint.
+	 * @see dstrelec.nats.support.Fingerprints
+	 */
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+
+}
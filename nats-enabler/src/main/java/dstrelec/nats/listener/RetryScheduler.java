@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dstrelec.nats.listener.config.RetryProperties;
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+/**
+ * Schedules the redelivery of failed messages with exponential backoff and jitter.
+ * <p>
+ * The delivering thread only schedules the retry and moves on to the next message.
+ * The supplied {@link ScheduledExecutorService} only keeps the time: when a retry is
+ * due, it is handed to the redelivery {@link Executor}, so that a slow redelivery does
+ * not hold up the retries due after it. Without a redelivery executor the redelivery
+ * runs on the scheduler thread and must not block. The number of attempts per message
+ * and the total payload size of the messages waiting to be retried, including those
+ * handed off but not yet started, are capped; {@link #schedule(Message, int, Exception, Redelivery)} returns
+ * false when a message cannot be retried, leaving it to the error handler.
+ *
+ * @author Dario Strelec
+ */
+public class RetryScheduler {
+
+	private final RetryProperties retryProperties;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Executor executor;
+
+	private final AtomicLong pendingBytes = new AtomicLong();
+
+	private final Set<RetryTask> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create an instance running the redeliveries on the scheduler thread; for
+	 * {@link Redelivery redeliveries} that do not block.
+	 * @param retryProperties the retry settings.
+	 * @param scheduler the scheduler timing and running the redeliveries.
+	 */
+	public RetryScheduler(RetryProperties retryProperties, ScheduledExecutorService scheduler) {
+		this(retryProperties, scheduler, scheduler);
+	}
+
+	/**
+	 * Create an instance.
+	 * @param retryProperties the retry settings.
+	 * @param scheduler the scheduler timing the redeliveries.
+	 * @param executor the executor running the redeliveries.
+	 */
+	public RetryScheduler(RetryProperties retryProperties, ScheduledExecutorService scheduler, Executor executor) {
+		Assert.notNull(retryProperties, "'retryProperties' cannot be null");
+		Assert.notNull(scheduler, "'scheduler' cannot be null");
+		Assert.notNull(executor, "'executor' cannot be null");
+		this.retryProperties = retryProperties;
+		this.scheduler = scheduler;
+		this.executor = executor;
+	}
+
+	/**
+	 * Schedule the redelivery of a message that failed on the given attempt.
+	 * @param message the message.
+	 * @param attempt the attempt that failed, starting at 1.
+	 * @param exception the exception of the failed attempt.
+	 * @param redelivery the callback performing the next attempt.
+	 * @return false if the attempts are exhausted or the retry queue is full.
+	 */
+	public boolean schedule(Message message, int attempt, Exception exception, Redelivery redelivery) {
+		if (attempt >= this.retryProperties.getMaxAttempts()) {
+			return false;
+		}
+		int size = sizeOf(message);
+		long maxPendingBytes = this.retryProperties.getMaxPendingBytes();
+		long pending;
+		do {
+			pending = this.pendingBytes.get();
+			if (pending + size > maxPendingBytes) {
+				return false;
+			}
+		}
+		while (!this.pendingBytes.compareAndSet(pending, pending + size));
+		RetryTask task = new RetryTask(message, attempt + 1, exception, redelivery, size);
+		this.pending.add(task);
+		try {
+			this.scheduler.schedule(this.executor == this.scheduler ? task : task::handOff, delayFor(attempt),
+					TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			task.claim();
+			return false;
+		}
+	}
+
+	/**
+	 * Return the backoff before the attempt following the given one, including jitter.
+	 * @param attempt the failed attempt, starting at 1.
+	 * @return the delay in milliseconds.
+	 */
+	long delayFor(int attempt) {
+		RetryProperties retry = this.retryProperties;
+		double delay = retry.getInitialInterval() * Math.pow(retry.getMultiplier(), attempt - 1);
+		delay = Math.min(delay, retry.getMaxInterval());
+		double jitter = retry.getJitter();
+		if (jitter > 0) {
+			delay += delay * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		}
+		return Math.max(0, (long) delay);
+	}
+
+	/**
+	 * Return the number of messages waiting to be retried.
+	 * @return the count.
+	 */
+	public long getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Return the total payload size of the messages waiting to be retried.
+	 * @return the size in bytes.
+	 */
+	public long getPendingBytes() {
+		return this.pendingBytes.get();
+	}
+
+	/**
+	 * Cancel the retries that have not run yet, passing each message to
+	 * {@link Redelivery#discard(Message, Exception)}; used on shutdown.
+	 */
+	public void cancelPending() {
+		for (RetryTask task : this.pending) {
+			if (task.claim()) {
+				task.redelivery.discard(task.message, task.exception);
+			}
+		}
+	}
+
+	private static int sizeOf(Message message) {
+		byte[] data = message.getData();
+		return data == null ? 0 : data.length;
+	}
+
+	/**
+	 * Callback performing a redelivery.
+	 */
+	public interface Redelivery {
+
+		/**
+		 * Deliver the message again.
+		 * @param message the message.
+		 * @param attempt the attempt number, starting at 2.
+		 * @param previous the exception of the previous attempt.
+		 */
+		void redeliver(Message message, int attempt, Exception previous);
+
+		/**
+		 * Handle a message whose retry was cancelled before it ran.
+		 * @param message the message.
+		 * @param previous the exception of the last attempt.
+		 */
+		void discard(Message message, Exception previous);
+
+	}
+
+	private final class RetryTask implements Runnable {
+
+		private final Message message;
+
+		private final int attempt;
+
+		private final Exception exception;
+
+		private final Redelivery redelivery;
+
+		private final int size;
+
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		private RetryTask(Message message, int attempt, Exception exception, Redelivery redelivery, int size) {
+			this.message = message;
+			this.attempt = attempt;
+			this.exception = exception;
+			this.redelivery = redelivery;
+			this.size = size;
+		}
+
+		/*
+		 * Remove the task from the pending ones exactly once, whether it runs or is cancelled.
+		 */
+		private boolean claim() {
+			if (!this.claimed.compareAndSet(false, true)) {
+				return false;
+			}
+			RetryScheduler.this.pending.remove(this);
+			RetryScheduler.this.pendingBytes.addAndGet(-this.size);
+			return true;
+		}
+
+		/*
+		 * Pass the due task to the executor; a task the executor rejects is discarded.
+		 */
+		private void handOff() {
+			try {
+				RetryScheduler.this.executor.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				if (claim()) {
+					this.redelivery.discard(this.message, this.exception);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (claim()) {
+				this.redelivery.redeliver(this.message, this.attempt, this.exception);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+/**
+ * An equality predicate on a routing key: a listener with a routing condition only
+ * receives messages whose {@link RoutingKeyExtractor routing key} equals the value.
+ * <p>
+ * Conditions of listeners sharing a {@link SubscriptionMultiplexer} are indexed by
+ * extractor and value, so a message is matched to its listeners by one lookup per
+ * extractor instead of one predicate per listener. Without a multiplexer the container
+ * applies the condition as a filter.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.listener.config.ContainerProperties#setRoutingCondition(RoutingCondition)
+ */
+public final class RoutingCondition {
+
+	private final RoutingKeyExtractor extractor;
+
+	private final String value;
+
+	/**
+	 * Create a condition matching messages whose routing key equals the value.
+	 * @param extractor the routing key extractor.
+	 * @param value the value.
+	 */
+	public RoutingCondition(RoutingKeyExtractor extractor, String value) {
+		Assert.notNull(extractor, "'extractor' cannot be null");
+		Assert.notNull(value, "'value' cannot be null");
+		this.extractor = extractor;
+		this.value = value;
+	}
+
+	public RoutingKeyExtractor getExtractor() {
+		return this.extractor;
+	}
+
+	public String getValue() {
+		return this.value;
+	}
+
+	/**
+	 * Return true if the routing key of the message equals the value.
+	 * @param message the message.
+	 * @return true on a match.
+	 */
+	public boolean matches(Message message) {
+		return this.value.equals(this.extractor.getRoutingKey(message));
+	}
+
+	@Override
+	public String toString() {
+		return "RoutingCondition [extractor=" + this.extractor + ", value=" + this.value + "]";
+	}
+
+}
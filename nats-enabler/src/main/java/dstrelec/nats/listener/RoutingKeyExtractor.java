@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import io.nats.client.Message;
+
+/**
+ * Strategy to extract the value a {@link RoutingCondition} compares, such as a tenant
+ * id field of the payload.
+ * <p>
+ * A {@link SubscriptionMultiplexer} extracts the value once per message and extractor,
+ * so implementations used by several listeners should implement {@code equals} and
+ * {@code hashCode} to be recognized as the same extractor.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.listener.adapter.JsonFieldKeyExtractor
+ */
+public interface RoutingKeyExtractor {
+
+	/**
+	 * Return the routing key of the message.
+	 * @param message the message.
+	 * @return the key, or null if the message has none.
+	 */
+	String getRoutingKey(Message message);
+
+}
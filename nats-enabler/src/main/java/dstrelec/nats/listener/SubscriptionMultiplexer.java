@@ -0,0 +1,509 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.SharedMessage;
+import dstrelec.nats.support.SubjectTrie;
+import io.nats.client.AsyncSubscription;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+/**
+ * Shares wildcard subscriptions between listener containers.
+ * <p>
+ * Every registered subject is reduced to its first {@link #setPrefixTokens(int)
+ * prefixTokens} tokens followed by {@code >}, so that sibling subjects such as
+ * {@code orders.eu.created} and {@code orders.us.created} are served by a single
+ * {@code orders.>} subscription. Incoming messages are routed to the handlers of the
+ * registrations whose subject matches, using a {@link SubjectTrie}.
+ * <p>
+ * This reduces the number of subscriptions the server and client maintain, at the cost
+ * of receiving - and discarding - messages for subjects under a prefix that no listener
+ * registered, and of serving all subjects of a prefix from one delivery thread. With
+ * {@code prefixTokens} set to 0 subjects are not collapsed, but listeners of the same
+ * subject still share one subscription.
+ * <p>
+ * Subjects of a queue group are never collapsed: a message the group delivers to this
+ * instance is not delivered to another member, so a prefix subscription would take
+ * messages away from the members listening to subjects not registered here, or no
+ * longer registered because their container is paused. Nor are they shared: every
+ * registration in a queue group keeps its own subscription, so the server balances
+ * messages between the registrations of this instance as between those of different
+ * instances, instead of handing each message to all of them.
+ * <p>
+ * Registrations with a {@link RoutingCondition} are indexed per subject by routing key
+ * extractor and value: a message is routed by extracting each key once and looking up
+ * the matching registrations, so the cost does not grow with the number of conditional
+ * listeners.
+ * <p>
+ * With {@link #setShareConversions(boolean) shareConversions}, a message routed to more
+ * than one listener is wrapped in a {@link SharedMessage}, so the listeners decode it
+ * once per converter and payload type instead of once each.
+ *
+ * @author Dario Strelec
+ */
+public class SubscriptionMultiplexer implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(SubscriptionMultiplexer.class);
+
+	private final NatsConnectionFactory connectionFactory;
+
+	private final Map<String, Group> groups = new HashMap<>();
+
+	private int prefixTokens = 1;
+
+	private int queueSubscriptions;
+
+	private boolean shareConversions;
+
+	/**
+	 * Create an instance subscribing through the supplied connection factory.
+	 * @param connectionFactory the connection factory.
+	 */
+	public SubscriptionMultiplexer(NatsConnectionFactory connectionFactory) {
+		Assert.notNull(connectionFactory, "'connectionFactory' cannot be null");
+		this.connectionFactory = connectionFactory;
+	}
+
+	public NatsConnectionFactory getConnectionFactory() {
+		return this.connectionFactory;
+	}
+
+	/**
+	 * Set the number of leading tokens subjects sharing a subscription have in common;
+	 * 0 to share subscriptions between identical subjects only.
+	 * @param prefixTokens the number of tokens.
+	 */
+	public void setPrefixTokens(int prefixTokens) {
+		Assert.isTrue(prefixTokens >= 0, "'prefixTokens' must not be negative");
+		this.prefixTokens = prefixTokens;
+	}
+
+	/**
+	 * Set to true to let the listeners receiving the same message share its conversions.
+	 * @param shareConversions true to share conversions.
+	 * @see SharedMessage
+	 */
+	public void setShareConversions(boolean shareConversions) {
+		this.shareConversions = shareConversions;
+	}
+
+	/**
+	 * Register a handler for a subject, subscribing to its prefix if this is the first
+	 * registration under it, or to the subject itself in a queue group.
+	 * @param subject the subject, may contain wildcards.
+	 * @param queueGroup the queue group, or null.
+	 * @param handler the handler.
+	 * @return the registration, to be {@link Registration#cancel() cancelled} when the
+	 * handler should no longer receive messages.
+	 * @throws IOException if the subscription fails.
+	 */
+	public Registration register(String subject, String queueGroup, MessageHandler handler) throws IOException {
+		return register(subject, queueGroup, null, handler);
+	}
+
+	/**
+	 * Register a handler for the messages of a subject matching a routing condition,
+	 * subscribing to its prefix if this is the first registration under it, or to the
+	 * subject itself in a queue group.
+	 * @param subject the subject, may contain wildcards.
+	 * @param queueGroup the queue group, or null.
+	 * @param condition the routing condition, or null for all messages.
+	 * @param handler the handler.
+	 * @return the registration, to be {@link Registration#cancel() cancelled} when the
+	 * handler should no longer receive messages.
+	 * @throws IOException if the subscription fails.
+	 */
+	public synchronized Registration register(String subject, String queueGroup, RoutingCondition condition,
+			MessageHandler handler) throws IOException {
+		Assert.hasText(subject, "'subject' must not be empty");
+		Assert.notNull(handler, "'handler' cannot be null");
+		String subscriptionSubject = queueGroup == null ? subscriptionSubject(subject) : subject;
+		String key = queueGroup == null ? subscriptionSubject
+				: subscriptionSubject + ' ' + queueGroup + ' ' + ++this.queueSubscriptions;
+		Group group = this.groups.get(key);
+		if (group == null) {
+			group = new Group(key, queueGroup, this.shareConversions);
+			group.subscription = queueGroup == null
+					? this.connectionFactory.getConnection().subscribe(subscriptionSubject, group)
+					: this.connectionFactory.getConnection().subscribe(subscriptionSubject, queueGroup, group);
+			this.groups.put(key, group);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Subscribed to " + subscriptionSubject + (queueGroup == null ? "" : " in queue group "
+						+ queueGroup));
+			}
+		}
+		Registration registration = new Registration(group, subject, condition, handler);
+		group.add(registration);
+		return registration;
+	}
+
+	/**
+	 * Return the subject of the subscription serving the supplied subject outside of a
+	 * queue group.
+	 * @param subject the subject.
+	 * @return the subscription subject.
+	 */
+	protected String subscriptionSubject(String subject) {
+		if (this.prefixTokens == 0) {
+			return subject;
+		}
+		int end = -1;
+		for (int i = 0; i < this.prefixTokens; i++) {
+			end = subject.indexOf('.', end + 1);
+			if (end < 0) {
+				return subject;
+			}
+		}
+		String prefix = subject.substring(0, end);
+		if (prefix.indexOf('>') >= 0) {
+			return subject;
+		}
+		return prefix + ".>";
+	}
+
+	private synchronized void cancel(Registration registration) {
+		Group group = registration.group;
+		group.remove(registration);
+		if (group.registrations == 0) {
+			this.groups.remove(group.key);
+			unsubscribe(group);
+		}
+	}
+
+	private static void unsubscribe(Group group) {
+		try {
+			if (group.subscription.isValid()) {
+				group.subscription.unsubscribe();
+			}
+		}
+		catch (IOException | IllegalStateException e) {
+			logger.warn("Failed to unsubscribe from " + group.subscription.getSubject(), e);
+		}
+	}
+
+	@Override
+	public synchronized void destroy() {
+		for (Group group : this.groups.values()) {
+			unsubscribe(group);
+		}
+		this.groups.clear();
+	}
+
+
+	/**
+	 * A handler registered for a subject.
+	 */
+	public final class Registration {
+
+		private final Group group;
+
+		private final String subject;
+
+		private final RoutingCondition condition;
+
+		private final MessageHandler handler;
+
+		private boolean cancelled;
+
+		private Registration(Group group, String subject, RoutingCondition condition, MessageHandler handler) {
+			this.group = group;
+			this.subject = subject;
+			this.condition = condition;
+			this.handler = handler;
+		}
+
+		private void deliver(Message message) {
+			try {
+				this.handler.onMessage(message);
+			}
+			catch (RuntimeException e) {
+				logger.error("Message handler threw an exception", e);
+			}
+		}
+
+		public String getSubject() {
+			return this.subject;
+		}
+
+		/**
+		 * Stop routing messages to the handler, unsubscribing from the prefix if this
+		 * was its last registration.
+		 */
+		public void cancel() {
+			synchronized (SubscriptionMultiplexer.this) {
+				if (this.cancelled) {
+					return;
+				}
+				this.cancelled = true;
+				SubscriptionMultiplexer.this.cancel(this);
+			}
+		}
+
+	}
+
+	/*
+	 * The registrations sharing one subscription, with a route per subject pattern;
+	 * modified under the multiplexer's monitor.
+	 */
+	private static final class Group implements MessageHandler {
+
+		private static final BiConsumer<Route, Dispatch> ROUTE = new BiConsumer<Route, Dispatch>() {
+
+			@Override
+			public void accept(Route route, Dispatch dispatch) {
+				route.table.dispatch(dispatch);
+			}
+
+		};
+
+		private final String key;
+
+		private final String queueGroup;
+
+		private final boolean shareConversions;
+
+		private final SubjectTrie<Route> routes = new SubjectTrie<>();
+
+		private final Map<String, Route> routesBySubject = new HashMap<>();
+
+		private AsyncSubscription subscription;
+
+		private volatile int registrations;
+
+		private Group(String key, String queueGroup, boolean shareConversions) {
+			this.key = key;
+			this.queueGroup = queueGroup;
+			this.shareConversions = shareConversions;
+		}
+
+		private void add(Registration registration) {
+			Route route = this.routesBySubject.get(registration.subject);
+			boolean created = route == null;
+			if (created) {
+				route = new Route();
+				this.routesBySubject.put(registration.subject, route);
+			}
+			route.registrations.add(registration);
+			route.table = new RouteTable(route.registrations);
+			if (created) {
+				// only published once its table is complete
+				this.routes.add(registration.subject, route);
+			}
+			this.registrations++;
+		}
+
+		private void remove(Registration registration) {
+			Route route = this.routesBySubject.get(registration.subject);
+			if (route == null || !route.registrations.remove(registration)) {
+				return;
+			}
+			if (route.registrations.isEmpty()) {
+				this.routesBySubject.remove(registration.subject);
+				this.routes.remove(registration.subject, route);
+			}
+			route.table = new RouteTable(route.registrations);
+			this.registrations--;
+		}
+
+		@Override
+		public void onMessage(Message message) {
+			Dispatch dispatch = new Dispatch(message, this.shareConversions);
+			this.routes.match(message.getSubject(), dispatch, ROUTE);
+			dispatch.complete();
+			if (dispatch.delivered == 0) {
+				if (this.queueGroup != null) {
+					// taken from the group, no other member receives it
+					logger.warn("No listener for " + message.getSubject() + " in queue group " + this.queueGroup
+							+ " matches; discarding " + message);
+				}
+				else if (logger.isTraceEnabled()) {
+					logger.trace("No listener for " + message.getSubject() + "; discarding");
+				}
+			}
+		}
+
+	}
+
+	/*
+	 * The registrations of one subject pattern; the table is replaced on every change.
+	 */
+	private static final class Route {
+
+		private final List<Registration> registrations = new ArrayList<>();
+
+		private volatile RouteTable table;
+
+	}
+
+	/*
+	 * Immutable routing table: unconditional registrations plus, per extractor, a hash
+	 * index from routing key to the registrations with that value.
+	 */
+	private static final class RouteTable {
+
+		private final Registration[] unconditional;
+
+		private final RoutingKeyExtractor[] extractors;
+
+		private final List<Map<String, Registration[]>> indexes;
+
+		private RouteTable(List<Registration> registrations) {
+			List<Registration> unconditional = new ArrayList<>();
+			Map<RoutingKeyExtractor, Map<String, List<Registration>>> indexes = new LinkedHashMap<>();
+			for (Registration registration : registrations) {
+				if (registration.condition == null) {
+					unconditional.add(registration);
+					continue;
+				}
+				Map<String, List<Registration>> index = indexes.get(registration.condition.getExtractor());
+				if (index == null) {
+					index = new HashMap<>();
+					indexes.put(registration.condition.getExtractor(), index);
+				}
+				List<Registration> matching = index.get(registration.condition.getValue());
+				if (matching == null) {
+					matching = new ArrayList<>(1);
+					index.put(registration.condition.getValue(), matching);
+				}
+				matching.add(registration);
+			}
+			this.unconditional = unconditional.toArray(new Registration[unconditional.size()]);
+			this.extractors = indexes.keySet().toArray(new RoutingKeyExtractor[indexes.size()]);
+			this.indexes = new ArrayList<>(this.extractors.length);
+			for (int i = 0; i < this.extractors.length; i++) {
+				Map<String, Registration[]> index = new HashMap<>();
+				for (Map.Entry<String, List<Registration>> entry : indexes.get(this.extractors[i]).entrySet()) {
+					index.put(entry.getKey(), entry.getValue().toArray(new Registration[entry.getValue().size()]));
+				}
+				this.indexes.add(Collections.unmodifiableMap(index));
+			}
+		}
+
+		private void dispatch(Dispatch dispatch) {
+			for (Registration registration : this.unconditional) {
+				dispatch.deliver(registration);
+			}
+			for (int i = 0; i < this.extractors.length; i++) {
+				String key = dispatch.routingKey(this.extractors[i]);
+				if (key != null) {
+					Registration[] matching = this.indexes.get(i).get(key);
+					if (matching != null) {
+						for (Registration registration : matching) {
+							dispatch.deliver(registration);
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+	/*
+	 * The state of routing one message: the routing keys extracted so far, so each
+	 * extractor runs at most once per message even if several routes match. When
+	 * conversions are shared, the first registration is only delivered to once a
+	 * second one matches or routing completes, so that the message is wrapped in a
+	 * SharedMessage only if it has more than one recipient.
+	 */
+	private static final class Dispatch {
+
+		private final Message message;
+
+		private final boolean shareConversions;
+
+		private Message shared;
+
+		private Registration pending;
+
+		private RoutingKeyExtractor[] extractors;
+
+		private String[] keys;
+
+		private int extracted;
+
+		private int delivered;
+
+		private Dispatch(Message message, boolean shareConversions) {
+			this.message = message;
+			this.shareConversions = shareConversions;
+		}
+
+		private String routingKey(RoutingKeyExtractor extractor) {
+			for (int i = 0; i < this.extracted; i++) {
+				if (this.extractors[i].equals(extractor)) {
+					return this.keys[i];
+				}
+			}
+			if (this.extractors == null) {
+				this.extractors = new RoutingKeyExtractor[2];
+				this.keys = new String[2];
+			}
+			else if (this.extracted == this.extractors.length) {
+				this.extractors = Arrays.copyOf(this.extractors, this.extracted * 2);
+				this.keys = Arrays.copyOf(this.keys, this.extracted * 2);
+			}
+			String key = extractor.getRoutingKey(this.message);
+			this.extractors[this.extracted] = extractor;
+			this.keys[this.extracted++] = key;
+			return key;
+		}
+
+		private void deliver(Registration registration) {
+			this.delivered++;
+			if (!this.shareConversions) {
+				registration.deliver(this.message);
+			}
+			else if (this.delivered == 1) {
+				this.pending = registration;
+			}
+			else {
+				if (this.shared == null) {
+					this.shared = new SharedMessage(this.message);
+					this.pending.deliver(this.shared);
+					this.pending = null;
+				}
+				registration.deliver(this.shared);
+			}
+		}
+
+		private void complete() {
+			if (this.pending != null) {
+				this.pending.deliver(this.message);
+				this.pending = null;
+			}
+		}
+
+	}
+
+}
\ No newline at end of file
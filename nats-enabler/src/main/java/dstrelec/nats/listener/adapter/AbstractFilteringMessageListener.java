@@ -45,4 +45,8 @@ public abstract class AbstractFilteringMessageListener {
 		return this.messageFilterStrategy.filter(message);
 	}
 
+	protected void processingFailed(Message message) {
+		this.messageFilterStrategy.processingFailed(message);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import dstrelec.nats.support.Fingerprints;
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageFilterStrategy} that discards messages already seen recently, making
+ * listeners idempotent against publisher retries and replays.
+ * <p>
+ * Messages are identified by a 64-bit key from a {@link DeduplicationKeyExtractor}, or
+ * by the {@link Fingerprints fingerprint} of subject and payload. Since a payload may
+ * legitimately be sent again, fingerprints require a {@link #setTimeToLive(long) time to
+ * live}. The key of a message is released when its listener fails, so a redelivery is
+ * processed.
+ * <p>
+ * The recent keys are kept in open-addressing tables of primitive longs, split into
+ * stripes with their own lock so that concurrent dispatcher threads rarely contend.
+ * Each stripe remembers its keys in insertion order and evicts the oldest once it holds
+ * its share of the capacity or once they expire. Checking a message allocates nothing
+ * beyond what the key extractor does.
+ *
+ * @author Dario Strelec
+ */
+public class DeduplicatingMessageFilterStrategy implements MessageFilterStrategy {
+
+	private static final int DEFAULT_CAPACITY = 100000;
+
+	private static final int STRIPES = 16;
+
+	private static final DeduplicationKeyExtractor FINGERPRINT_KEY_EXTRACTOR = new DeduplicationKeyExtractor() {
+
+		@Override
+		public long getKey(Message message) {
+			return Fingerprints.of(message.getSubject(), message.getData());
+		}
+
+	};
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	private final DeduplicationKeyExtractor keyExtractor;
+
+	private long timeToLive;
+
+	/**
+	 * Create an instance identifying messages by the fingerprint of subject and payload
+	 * and remembering up to 100000 keys.
+	 * @param timeToLive how long a key is remembered, in milliseconds.
+	 */
+	public DeduplicatingMessageFilterStrategy(long timeToLive) {
+		this(timeToLive, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an instance identifying messages by the fingerprint of subject and payload
+	 * and remembering up to the supplied number of keys.
+	 * @param timeToLive how long a key is remembered, in milliseconds.
+	 * @param capacity the capacity.
+	 */
+	public DeduplicatingMessageFilterStrategy(long timeToLive, int capacity) {
+		this(FINGERPRINT_KEY_EXTRACTOR, capacity);
+		Assert.isTrue(timeToLive > 0, "'timeToLive' must be greater than 0 for payload fingerprints");
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Create an instance using the supplied key extractor and remembering up to 100000
+	 * keys.
+	 * @param keyExtractor the key extractor.
+	 * @see JsonFieldKeyExtractor
+	 * @see HeaderKeyExtractor
+	 */
+	public DeduplicatingMessageFilterStrategy(DeduplicationKeyExtractor keyExtractor) {
+		this(keyExtractor, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an instance using the supplied key extractor and remembering up to the
+	 * supplied number of keys.
+	 * @param keyExtractor the key extractor.
+	 * @param capacity the capacity.
+	 * @see JsonFieldKeyExtractor
+	 * @see HeaderKeyExtractor
+	 */
+	public DeduplicatingMessageFilterStrategy(DeduplicationKeyExtractor keyExtractor, int capacity) {
+		Assert.notNull(keyExtractor, "'keyExtractor' cannot be null");
+		Assert.isTrue(capacity > 0, "'capacity' must be greater than 0");
+		this.keyExtractor = keyExtractor;
+		int stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new Stripe(stripeCapacity);
+		}
+	}
+
+	/**
+	 * Set how long a key is remembered, in milliseconds; 0 to evict by capacity only,
+	 * which is not allowed for payload fingerprints.
+	 * @param timeToLive the time to live.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		Assert.isTrue(timeToLive >= 0, "'timeToLive' must not be negative");
+		Assert.isTrue(timeToLive > 0 || this.keyExtractor != FINGERPRINT_KEY_EXTRACTOR,
+				"'timeToLive' must be greater than 0 for payload fingerprints");
+		this.timeToLive = timeToLive;
+	}
+
+	@Override
+	public boolean filter(Message message) {
+		long key = this.keyExtractor.getKey(message);
+		if (key == 0) {
+			return false;
+		}
+		long mixed = Fingerprints.mix(key);
+		long now = this.timeToLive > 0 ? System.currentTimeMillis() : 0;
+		return this.stripes[(int) (mixed >>> 60)].seen(key, (int) mixed, now, this.timeToLive);
+	}
+
+	@Override
+	public void processingFailed(Message message) {
+		long key = this.keyExtractor.getKey(message);
+		if (key != 0) {
+			this.stripes[(int) (Fingerprints.mix(key) >>> 60)].release(key);
+		}
+	}
+
+	/**
+	 * Return the number of keys currently remembered.
+	 * @return the size.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+
+	/*
+	 * Linear probing table of keys plus a ring of the keys in insertion order;
+	 * guarded by the stripe's monitor. Each key remembers its ring position, so a ring
+	 * entry of a released key does not evict the key when it is seen again.
+	 */
+	private static final class Stripe {
+
+		private final long[] keys;
+
+		private final long[] times;
+
+		private final int[] positions;
+
+		private final int mask;
+
+		private final long[] ring;
+
+		private int ringHead;
+
+		private int size;
+
+		private int count;
+
+		private Stripe(int capacity) {
+			int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+			this.keys = new long[tableSize];
+			this.times = new long[tableSize];
+			this.positions = new int[tableSize];
+			this.mask = tableSize - 1;
+			this.ring = new long[capacity];
+		}
+
+		private synchronized boolean seen(long key, int hash, long now, long timeToLive) {
+			if (timeToLive > 0) {
+				expire(now - timeToLive);
+			}
+			int index = hash & this.mask;
+			while (this.keys[index] != 0) {
+				if (this.keys[index] == key) {
+					return true;
+				}
+				index = (index + 1) & this.mask;
+			}
+			if (this.size == this.ring.length) {
+				evictHead();
+				// the removal may have shifted entries into the probe sequence
+				index = hash & this.mask;
+				while (this.keys[index] != 0) {
+					index = (index + 1) & this.mask;
+				}
+			}
+			int position = (this.ringHead + this.size) % this.ring.length;
+			this.keys[index] = key;
+			this.times[index] = now;
+			this.positions[index] = position;
+			this.ring[position] = key;
+			this.size++;
+			this.count++;
+			return false;
+		}
+
+		private synchronized void release(long key) {
+			int index = indexOf(key);
+			if (index >= 0) {
+				removeAt(index);
+			}
+		}
+
+		private synchronized int size() {
+			return this.count;
+		}
+
+		/*
+		 * Evict the oldest keys inserted before the cutoff.
+		 */
+		private void expire(long cutoff) {
+			while (this.size > 0) {
+				int index = indexOf(this.ring[this.ringHead]);
+				if (index >= 0 && this.positions[index] == this.ringHead && this.times[index] > cutoff) {
+					return;
+				}
+				evictHead();
+			}
+		}
+
+		private void evictHead() {
+			int index = indexOf(this.ring[this.ringHead]);
+			if (index >= 0 && this.positions[index] == this.ringHead) {
+				removeAt(index);
+			}
+			this.ringHead = (this.ringHead + 1) % this.ring.length;
+			this.size--;
+		}
+
+		private int indexOf(long key) {
+			int index = (int) Fingerprints.mix(key) & this.mask;
+			while (this.keys[index] != 0) {
+				if (this.keys[index] == key) {
+					return index;
+				}
+				index = (index + 1) & this.mask;
+			}
+			return -1;
+		}
+
+		/*
+		 * Backward shift deletion, keeping every remaining key reachable from its home slot.
+		 */
+		private void removeAt(int index) {
+			int hole = index;
+			int next = (hole + 1) & this.mask;
+			while (this.keys[next] != 0) {
+				int home = (int) Fingerprints.mix(this.keys[next]) & this.mask;
+				if (((next - home) & this.mask) >= ((next - hole) & this.mask)) {
+					this.keys[hole] = this.keys[next];
+					this.times[hole] = this.times[next];
+					this.positions[hole] = this.positions[next];
+					hole = next;
+				}
+				next = (next + 1) & this.mask;
+			}
+			this.keys[hole] = 0;
+			this.times[hole] = 0;
+			this.positions[hole] = 0;
+			this.count--;
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import io.nats.client.Message;
+
+/**
+ * Strategy to extract the identity of a message for a
+ * {@link DeduplicatingMessageFilterStrategy}.
+ *
+ * @author Dario Strelec
+ *
+ */
+public interface DeduplicationKeyExtractor {
+
+	/**
+	 * Return a 64-bit key identifying the message, for example a fingerprint of its
+	 * message id; see {@link dstrelec.nats.support.Fingerprints}.
+	 * @param message the message.
+	 * @return the key, or {@code 0} if the message has no identity and must not be
+	 * deduplicated.
+	 */
+	long getKey(Message message);
+
+}
@@ -18,12 +18,11 @@ package dstrelec.nats.listener.adapter;
 
 import dstrelec.nats.NatsException;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
 
 import org.springframework.core.MethodParameter;
 import org.springframework.messaging.Message;
@@ -35,6 +34,9 @@ import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
  * Delegates to an {@link InvocableHandlerMethod} based on the message payload type.
  * Matches a single, non-annotated parameter or one that is annotated with {@link Payload}.
  * Matches must be unambiguous.
+ * <p>
+ * The payload parameter candidates of every handler are determined once, and the
+ * handler (or the absence of one) is cached per payload class.
  *
  * @author Gary Russell
  * @author Dario Strelec
@@ -42,9 +44,21 @@ import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
  */
 public class DelegatingInvocableHandler {
 
+	private static final Object NO_HANDLER = new Object();
+
 	private final List<InvocableHandlerMethod> handlers;
 
-	private final ConcurrentMap<Class<?>, InvocableHandlerMethod> cachedHandlers = new ConcurrentHashMap<>();
+	private final Map<InvocableHandlerMethod, Class<?>[]> payloadCandidates = new IdentityHashMap<>();
+
+	private final ClassValue<Object> cachedHandlers = new ClassValue<Object>() {
+
+		@Override
+		protected Object computeValue(Class<?> payloadClass) {
+			InvocableHandlerMethod handler = findHandlerForPayload(payloadClass);
+			return handler == null ? NO_HANDLER : handler;
+		}
+
+	};
 
 	private final Object bean;
 
@@ -56,6 +70,24 @@ public class DelegatingInvocableHandler {
 	public DelegatingInvocableHandler(List<InvocableHandlerMethod> handlers, Object bean) {
 		this.handlers = new ArrayList<InvocableHandlerMethod>(handlers);
 		this.bean = bean;
+		for (InvocableHandlerMethod handler : this.handlers) {
+			this.payloadCandidates.put(handler, determinePayloadCandidates(handler.getMethod()));
+		}
+	}
+
+	/*
+	 * Types of the parameters that are not annotated or annotated with @Payload.
+	 */
+	private static Class<?>[] determinePayloadCandidates(Method method) {
+		List<Class<?>> candidates = new ArrayList<>();
+		for (int i = 0; i < method.getParameterCount(); i++) {
+			MethodParameter methodParameter = new MethodParameter(method, i);
+			if (methodParameter.getParameterAnnotations().length == 0
+					|| methodParameter.hasParameterAnnotation(Payload.class)) {
+				candidates.add(methodParameter.getParameterType());
+			}
+		}
+		return candidates.toArray(new Class<?>[candidates.size()]);
 	}
 
 	/**
@@ -86,15 +118,11 @@ public class DelegatingInvocableHandler {
 	 * @return the handler.
 	 */
 	protected InvocableHandlerMethod getHandlerForPayload(Class<? extends Object> payloadClass) {
-		InvocableHandlerMethod handler = this.cachedHandlers.get(payloadClass);
-		if (handler == null) {
-			handler = findHandlerForPayload(payloadClass);
-			if (handler == null) {
-				throw new NatsException("No method found for " + payloadClass);
-			}
-			this.cachedHandlers.putIfAbsent(payloadClass, handler); //NOSONAR
+		Object handler = this.cachedHandlers.get(payloadClass);
+		if (handler == NO_HANDLER) {
+			throw new NatsException("No method found for " + payloadClass);
 		}
-		return handler;
+		return (InvocableHandlerMethod) handler;
 	}
 
 	protected InvocableHandlerMethod findHandlerForPayload(Class<? extends Object> payloadClass) {
@@ -112,26 +140,15 @@ public class DelegatingInvocableHandler {
 	}
 
 	protected boolean matchHandlerMethod(Class<? extends Object> payloadClass, InvocableHandlerMethod handler) {
-		Method method = handler.getMethod();
-		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-		// Single param; no annotation or @Payload
-		if (parameterAnnotations.length == 1) {
-			MethodParameter methodParameter = new MethodParameter(method, 0);
-			if ((methodParameter.getParameterAnnotations().length == 0
-					|| methodParameter.hasParameterAnnotation(Payload.class))
-					&& methodParameter.getParameterType().isAssignableFrom(payloadClass)) {
-				return true;
-			}
+		Class<?>[] candidates = this.payloadCandidates.get(handler);
+		if (candidates == null) {
+			candidates = determinePayloadCandidates(handler.getMethod());
 		}
-
 		boolean foundCandidate = false;
-		for (int i = 0; i < parameterAnnotations.length; i++) {
-			MethodParameter methodParameter = new MethodParameter(method, i);
-			if ((methodParameter.getParameterAnnotations().length == 0
-					|| methodParameter.hasParameterAnnotation(Payload.class))
-					&& methodParameter.getParameterType().isAssignableFrom(payloadClass)) {
+		for (Class<?> candidate : candidates) {
+			if (candidate.isAssignableFrom(payloadClass)) {
 				if (foundCandidate) {
-					throw new NatsException("Ambiguous payload parameter for " + method.toGenericString());
+					throw new NatsException("Ambiguous payload parameter for " + handler.getMethod().toGenericString());
 				}
 				foundCandidate = true;
 			}
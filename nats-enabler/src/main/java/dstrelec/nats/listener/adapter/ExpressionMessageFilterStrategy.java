@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import dstrelec.nats.NatsException;
+import io.nats.client.Message;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageFilterStrategy} evaluating a boolean SpEL expression against a
+ * {@link FilterExpressionRoot}; messages for which it is not {@code true} are
+ * discarded.
+ * <p>
+ * Used by {@code @NatsListener(filter = ...)}. Expressions referring only to the subject,
+ * reply subject or raw data are applied by this strategy before the message is
+ * converted; others are evaluated by the listener adapter on the converted message, see
+ * {@link #requiresConversion(Expression)}.
+ *
+ * @author Dario Strelec
+ */
+public class ExpressionMessageFilterStrategy implements MessageFilterStrategy {
+
+	private final Expression expression;
+
+	private final EvaluationContext evaluationContext;
+
+	/**
+	 * Create an instance evaluating the expression with a standard evaluation context.
+	 * @param expression the expression.
+	 */
+	public ExpressionMessageFilterStrategy(Expression expression) {
+		this(expression, new StandardEvaluationContext());
+	}
+
+	/**
+	 * Create an instance evaluating the expression with the supplied evaluation context.
+	 * @param expression the expression.
+	 * @param evaluationContext the evaluation context.
+	 */
+	public ExpressionMessageFilterStrategy(Expression expression, EvaluationContext evaluationContext) {
+		Assert.notNull(expression, "'expression' cannot be null");
+		Assert.notNull(evaluationContext, "'evaluationContext' cannot be null");
+		this.expression = expression;
+		this.evaluationContext = evaluationContext;
+	}
+
+	@Override
+	public boolean filter(Message message) {
+		return !accept(this.expression, this.evaluationContext, message, null);
+	}
+
+	/**
+	 * Evaluate a filter expression.
+	 * @param expression the expression.
+	 * @param evaluationContext the evaluation context.
+	 * @param natsMessage the Nats message.
+	 * @param message the converted message, or null before conversion.
+	 * @return true if the message is accepted.
+	 */
+	static boolean accept(Expression expression, EvaluationContext evaluationContext, Message natsMessage,
+			org.springframework.messaging.Message<?> message) {
+		try {
+			return Boolean.TRUE.equals(expression.getValue(evaluationContext,
+					new FilterExpressionRoot(natsMessage, message), Boolean.class));
+		}
+		catch (RuntimeException e) {
+			throw new NatsException("Failed to evaluate filter expression '" + expression.getExpressionString()
+					+ "'", e);
+		}
+	}
+
+	/**
+	 * Return true if the expression refers to {@code headers} or {@code payload} and so
+	 * can only be evaluated after conversion.
+	 * @param expression the expression.
+	 * @return true if conversion is required.
+	 */
+	public static boolean requiresConversion(Expression expression) {
+		if (!(expression instanceof SpelExpression)) {
+			return true;
+		}
+		return refersToConvertedMessage(((SpelExpression) expression).getAST());
+	}
+
+	private static boolean refersToConvertedMessage(SpelNode node) {
+		String name = null;
+		if (node instanceof PropertyOrFieldReference) {
+			name = ((PropertyOrFieldReference) node).getName();
+		}
+		else if (node instanceof MethodReference) {
+			name = ((MethodReference) node).getName();
+		}
+		if ("headers".equals(name) || "payload".equals(name) || "getHeaders".equals(name)
+				|| "getPayload".equals(name)) {
+			return true;
+		}
+		for (int i = 0; i < node.getChildCount(); i++) {
+			if (refersToConvertedMessage(node.getChild(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * The root object of {@code @NatsListener} filter expressions, exposing
+ * {@code subject}, {@code replyTo}, {@code data}, {@code headers} and {@code payload}.
+ * <p>
+ * {@code headers} and {@code payload} are only available once the message has been
+ * converted; expressions not referring to them are evaluated before conversion.
+ *
+ * @author Dario Strelec
+ *
+ * @see ExpressionMessageFilterStrategy
+ */
+public final class FilterExpressionRoot {
+
+	private final io.nats.client.Message natsMessage;
+
+	private final Message<?> message;
+
+	FilterExpressionRoot(io.nats.client.Message natsMessage, Message<?> message) {
+		this.natsMessage = natsMessage;
+		this.message = message;
+	}
+
+	public String getSubject() {
+		return this.natsMessage.getSubject();
+	}
+
+	public String getReplyTo() {
+		return this.natsMessage.getReplyTo();
+	}
+
+	public byte[] getData() {
+		return this.natsMessage.getData();
+	}
+
+	public MessageHeaders getHeaders() {
+		return this.message == null ? null : this.message.getHeaders();
+	}
+
+	public Object getPayload() {
+		return this.message == null ? null : this.message.getPayload();
+	}
+
+}
@@ -16,8 +16,12 @@
 
 package dstrelec.nats.listener.adapter;
 
+import java.util.concurrent.CompletionStage;
+
 import io.nats.client.Message;
 
+import dstrelec.nats.listener.AsyncMessageListener;
+import dstrelec.nats.listener.DelegatingMessageListener;
 import dstrelec.nats.listener.MessageListener;
 
 /**
@@ -28,7 +32,8 @@ import dstrelec.nats.listener.MessageListener;
  * @author Dario Strelec
  *
  */
-public class FilteringMessageListenerAdapter extends AbstractFilteringMessageListener implements MessageListener {
+public class FilteringMessageListenerAdapter extends AbstractFilteringMessageListener
+		implements AsyncMessageListener, DelegatingMessageListener {
 
 	/**
 	 * Create an instance with the supplied strategy and delegate listener.
@@ -39,11 +44,55 @@ public class FilteringMessageListenerAdapter extends AbstractFilteringMessageLis
 		super(delegate, messageFilterStrategy);
 	}
 
+	@Override
+	public MessageListener getDelegate() {
+		return this.delegate;
+	}
+
 	@Override
 	public void onMessage(Message message) {
 		if (!filter(message)) {
-			this.delegate.onMessage(message);
+			try {
+				this.delegate.onMessage(message);
+			}
+			catch (RuntimeException e) {
+				processingFailed(message);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Process the message unless the filter rejects it.
+	 * @param message the message.
+	 * @return the stage of the delegate, or {@link #IGNORED} if the message was
+	 * filtered out, so that the container does not count it as processed.
+	 */
+	@Override
+	public CompletionStage<?> onMessageAsync(final Message message) {
+		if (filter(message)) {
+			return IGNORED;
+		}
+		try {
+			if (this.delegate instanceof AsyncMessageListener) {
+				CompletionStage<?> completion = ((AsyncMessageListener) this.delegate).onMessageAsync(message);
+				if (completion != null && completion != IGNORED) {
+					return completion.whenComplete((result, ex) -> {
+						if (ex != null) {
+							processingFailed(message);
+						}
+					});
+				}
+			}
+			else {
+				this.delegate.onMessage(message);
+			}
+		}
+		catch (RuntimeException e) {
+			processingFailed(message);
+			throw e;
 		}
+		return null;
 	}
 
 }
\ No newline at end of file
@@ -20,9 +20,9 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
 
 /**
- * A wrapper for either an {@link InvocableHandlerMethod} or
- * {@link DelegatingInvocableHandler}. All methods delegate to the
- * underlying handler.
+ * A wrapper for either an {@link InvocableHandlerMethod},
+ * {@link DelegatingInvocableHandler} or {@link MethodHandleInvoker}. All methods
+ * delegate to the underlying handler.
  *
  * @author Gary Russell
  * @author Dario Strelec
@@ -34,18 +34,31 @@ public class HandlerAdapter {
 
 	private final DelegatingInvocableHandler delegatingHandler;
 
+	private final MethodHandleInvoker methodHandleInvoker;
+
 	public HandlerAdapter(InvocableHandlerMethod invokerHandlerMethod) {
 		this.invokerHandlerMethod = invokerHandlerMethod;
 		this.delegatingHandler = null;
+		this.methodHandleInvoker = null;
 	}
 
 	public HandlerAdapter(DelegatingInvocableHandler delegatingHandler) {
 		this.invokerHandlerMethod = null;
 		this.delegatingHandler = delegatingHandler;
+		this.methodHandleInvoker = null;
+	}
+
+	public HandlerAdapter(MethodHandleInvoker methodHandleInvoker) {
+		this.invokerHandlerMethod = methodHandleInvoker.getHandlerMethod();
+		this.delegatingHandler = null;
+		this.methodHandleInvoker = methodHandleInvoker;
 	}
 
 	public Object invoke(Message<?> message, Object... providedArgs) throws Exception { //NOSONAR
-		if (this.invokerHandlerMethod != null) {
+		if (this.methodHandleInvoker != null) {
+			return this.methodHandleInvoker.invoke(message, providedArgs);
+		}
+		else if (this.invokerHandlerMethod != null) {
 			return this.invokerHandlerMethod.invoke(message, providedArgs);
 		}
 		else {
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import dstrelec.nats.support.converter.ConversionException;
+import dstrelec.nats.support.converter.Envelope;
+import dstrelec.nats.support.converter.HeaderBlock;
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+/**
+ * A {@link DeduplicationKeyExtractor} using a header carried in the {@link HeaderBlock}
+ * of an {@link Envelope}, such as a message or correlation id, as the key.
+ * <p>
+ * The value is fingerprinted where it is encoded, without decoding the header block
+ * or the payload. Messages without an envelope, without the header or with a
+ * malformed header block have no key.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.support.converter.MessagingMessageConverter#setContentTypeId(int)
+ */
+public class HeaderKeyExtractor implements DeduplicationKeyExtractor {
+
+	private final String headerName;
+
+	/**
+	 * Create an instance for the supplied header.
+	 * @param headerName the name of the header.
+	 */
+	public HeaderKeyExtractor(String headerName) {
+		Assert.hasText(headerName, "'headerName' must not be empty");
+		this.headerName = headerName;
+	}
+
+	@Override
+	public long getKey(Message message) {
+		byte[] data = message.getData();
+		if (!Envelope.isEnvelope(data)) {
+			return 0;
+		}
+		int offset = Envelope.getHeadersOffset(data);
+		if (offset < 0) {
+			return 0;
+		}
+		int length = Envelope.getHeadersLength(data);
+		try {
+			HeaderBlock.validate(data, offset, length);
+		}
+		catch (ConversionException e) {
+			return 0;
+		}
+		return HeaderBlock.fingerprint(data, offset, length, this.headerName);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof HeaderKeyExtractor && this.headerName.equals(((HeaderKeyExtractor) obj).headerName);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.headerName.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "HeaderKeyExtractor [headerName=" + this.headerName + "]";
+	}
+
+}
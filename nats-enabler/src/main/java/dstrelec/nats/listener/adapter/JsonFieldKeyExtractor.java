@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import dstrelec.nats.listener.RoutingKeyExtractor;
+import dstrelec.nats.support.Fingerprints;
+import dstrelec.nats.support.converter.Codec;
+import dstrelec.nats.support.converter.CodecRegistry;
+import dstrelec.nats.support.converter.Envelope;
+import dstrelec.nats.support.converter.MessagingMessageConverter;
+import dstrelec.nats.support.converter.TypeIdRegistry;
+import io.nats.client.Message;
+
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A {@link DeduplicationKeyExtractor} and {@link RoutingKeyExtractor} using a top-level
+ * field of a JSON, Smile or CBOR payload, such as a message or tenant id, as the key.
+ * <p>
+ * The payload is scanned with a streaming parser up to the field; nested objects and
+ * arrays before it are skipped and nothing is bound, so no intermediate objects are
+ * created. Messages without the field, or with a payload that is not an object, have
+ * no key.
+ * <p>
+ * The data is read like the converter of the listener reads it: the payload of an
+ * {@link Envelope} is parsed with the factory of the codec registered for its content
+ * type, other data with the factory of the converter, and a leading
+ * {@link TypeIdRegistry type id} is skipped. An extractor created without a converter
+ * reads JSON text and envelopes of the {@link CodecRegistry#JSON} content type.
+ *
+ * @author Dario Strelec
+ */
+public class JsonFieldKeyExtractor implements DeduplicationKeyExtractor, RoutingKeyExtractor {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final String fieldName;
+
+	private final JsonFactory jsonFactory;
+
+	private final CodecRegistry codecRegistry;
+
+	/**
+	 * Create an instance for the supplied field of JSON payloads.
+	 * @param fieldName the name of the top-level field.
+	 */
+	public JsonFieldKeyExtractor(String fieldName) {
+		this(fieldName, JSON_FACTORY, null);
+	}
+
+	/**
+	 * Create an instance for the supplied field of the payloads the converter decodes.
+	 * @param fieldName the name of the top-level field.
+	 * @param converter the converter.
+	 * @throws IllegalArgumentException if the payloads of the converter have no fields.
+	 * @see MessagingMessageConverter#getJsonFactory()
+	 */
+	public JsonFieldKeyExtractor(String fieldName, MessagingMessageConverter converter) {
+		this(fieldName, converter.getJsonFactory(), converter.getCodecRegistry());
+		Assert.isTrue(this.jsonFactory != null || this.codecRegistry != null,
+				"The payloads of " + converter + " have no fields to read '" + fieldName + "' from");
+	}
+
+	private JsonFieldKeyExtractor(String fieldName, JsonFactory jsonFactory, CodecRegistry codecRegistry) {
+		Assert.hasText(fieldName, "'fieldName' must not be empty");
+		this.fieldName = fieldName;
+		this.jsonFactory = jsonFactory;
+		this.codecRegistry = codecRegistry;
+	}
+
+	@Override
+	public long getKey(Message message) {
+		String value = extractValue(message);
+		return value == null ? 0 : Fingerprints.of(null, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public String getRoutingKey(Message message) {
+		return extractValue(message);
+	}
+
+	/**
+	 * Return the text of the field in the message payload.
+	 * @param message the message.
+	 * @return the value, or null if the field is absent or the payload is not an object.
+	 */
+	public String extractValue(Message message) {
+		byte[] data = message.getData();
+		if (data == null || data.length == 0) {
+			return null;
+		}
+		JsonFactory factory = this.jsonFactory;
+		int offset = 0;
+		if (Envelope.isEnvelope(data)) {
+			factory = envelopeFactory(Envelope.getContentTypeId(data));
+			offset = Envelope.getPayloadOffset(data);
+		}
+		if (factory == null) {
+			return null;
+		}
+		// no JSON, Smile or CBOR object starts with the marker of a type id
+		offset += TypeIdRegistry.prefixLength(data, offset, data.length - offset);
+		if (offset == data.length) {
+			return null;
+		}
+		try (JsonParser parser = factory.createParser(data, offset, data.length - offset)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			JsonToken token;
+			while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+				boolean match = this.fieldName.equals(parser.getCurrentName());
+				token = parser.nextToken();
+				if (match) {
+					return token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getText() : null;
+				}
+				parser.skipChildren();
+			}
+			return null;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private JsonFactory envelopeFactory(int contentTypeId) {
+		if (this.codecRegistry == null) {
+			return contentTypeId == CodecRegistry.JSON ? JSON_FACTORY : null;
+		}
+		Codec codec = this.codecRegistry.getCodec(contentTypeId);
+		return codec == null ? null : codec.getJsonFactory();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof JsonFieldKeyExtractor)) {
+			return false;
+		}
+		JsonFieldKeyExtractor other = (JsonFieldKeyExtractor) obj;
+		return this.fieldName.equals(other.fieldName) && this.jsonFactory == other.jsonFactory
+				&& this.codecRegistry == other.codecRegistry;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.fieldName.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "JsonFieldKeyExtractor [fieldName=" + this.fieldName + "]";
+	}
+
+}
@@ -36,4 +36,12 @@ public interface MessageFilterStrategy {
 	 */
 	boolean filter(Message message);
 
+	/**
+	 * Called when the listener failed to process a message that was not discarded;
+	 * stateful strategies can forget the message so that it is accepted again.
+	 * @param message the message.
+	 */
+	default void processingFailed(Message message) {
+	}
+
 }
\ No newline at end of file
@@ -16,25 +16,39 @@
 
 package dstrelec.nats.listener.adapter;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import dstrelec.nats.NatsException;
+import dstrelec.nats.core.CoalescingPublisher;
+import dstrelec.nats.listener.AsyncMessageListener;
 import dstrelec.nats.listener.MessageListener;
+import dstrelec.nats.support.NatsHeaders;
+import dstrelec.nats.support.SharedMessage;
 import dstrelec.nats.support.converter.MessageConverter;
 import dstrelec.nats.support.converter.MessagingMessageConverter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.springframework.core.MethodParameter;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.converter.MessageConversionException;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
 
 /**
  * A {@link dstrelec.nats.listener.MessageListener MessageListener}
@@ -43,16 +57,44 @@ import org.springframework.util.Assert;
  *
  * <p>Wraps the incoming Nats Message to Spring's {@link Message} abstraction.
  *
+ * <p>A non-null result of the listener method is converted with the same
+ * {@link MessageConverter} and published to the reply subject of the incoming
+ * message or, if the message has none, to the {@link #setReplySubject(String)
+ * default reply subject}.
+ *
+ * <p>Listener methods may return a {@link CompletionStage}; the result is then
+ * published when the stage completes, and the stage is handed to the container
+ * through {@link #onMessageAsync(io.nats.client.Message)} so that the delivering
+ * thread is not blocked while the method completes.
+ *
  * <p>The original {@link io.nats.client.Message} and
  * the {@link Acknowledgment} are provided as additional arguments so that these can
  * be injected as method arguments if necessary.
  *
+ * <p>A method whose only parameter is the {@link io.nats.client.Message} or the payload
+ * is invoked directly with the Nats message or the value converted by
+ * {@link MessagingMessageConverter#toPayload}, without creating a {@link Message}
+ * (unless a filter expression is set or the payload would need further conversion).
+ * {@link #toMessagingMessage(io.nats.client.Message)} is not called for these methods.
+ *
  * @author Stephane Nicoll
  * @author Gary Russell
  * @author Artem Bilan
  * @author Dario Strelec
  */
-public class MessagingMessageListenerAdapter implements MessageListener {
+public class MessagingMessageListenerAdapter implements AsyncMessageListener {
+
+	/*
+	 * Shared headers for replies built from plain return values; the converter
+	 * only looks at the subject and reply-to headers, so no id is needed per reply.
+	 */
+	private static final MessageHeaders REPLY_HEADERS = new MessageHeaders(null);
+
+	/*
+	 * Shared by the adapters without a configured converter, so that listeners of a
+	 * shared message find each other's conversions; it is never reconfigured.
+	 */
+	private static final MessageConverter DEFAULT_MESSAGE_CONVERTER = new MessagingMessageConverter();
 
 	private final Object bean;
 
@@ -60,20 +102,34 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 
 	private final Type inferredType;
 
+	private final Class<?> rawParameterType;
+
+	private final MethodHandle rawHandle;
+
 	private HandlerAdapter handlerMethod;
 
 	private boolean isConsumerRecordList;
 
 	private boolean isMessageList;
 
-	private MessageConverter messageConverter = new MessagingMessageConverter();
+	private MessageConverter messageConverter = DEFAULT_MESSAGE_CONVERTER;
 
 	private Type fallbackType = Object.class;
 
+	private CoalescingPublisher replyPublisher;
+
+	private String replySubject;
+
+	private Expression filterExpression;
+
+	private EvaluationContext filterEvaluationContext;
+
 
 	public MessagingMessageListenerAdapter(Object bean, Method method) {
 		this.bean = bean;
 		this.inferredType = determineInferredType(method);
+		this.rawParameterType = determineRawParameterType(method);
+		this.rawHandle = this.rawParameterType == null ? null : MethodHandleInvoker.bind(bean, method);
 	}
 
 	/**
@@ -82,6 +138,7 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 	 */
 	public void setMessageConverter(MessageConverter messageConverter) {
 		this.messageConverter = messageConverter;
+		prepareConverter();
 	}
 
 	/**
@@ -112,6 +169,43 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 	 */
 	public void setFallbackType(Class<?> fallbackType) {
 		this.fallbackType = fallbackType;
+		prepareConverter();
+	}
+
+	private void prepareConverter() {
+		if (this.messageConverter instanceof MessagingMessageConverter) {
+			((MessagingMessageConverter) this.messageConverter).prepare(getType());
+		}
+	}
+
+	/**
+	 * Set a filter expression evaluated against the converted message; messages for
+	 * which it is not {@code true} are discarded before the handler is invoked.
+	 * @param filterExpression the expression.
+	 * @param evaluationContext the evaluation context.
+	 * @see ExpressionMessageFilterStrategy
+	 */
+	public void setFilterExpression(Expression filterExpression, EvaluationContext evaluationContext) {
+		this.filterExpression = filterExpression;
+		this.filterEvaluationContext = evaluationContext;
+	}
+
+	/**
+	 * Set the publisher used to send listener results.
+	 * @param replyPublisher the publisher.
+	 */
+	public void setReplyPublisher(CoalescingPublisher replyPublisher) {
+		this.replyPublisher = replyPublisher;
+	}
+
+	/**
+	 * Set the subject to send listener results to when the incoming message
+	 * does not carry a reply subject, typically from
+	 * {@link org.springframework.messaging.handler.annotation.SendTo @SendTo}.
+	 * @param replySubject the default reply subject.
+	 */
+	public void setReplySubject(String replySubject) {
+		this.replySubject = replySubject;
 	}
 
 	/**
@@ -131,11 +225,123 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 	 */
 	@Override
 	public void onMessage(io.nats.client.Message msg) {
-		Message<?> message = toMessagingMessage(msg);
+		CompletionStage<?> completion = onMessageAsync(msg);
+		if (completion != null) {
+			completion.whenComplete((result, ex) -> {
+				if (ex != null) {
+					logger.error("Asynchronous listener failed for " + msg, ex);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Nats {@link AsyncMessageListener} entry point.
+	 * <p> Delegate the message to the target listener method, with appropriate
+	 * conversion of the message argument. If the method returns a {@link CompletionStage},
+	 * the returned stage completes once that stage completes and the result was sent.
+	 * @param msg the incoming Nats {@link io.nats.client.Message}.
+	 * @return the completion stage, null if the method completed synchronously, or
+	 * {@link #IGNORED} if the filter expression rejected the message.
+	 */
+	@Override
+	public CompletionStage<?> onMessageAsync(io.nats.client.Message msg) {
+		Message<?> message = null;
+		if (this.rawHandle != null && this.filterExpression == null) {
+			if (this.rawParameterType.isInstance(msg)) {
+				return invokeRaw(msg, msg);
+			}
+			if (msg instanceof SharedMessage) {
+				message = toMessagingMessage(msg);
+				if (isRawArgument(message.getPayload())) {
+					return invokeRaw(message.getPayload(), msg);
+				}
+			}
+			else if (getMessageConverter() instanceof MessagingMessageConverter) {
+				MessagingMessageConverter converter = (MessagingMessageConverter) getMessageConverter();
+				Object value = converter.toPayload(msg, getType());
+				if (isRawArgument(value)) {
+					return invokeRaw(value, msg);
+				}
+				if (value != null) {
+					// the regular path takes the payload as converted
+					message = converter.toMessageFromPayload(msg, value);
+				}
+			}
+		}
+		if (message == null) {
+			message = toMessagingMessage(msg);
+		}
+		if (this.filterExpression != null
+				&& !ExpressionMessageFilterStrategy.accept(this.filterExpression, this.filterEvaluationContext, msg, message)) {
+			return IGNORED;
+		}
 		if (logger.isDebugEnabled()) {
 			logger.debug("Processing [" + message + "]");
 		}
-		invokeHandler(msg, message);
+		Object result = invokeHandler(msg, message);
+		return handleInvocationResult(result, msg, message.getPayload());
+	}
+
+	/*
+	 * Whether the converted payload can be passed to the raw invocation; otherwise
+	 * the message takes the regular path.
+	 */
+	private boolean isRawArgument(Object value) {
+		return this.rawParameterType.isInstance(value) && !MethodHandleInvoker.isEmptyPayload(value);
+	}
+
+	private CompletionStage<?> invokeRaw(Object value, io.nats.client.Message msg) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Processing [" + msg + "]");
+		}
+		Object result;
+		try {
+			result = (Object) this.rawHandle.invokeExact(value);
+		}
+		catch (Exception ex) {
+			throw wrapInvocationException(ex, value);
+		}
+		catch (Error ex) {
+			throw ex;
+		}
+		catch (Throwable ex) {
+			throw wrapInvocationException(new IllegalStateException("Invocation failure", ex), value);
+		}
+		return handleInvocationResult(result, msg, value);
+	}
+
+	private CompletionStage<?> handleInvocationResult(Object result, io.nats.client.Message msg, Object payload) {
+		if (result instanceof CompletionStage) {
+			return completeAsync((CompletionStage<?>) result, msg, payload);
+		}
+		if (result != null) {
+			handleResult(result, msg);
+		}
+		return null;
+	}
+
+	private CompletionStage<?> completeAsync(CompletionStage<?> stage, io.nats.client.Message msg,
+			Object payload) {
+		CompletableFuture<Object> completion = new CompletableFuture<>();
+		stage.whenComplete((result, ex) -> {
+			if (ex != null) {
+				Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+				completion.completeExceptionally(new NatsException("Listener method '" +
+						this.handlerMethod.getMethodAsString(payload) + "' completed exceptionally", cause));
+				return;
+			}
+			try {
+				if (result != null) {
+					handleResult(result, msg);
+				}
+				completion.complete(result);
+			}
+			catch (RuntimeException e) {
+				completion.completeExceptionally(e);
+			}
+		});
+		return completion;
 	}
 
 	protected boolean isConsumerRecordList() {
@@ -148,6 +354,10 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 
 
 	protected Message<?> toMessagingMessage(io.nats.client.Message message) {
+		if (message instanceof SharedMessage) {
+			return ((SharedMessage) message).getConversion(getMessageConverter(), getType(),
+					(converter, type) -> converter.toMessage(message, type));
+		}
 		return getMessageConverter().toMessage(message, getType());
 	}
 
@@ -166,19 +376,66 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 			else {
 				return this.handlerMethod.invoke(message, data);
 			}
-		} catch (org.springframework.messaging.converter.MessageConversionException ex) {
-			throw new NatsException(createMessagingErrorMessage("Listener method could not " +
-					"be invoked with the incoming message", message.getPayload()),
-					new MessageConversionException("Cannot handle message", ex));
-		} catch (MessagingException ex) {
-			throw new NatsException(createMessagingErrorMessage("Listener method could not " +
-					"be invoked with the incoming message", message.getPayload()), ex);
 		} catch (Exception ex) {
-			throw new NatsException("Listener method '" +
-					this.handlerMethod.getMethodAsString(message.getPayload()) + "' threw exception", ex);
+			throw wrapInvocationException(ex, message.getPayload());
 		}
 	}
 
+	private NatsException wrapInvocationException(Exception ex, Object payload) {
+		if (ex instanceof org.springframework.messaging.converter.MessageConversionException) {
+			return new NatsException(createMessagingErrorMessage("Listener method could not " +
+					"be invoked with the incoming message", payload),
+					new MessageConversionException("Cannot handle message", ex));
+		}
+		if (ex instanceof MessagingException) {
+			return new NatsException(createMessagingErrorMessage("Listener method could not " +
+					"be invoked with the incoming message", payload), ex);
+		}
+		return new NatsException("Listener method '" +
+				this.handlerMethod.getMethodAsString(payload) + "' threw exception", ex);
+	}
+
+	/**
+	 * Publish the result of the listener method to the reply subject of the request.
+	 * A {@link Message} result is sent with its own headers, except that its
+	 * {@link NatsHeaders#SUBJECT} header is replaced by the reply subject, so that a
+	 * listener returning the request message does not publish it to the request
+	 * subject again.
+	 * @param result the non-null result.
+	 * @param request the incoming Nats message.
+	 */
+	protected void handleResult(Object result, io.nats.client.Message request) {
+		String replyTo = request.getReplyTo();
+		if (!StringUtils.hasText(replyTo)) {
+			replyTo = this.replySubject;
+		}
+		if (this.replyPublisher == null || replyTo == null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("No reply publisher or reply subject; discarding result [" + result + "]");
+			}
+			return;
+		}
+		Message<?> reply;
+		if (result instanceof Message) {
+			reply = (Message<?>) result;
+			// a reply built from the request inherits its reply subject; it must not ask
+			// the requester to answer itself
+			Object replyToHeader = reply.getHeaders().get(NatsHeaders.REPLY_TO);
+			boolean inheritedReplyTo = replyToHeader != null && replyToHeader.equals(request.getReplyTo());
+			if (inheritedReplyTo || !replyTo.equals(reply.getHeaders().get(NatsHeaders.SUBJECT))) {
+				MessageBuilder<?> builder = MessageBuilder.fromMessage(reply).setHeader(NatsHeaders.SUBJECT, replyTo);
+				if (inheritedReplyTo) {
+					builder.removeHeader(NatsHeaders.REPLY_TO);
+				}
+				reply = builder.build();
+			}
+		}
+		else {
+			reply = MessageBuilder.createMessage(result, REPLY_HEADERS);
+		}
+		this.replyPublisher.publish(getMessageConverter().fromMessage(reply, replyTo));
+	}
+
 	private String createMessagingErrorMessage(String description, Object payload) {
 		return description + "\n"
 				+ "Endpoint handler details:\n"
@@ -245,6 +502,33 @@ public class MessagingMessageListenerAdapter implements MessageListener {
 		return genericParameterType;
 	}
 
+	/**
+	 * Determine the type of the only parameter of the method if it can be invoked
+	 * without creating a {@link Message}: the {@link io.nats.client.Message} or the
+	 * payload, unannotated or annotated with {@link Payload @Payload} only.
+	 * @param method the method.
+	 * @return the (boxed) parameter type, or null.
+	 */
+	protected Class<?> determineRawParameterType(Method method) {
+		if (method == null || method.getParameterCount() != 1) {
+			return null;
+		}
+		MethodParameter methodParameter = new MethodParameter(method, 0);
+		Class<?> parameterType = methodParameter.getParameterType();
+		if (Message.class.isAssignableFrom(parameterType) || List.class.isAssignableFrom(parameterType)
+				|| parameterType.equals(Object.class)) {
+			return null;
+		}
+		Payload payload = methodParameter.getParameterAnnotation(Payload.class);
+		int annotations = methodParameter.getParameterAnnotations().length;
+		if (annotations > 1 || (annotations == 1
+				&& (payload == null || StringUtils.hasText(payload.value()) || StringUtils.hasText(payload.expression())
+				|| !payload.required()))) {
+			return null;
+		}
+		return ClassUtils.resolvePrimitiveIfNecessary(parameterType);
+	}
+
 	/*
 	 * Don't consider parameter types that are available after conversion.
 	 * Acknowledgment, ConsumerRecord and Message<?>.
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.BridgeMethodResolver;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Invokes a listener method through a {@link MethodHandle} bound to the bean,
+ * with the arguments taken from the message by extractors that are determined
+ * once, when the invoker is created, instead of consulting the argument
+ * resolvers of the {@link InvocableHandlerMethod} on every message.
+ * <p>
+ * Supported parameters are the payload (unannotated or {@link Payload @Payload}
+ * without an expression), {@link Message}, {@link MessageHeaders},
+ * {@link Headers @Headers} maps, {@link Header @Header} with an explicit name and
+ * any argument provided by the caller, such as the original
+ * {@link io.nats.client.Message}. {@link #create(InvocableHandlerMethod)} returns
+ * {@code null} for methods with other parameters.
+ * <p>
+ * The extractors only hand over values that need no further work; when a value
+ * would have to be converted, is empty or is missing, the call is delegated to the
+ * {@link InvocableHandlerMethod} so that conversion and error reporting are the same
+ * as without this invoker.
+ *
+ * @author Dario Strelec
+ */
+public final class MethodHandleInvoker {
+
+	private static final Log logger = LogFactory.getLog(MethodHandleInvoker.class);
+
+	private static final Object UNRESOLVED = new Object();
+
+	private final InvocableHandlerMethod handlerMethod;
+
+	private final MethodHandle handle;
+
+	private final ArgumentExtractor[] extractors;
+
+	private MethodHandleInvoker(InvocableHandlerMethod handlerMethod, MethodHandle handle,
+			ArgumentExtractor[] extractors) {
+		this.handlerMethod = handlerMethod;
+		this.handle = handle;
+		this.extractors = extractors;
+	}
+
+	/**
+	 * Create an invoker for the supplied handler method.
+	 * @param handlerMethod the handler method.
+	 * @return the invoker, or {@code null} if a parameter of the method is not supported.
+	 */
+	public static MethodHandleInvoker create(InvocableHandlerMethod handlerMethod) {
+		Assert.notNull(handlerMethod, "'handlerMethod' cannot be null");
+		MethodParameter[] parameters = handlerMethod.getMethodParameters();
+		ArgumentExtractor[] extractors = new ArgumentExtractor[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			extractors[i] = extractorFor(parameters[i]);
+			if (extractors[i] == null) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Parameter " + i + " of " + handlerMethod.getMethod().toGenericString()
+							+ " is not supported; using reflective invocation");
+				}
+				return null;
+			}
+		}
+		MethodHandle handle = bind(handlerMethod.getBean(), handlerMethod.getMethod());
+		if (handle == null) {
+			return null;
+		}
+		handle = handle.asSpreader(Object[].class, parameters.length);
+		return new MethodHandleInvoker(handlerMethod, handle, extractors);
+	}
+
+	/**
+	 * Create a handle for the method bound to the bean, taking and returning
+	 * {@link Object}s.
+	 * @param bean the bean; ignored for static methods.
+	 * @param method the method.
+	 * @return the handle, or {@code null} if the method is not accessible.
+	 */
+	static MethodHandle bind(Object bean, Method method) {
+		Method bridged = BridgeMethodResolver.findBridgedMethod(method);
+		MethodHandle handle;
+		try {
+			ReflectionUtils.makeAccessible(bridged);
+			handle = MethodHandles.lookup().unreflect(bridged);
+		}
+		catch (IllegalAccessException | RuntimeException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Cannot create a method handle for " + bridged.toGenericString(), e);
+			}
+			return null;
+		}
+		if (!Modifier.isStatic(bridged.getModifiers())) {
+			handle = handle.bindTo(bean);
+		}
+		return handle.asType(MethodType.genericMethodType(bridged.getParameterCount()));
+	}
+
+	private static ArgumentExtractor extractorFor(MethodParameter parameter) {
+		Class<?> type = ClassUtils.resolvePrimitiveIfNecessary(parameter.getParameterType());
+		Annotation[] annotations = parameter.getParameterAnnotations();
+		if (annotations.length == 0) {
+			if (Message.class.equals(type)) {
+				Class<?> payloadType = ResolvableType.forMethodParameter(parameter).getGeneric(0).resolve(Object.class);
+				return new MessageExtractor(type, payloadType);
+			}
+			if (MessageHeaders.class.equals(type)) {
+				return new HeadersExtractor(type);
+			}
+			return new PayloadExtractor(type);
+		}
+		if (annotations.length > 1) {
+			return null;
+		}
+		Payload payload = parameter.getParameterAnnotation(Payload.class);
+		if (payload != null) {
+			return StringUtils.hasText(payload.expression()) ? null : new PayloadExtractor(type);
+		}
+		if (parameter.hasParameterAnnotation(Headers.class)) {
+			return type.isAssignableFrom(MessageHeaders.class) ? new HeadersExtractor(type) : null;
+		}
+		Header header = parameter.getParameterAnnotation(Header.class);
+		if (header != null) {
+			String name = StringUtils.hasText(header.name()) ? header.name() : header.value();
+			return StringUtils.hasText(name) ? new HeaderExtractor(type, name) : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Invoke the method with the given message.
+	 * @param message the message.
+	 * @param providedArgs additional arguments.
+	 * @return the result of the invocation.
+	 * @throws Exception raised if an argument cannot be resolved, or the method raised an exception.
+	 */
+	public Object invoke(Message<?> message, Object... providedArgs) throws Exception { //NOSONAR
+		Object[] args = new Object[this.extractors.length];
+		for (int i = 0; i < args.length; i++) {
+			Object arg = this.extractors[i].extract(message, providedArgs);
+			if (arg == UNRESOLVED) {
+				return this.handlerMethod.invoke(message, providedArgs);
+			}
+			args[i] = arg;
+		}
+		try {
+			return (Object) this.handle.invokeExact(args);
+		}
+		catch (Exception | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException("Invocation failure", t);
+		}
+	}
+
+	/**
+	 * Determine whether the payload would be rejected as empty by a required
+	 * payload argument.
+	 * @param payload the payload.
+	 * @return true if the payload is empty.
+	 */
+	static boolean isEmptyPayload(Object payload) {
+		if (payload == null) {
+			return true;
+		}
+		if (payload instanceof byte[]) {
+			return ((byte[]) payload).length == 0;
+		}
+		if (payload instanceof String) {
+			return !StringUtils.hasText((String) payload);
+		}
+		return false;
+	}
+
+	/**
+	 * Return the handler method this invoker falls back to.
+	 * @return the handler method.
+	 */
+	public InvocableHandlerMethod getHandlerMethod() {
+		return this.handlerMethod;
+	}
+
+
+	/*
+	 * Arguments provided by the caller take precedence, as with InvocableHandlerMethod.
+	 */
+	private abstract static class ArgumentExtractor {
+
+		protected final Class<?> type;
+
+		ArgumentExtractor(Class<?> type) {
+			this.type = type;
+		}
+
+		final Object extract(Message<?> message, Object[] providedArgs) {
+			if (providedArgs != null) {
+				for (Object providedArg : providedArgs) {
+					if (this.type.isInstance(providedArg)) {
+						return providedArg;
+					}
+				}
+			}
+			return resolve(message);
+		}
+
+		abstract Object resolve(Message<?> message);
+
+	}
+
+	private static final class PayloadExtractor extends ArgumentExtractor {
+
+		PayloadExtractor(Class<?> type) {
+			super(type);
+		}
+
+		@Override
+		Object resolve(Message<?> message) {
+			Object payload = message.getPayload();
+			if (!this.type.isInstance(payload) || isEmptyPayload(payload)) {
+				return UNRESOLVED;
+			}
+			return payload;
+		}
+
+	}
+
+	private static final class MessageExtractor extends ArgumentExtractor {
+
+		private final Class<?> payloadType;
+
+		MessageExtractor(Class<?> type, Class<?> payloadType) {
+			super(type);
+			this.payloadType = payloadType;
+		}
+
+		@Override
+		Object resolve(Message<?> message) {
+			return this.payloadType.isInstance(message.getPayload()) ? message : UNRESOLVED;
+		}
+
+	}
+
+	private static final class HeadersExtractor extends ArgumentExtractor {
+
+		HeadersExtractor(Class<?> type) {
+			super(type);
+		}
+
+		@Override
+		Object resolve(Message<?> message) {
+			return message.getHeaders();
+		}
+
+	}
+
+	private static final class HeaderExtractor extends ArgumentExtractor {
+
+		private final String name;
+
+		HeaderExtractor(Class<?> type, String name) {
+			super(type);
+			this.name = name;
+		}
+
+		@Override
+		Object resolve(Message<?> message) {
+			Object value = message.getHeaders().get(this.name);
+			return this.type.isInstance(value) ? value : UNRESOLVED;
+		}
+
+	}
+
+}
\ No newline at end of file
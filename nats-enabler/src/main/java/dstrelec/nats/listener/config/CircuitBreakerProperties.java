@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.config;
+
+/**
+ * Contains the circuit breaker settings of a listener container.
+ *
+ * @author Dario Strelec
+ *
+ * @see ContainerProperties#setCircuitBreaker(CircuitBreakerProperties)
+ * @see dstrelec.nats.listener.CircuitBreaker
+ */
+public class CircuitBreakerProperties {
+
+	/**
+	 * The number of consecutive failures opening the circuit; 0 to disable.
+	 */
+	private int consecutiveFailures = 10;
+
+	/**
+	 * The failure rate in percent opening the circuit; 0 to disable.
+	 */
+	private int failureRateThreshold = 50;
+
+	/**
+	 * The number of invocations over which the failure rate is computed.
+	 */
+	private int windowSize = 100;
+
+	/**
+	 * The minimum number of invocations in the window before the failure rate applies.
+	 */
+	private int minimumCalls = 20;
+
+	/**
+	 * How long the circuit stays open before probing, in milliseconds.
+	 */
+	private long openDuration = 30000;
+
+	/**
+	 * The number of successful probe messages closing a half-open circuit.
+	 */
+	private int probes = 3;
+
+	/**
+	 * How long the circuit stays half-open without closing before it opens again,
+	 * in milliseconds.
+	 */
+	private long halfOpenTimeout = 30000;
+
+	/**
+	 * Set the number of consecutive failures opening the circuit; 0 to disable.
+	 * @param consecutiveFailures the number of failures.
+	 */
+	public void setConsecutiveFailures(int consecutiveFailures) {
+		this.consecutiveFailures = consecutiveFailures;
+	}
+
+	/**
+	 * Set the failure rate in percent (of at least {@link #setMinimumCalls(int)
+	 * minimumCalls} invocations in the current window) opening the circuit;
+	 * 0 to disable.
+	 * @param failureRateThreshold the failure rate.
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Set the number of invocations after which the failure rate window restarts.
+	 * @param windowSize the window size.
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Set the minimum number of invocations in the window before the failure rate
+	 * is evaluated.
+	 * @param minimumCalls the minimum calls.
+	 */
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	/**
+	 * Set how long the circuit stays open, with the subscriptions removed, before
+	 * probe messages are let through, in milliseconds.
+	 * @param openDuration the open duration.
+	 */
+	public void setOpenDuration(long openDuration) {
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Set the number of probe messages let through per subject when half-open; the
+	 * circuit closes once that many probes succeeded and opens again on a failure.
+	 * @param probes the number of probes.
+	 */
+	public void setProbes(int probes) {
+		this.probes = probes;
+	}
+
+	/**
+	 * Set how long the circuit may stay half-open, in milliseconds; if the probes
+	 * have not closed it by then, for example because they were filtered out, it
+	 * opens again.
+	 * @param halfOpenTimeout the half-open timeout.
+	 */
+	public void setHalfOpenTimeout(long halfOpenTimeout) {
+		this.halfOpenTimeout = halfOpenTimeout;
+	}
+
+	public int getConsecutiveFailures() {
+		return this.consecutiveFailures;
+	}
+
+	public int getFailureRateThreshold() {
+		return this.failureRateThreshold;
+	}
+
+	public int getWindowSize() {
+		return this.windowSize;
+	}
+
+	public int getMinimumCalls() {
+		return this.minimumCalls;
+	}
+
+	public long getOpenDuration() {
+		return this.openDuration;
+	}
+
+	public int getProbes() {
+		return this.probes;
+	}
+
+	public long getHalfOpenTimeout() {
+		return this.halfOpenTimeout;
+	}
+
+}
@@ -17,10 +17,17 @@
 package dstrelec.nats.listener.config;
 
 import java.util.Arrays;
+import java.util.Map;
 
+import dstrelec.nats.listener.DispatchKeyStrategy;
 import dstrelec.nats.listener.MessageListener;
+import dstrelec.nats.listener.PoisonMessageQuarantine;
+import dstrelec.nats.listener.RoutingCondition;
+import dstrelec.nats.listener.SubscriptionMultiplexer;
 
 import dstrelec.nats.listener.ErrorHandler;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.util.Assert;
 
 /**
  * Contains runtime properties for a listener container.
@@ -33,11 +40,22 @@ public class ContainerProperties {
 
 	private static final int DEFAULT_SHUTDOWN_TIMEOUT = 10000;
 
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	private static final long DEFAULT_IDLE_QUEUE_TIMEOUT = 60000;
+
+	private static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
 	/**
 	 * Subject names.
 	 */
 	private final String[] subjects;
 
+	/**
+	 * The queue group the subscriptions join.
+	 */
+	private String queueGroup;
+
 	/**
 	 * The message listener.
 	 */
@@ -55,6 +73,72 @@ public class ContainerProperties {
 	 */
 	private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
 
+	/**
+	 * The maximum number of asynchronous listener invocations awaiting completion.
+	 */
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+	/**
+	 * Whether messages are handed to a fair, deficit round robin dispatcher instead
+	 * of being processed on the subscription threads in arrival order.
+	 */
+	private boolean fairDispatch;
+
+	/**
+	 * The number of dispatcher threads invoking the listener.
+	 */
+	private int concurrency = 1;
+
+	/**
+	 * The strategy assigning messages to dispatcher queues; by subject when null.
+	 */
+	private DispatchKeyStrategy dispatchKeyStrategy;
+
+	/**
+	 * The weights of the dispatcher queues by key.
+	 */
+	private Map<String, Integer> queueWeights;
+
+	/**
+	 * The maximum number of messages waiting in a single dispatcher queue.
+	 */
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * How long an empty dispatcher queue is kept, in milliseconds.
+	 */
+	private long idleQueueTimeout = DEFAULT_IDLE_QUEUE_TIMEOUT;
+
+	/**
+	 * The executor running the dispatcher threads.
+	 */
+	private TaskExecutor dispatchTaskExecutor;
+
+	/**
+	 * The retry settings; null to pass failed messages to the error handler immediately.
+	 */
+	private RetryProperties retry;
+
+	/**
+	 * The quarantine for messages that repeatedly fail.
+	 */
+	private PoisonMessageQuarantine quarantine;
+
+	/**
+	 * The circuit breaker settings; null to disable.
+	 */
+	private CircuitBreakerProperties circuitBreaker;
+
+	/**
+	 * The multiplexer sharing wildcard subscriptions between containers.
+	 */
+	private SubscriptionMultiplexer subscriptionMultiplexer;
+
+	/**
+	 * The condition selecting the messages delivered to the listener.
+	 */
+	private RoutingCondition routingCondition;
+
 
 	public ContainerProperties(String... subjects) {
 		this.subjects = Arrays.asList(subjects).toArray(new String[subjects.length]);
@@ -64,6 +148,15 @@ public class ContainerProperties {
 		this.subjects = null;
 	}
 
+	/**
+	 * Set the Nats queue group the subscriptions join; each message is then delivered
+	 * to one member of the group only.
+	 * @param queueGroup the queue group.
+	 */
+	public void setQueueGroup(String queueGroup) {
+		this.queueGroup = queueGroup;
+	}
+
 	/**
 	 * Set the message listener.
 	 * @param messageListener the listener.
@@ -90,10 +183,139 @@ public class ContainerProperties {
 		this.shutdownTimeout = shutdownTimeout;
 	}
 
+	/**
+	 * Set the maximum number of asynchronous listener invocations (methods returning a
+	 * {@link java.util.concurrent.CompletionStage}) awaiting completion. Once reached,
+	 * the delivering thread waits for an invocation to complete.
+	 * @param maxInFlight the maximum in-flight invocations.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		Assert.isTrue(maxInFlight > 0, "'maxInFlight' must be greater than 0");
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Set to true to process messages through a
+	 * {@link dstrelec.nats.listener.DeficitRoundRobinDispatcher} which serves every
+	 * subject (or {@link #setDispatchKeyStrategy(DispatchKeyStrategy) key}) fairly.
+	 * @param fairDispatch true for fair dispatching.
+	 */
+	public void setFairDispatch(boolean fairDispatch) {
+		this.fairDispatch = fairDispatch;
+	}
+
+	/**
+	 * Set the number of dispatcher threads invoking the listener when
+	 * {@link #setFairDispatch(boolean) fair dispatching} is enabled.
+	 * @param concurrency the number of threads.
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Set the strategy assigning messages to dispatcher queues; defaults to
+	 * one queue per subject.
+	 * @param dispatchKeyStrategy the strategy.
+	 */
+	public void setDispatchKeyStrategy(DispatchKeyStrategy dispatchKeyStrategy) {
+		this.dispatchKeyStrategy = dispatchKeyStrategy;
+	}
+
+	/**
+	 * Set the relative weights of the dispatcher queues by key; queues without
+	 * a weight have weight 1.
+	 * @param queueWeights the weights.
+	 */
+	public void setQueueWeights(Map<String, Integer> queueWeights) {
+		this.queueWeights = queueWeights;
+	}
+
+	/**
+	 * Set the maximum number of messages waiting in a single dispatcher queue
+	 * before the delivering subscription is blocked.
+	 * @param queueCapacity the capacity.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Set how long an empty dispatcher queue is kept before it is removed, in
+	 * milliseconds.
+	 * @param idleQueueTimeout the timeout.
+	 */
+	public void setIdleQueueTimeout(long idleQueueTimeout) {
+		this.idleQueueTimeout = idleQueueTimeout;
+	}
+
+	/**
+	 * Set the executor for the dispatcher threads; a
+	 * {@link org.springframework.core.task.SimpleAsyncTaskExecutor} is used by default.
+	 * @param dispatchTaskExecutor the executor.
+	 */
+	public void setDispatchTaskExecutor(TaskExecutor dispatchTaskExecutor) {
+		this.dispatchTaskExecutor = dispatchTaskExecutor;
+	}
+
+	/**
+	 * Set the retry settings; when set, messages the listener fails on are redelivered
+	 * with backoff before being passed to the error handler.
+	 * @param retry the retry settings.
+	 */
+	public void setRetry(RetryProperties retry) {
+		this.retry = retry;
+	}
+
+	/**
+	 * Set the quarantine recording messages that the listener (after any retries)
+	 * failed on; quarantined messages are passed to the error handler with a
+	 * {@link dstrelec.nats.listener.QuarantinedMessageException} without invoking the
+	 * listener. The quarantine may be shared by several containers.
+	 * @param quarantine the quarantine.
+	 */
+	public void setQuarantine(PoisonMessageQuarantine quarantine) {
+		this.quarantine = quarantine;
+	}
+
+	/**
+	 * Set the circuit breaker settings; when set, the container removes its
+	 * subscriptions (leaving its queue group) while the listener keeps failing.
+	 * @param circuitBreaker the circuit breaker settings.
+	 * @see dstrelec.nats.listener.CircuitBreaker
+	 */
+	public void setCircuitBreaker(CircuitBreakerProperties circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Set the multiplexer through which the container registers its subjects instead
+	 * of subscribing to each of them; it must use the container's connection factory.
+	 * @param subscriptionMultiplexer the multiplexer.
+	 * @see dstrelec.nats.config.NatsListenerEndpointRegistry#setMultiplexSubjects(boolean)
+	 */
+	public void setSubscriptionMultiplexer(SubscriptionMultiplexer subscriptionMultiplexer) {
+		this.subscriptionMultiplexer = subscriptionMultiplexer;
+	}
+
+	/**
+	 * Set an equality condition on a routing key selecting the messages delivered to
+	 * the listener; indexed by the {@link #setSubscriptionMultiplexer(SubscriptionMultiplexer)
+	 * multiplexer} if any, otherwise applied as a filter.
+	 * @param routingCondition the condition.
+	 */
+	public void setRoutingCondition(RoutingCondition routingCondition) {
+		this.routingCondition = routingCondition;
+	}
+
 	public String[] getSubjects() {
 		return this.subjects;
 	}
 
+	public String getQueueGroup() {
+		return this.queueGroup;
+	}
+
 	public long getShutdownTimeout() {
 		return this.shutdownTimeout;
 	}
@@ -106,4 +328,56 @@ public class ContainerProperties {
 		return this.errorHandler;
 	}
 
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public boolean isFairDispatch() {
+		return this.fairDispatch;
+	}
+
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	public DispatchKeyStrategy getDispatchKeyStrategy() {
+		return this.dispatchKeyStrategy;
+	}
+
+	public Map<String, Integer> getQueueWeights() {
+		return this.queueWeights;
+	}
+
+	public int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+
+	public long getIdleQueueTimeout() {
+		return this.idleQueueTimeout;
+	}
+
+	public TaskExecutor getDispatchTaskExecutor() {
+		return this.dispatchTaskExecutor;
+	}
+
+	public RetryProperties getRetry() {
+		return this.retry;
+	}
+
+	public PoisonMessageQuarantine getQuarantine() {
+		return this.quarantine;
+	}
+
+	public CircuitBreakerProperties getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
+	public SubscriptionMultiplexer getSubscriptionMultiplexer() {
+		return this.subscriptionMultiplexer;
+	}
+
+	public RoutingCondition getRoutingCondition() {
+		return this.routingCondition;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.config;
+
+import org.springframework.util.Assert;
+
+/**
+ * Contains the retry settings of a listener container. Failed messages are
+ * redelivered to the listener after an exponentially growing, jittered delay
+ * without blocking the delivering thread.
+ *
+ * @author Dario Strelec
+ *
+ * @see ContainerProperties#setRetry(RetryProperties)
+ */
+public class RetryProperties {
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private static final long DEFAULT_INITIAL_INTERVAL = 1000;
+
+	private static final double DEFAULT_MULTIPLIER = 2.0;
+
+	private static final long DEFAULT_MAX_INTERVAL = 30000;
+
+	private static final double DEFAULT_JITTER = 0.1;
+
+	private static final long DEFAULT_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * The maximum number of deliveries, including the first one.
+	 */
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/**
+	 * The delay before the first retry in milliseconds.
+	 */
+	private long initialInterval = DEFAULT_INITIAL_INTERVAL;
+
+	/**
+	 * The factor applied to the delay after every retry.
+	 */
+	private double multiplier = DEFAULT_MULTIPLIER;
+
+	/**
+	 * The maximum delay between retries in milliseconds.
+	 */
+	private long maxInterval = DEFAULT_MAX_INTERVAL;
+
+	/**
+	 * The fraction by which a delay is randomly lengthened or shortened.
+	 */
+	private double jitter = DEFAULT_JITTER;
+
+	/**
+	 * The maximum total payload size of the messages waiting to be retried.
+	 */
+	private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+	/**
+	 * The number of threads redelivering messages without fair dispatch.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Set the maximum number of deliveries, including the first one; a message
+	 * still failing after that is passed to the error handler.
+	 * @param maxAttempts the maximum attempts.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		Assert.isTrue(maxAttempts >= 1, "'maxAttempts' must be at least 1");
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Set the delay before the first retry in milliseconds.
+	 * @param initialInterval the initial interval.
+	 */
+	public void setInitialInterval(long initialInterval) {
+		Assert.isTrue(initialInterval > 0, "'initialInterval' must be greater than 0");
+		this.initialInterval = initialInterval;
+	}
+
+	/**
+	 * Set the factor applied to the delay after every retry.
+	 * @param multiplier the multiplier.
+	 */
+	public void setMultiplier(double multiplier) {
+		Assert.isTrue(multiplier >= 1, "'multiplier' must be at least 1");
+		this.multiplier = multiplier;
+	}
+
+	/**
+	 * Set the maximum delay between retries in milliseconds.
+	 * @param maxInterval the maximum interval.
+	 */
+	public void setMaxInterval(long maxInterval) {
+		Assert.isTrue(maxInterval > 0, "'maxInterval' must be greater than 0");
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * Set the fraction (0 to 1) by which every delay is randomly lengthened or
+	 * shortened, so messages failing together are not retried together.
+	 * @param jitter the jitter.
+	 */
+	public void setJitter(double jitter) {
+		Assert.isTrue(jitter >= 0 && jitter <= 1, "'jitter' must be between 0 and 1");
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Set the maximum total payload size of the messages waiting to be retried;
+	 * once exceeded, failed messages are passed to the error handler immediately.
+	 * @param maxPendingBytes the maximum size in bytes.
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes) {
+		Assert.isTrue(maxPendingBytes > 0, "'maxPendingBytes' must be greater than 0");
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Set the number of threads redelivering messages; with fair dispatch, the
+	 * dispatcher's workers redeliver them instead.
+	 * @param threads the number of threads.
+	 */
+	public void setThreads(int threads) {
+		Assert.isTrue(threads > 0, "'threads' must be greater than 0");
+		this.threads = threads;
+	}
+
+	public int getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	public long getInitialInterval() {
+		return this.initialInterval;
+	}
+
+	public double getMultiplier() {
+		return this.multiplier;
+	}
+
+	public long getMaxInterval() {
+		return this.maxInterval;
+	}
+
+	public double getJitter() {
+		return this.jitter;
+	}
+
+	public long getMaxPendingBytes() {
+		return this.maxPendingBytes;
+	}
+
+	public int getThreads() {
+		return this.threads;
+	}
+
+}
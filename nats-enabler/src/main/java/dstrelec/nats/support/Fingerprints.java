@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+/**
+ * Computes 64-bit fingerprints of messages, used to recognize copies of the same
+ * message without keeping the message.
+ * <p>
+ * The hash is FNV-1a over the subject characters and the payload bytes, finished
+ * with the MurmurHash3 avalanche step. It is not cryptographic; {@code 0} is never
+ * returned so it can mark an empty slot.
+ *
+ * @author Dario Strelec
+ */
+public abstract class Fingerprints {
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Return the fingerprint of a subject and payload.
+	 * @param subject the subject, may be null.
+	 * @param data the payload, may be null.
+	 * @return the fingerprint, never {@code 0}.
+	 */
+	public static long of(String subject, byte[] data) {
+		return of(subject, data, 0, data == null ? 0 : data.length);
+	}
+
+	/**
+	 * Return the fingerprint of a subject and a range of a payload.
+	 * @param subject the subject, may be null.
+	 * @param data the payload, may be null.
+	 * @param offset the start of the range.
+	 * @param length the length of the range.
+	 * @return the fingerprint, never {@code 0}.
+	 */
+	public static long of(String subject, byte[] data, int offset, int length) {
+		long hash = FNV_OFFSET_BASIS;
+		if (subject != null) {
+			for (int i = 0; i < subject.length(); i++) {
+				char c = subject.charAt(i);
+				hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+				hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+			}
+		}
+		// separates subject "ab" + payload "c" from subject "a" + payload "bc"
+		hash = (hash ^ 0xff) * FNV_PRIME;
+		if (data != null) {
+			for (int i = offset, end = offset + length; i < end; i++) {
+				hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+			}
+		}
+		hash = mix(hash);
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Apply the MurmurHash3 64-bit finalizer.
+	 * @param hash the hash.
+	 * @return the mixed hash.
+	 */
+	public static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+import java.lang.reflect.Type;
+import java.util.function.BiFunction;
+
+import io.nats.client.Message;
+import io.nats.client.Subscription;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * A view of a Nats message delivered to several local listeners, which remembers the
+ * conversions made by them so that the data is decoded only once per converter and
+ * target type.
+ * <p>
+ * Every listener converting with the same converter and type receives the same
+ * converted message, so payloads of shared messages must be treated as immutable.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.listener.SubscriptionMultiplexer#setShareConversions(boolean)
+ */
+public class SharedMessage extends Message {
+
+	private final Message delegate;
+
+	private Object[] conversions = new Object[0];
+
+	/**
+	 * Create a view of the supplied message.
+	 * @param delegate the message.
+	 */
+	public SharedMessage(Message delegate) {
+		super(delegate.getSubject(), delegate.getReplyTo(), null);
+		Assert.notNull(delegate, "'delegate' cannot be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Return the conversion of this message by the converter to the type, converting
+	 * it on first use.
+	 * @param converter the converter; conversions are cached by identity.
+	 * @param type the target type.
+	 * @param conversion the function converting the message on a cache miss.
+	 * @param <C> the converter type.
+	 * @param <R> the result type.
+	 * @return the converted message.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <C, R> R getConversion(C converter, Type type, BiFunction<C, Type, R> conversion) {
+		Object[] conversions = this.conversions;
+		for (int i = 0; i < conversions.length; i += 3) {
+			if (conversions[i] == converter && ObjectUtils.nullSafeEquals(conversions[i + 1], type)) {
+				return (R) conversions[i + 2];
+			}
+		}
+		R result = conversion.apply(converter, type);
+		Object[] grown = new Object[conversions.length + 3];
+		System.arraycopy(conversions, 0, grown, 0, conversions.length);
+		grown[conversions.length] = converter;
+		grown[conversions.length + 1] = type;
+		grown[conversions.length + 2] = result;
+		this.conversions = grown;
+		return result;
+	}
+
+	/**
+	 * Return the message this view was created for.
+	 * @return the message.
+	 */
+	public Message getDelegate() {
+		return this.delegate;
+	}
+
+	@Override
+	public byte[] getData() {
+		return this.delegate.getData();
+	}
+
+	@Override
+	public String getSubject() {
+		return this.delegate.getSubject();
+	}
+
+	@Override
+	public String getReplyTo() {
+		return this.delegate.getReplyTo();
+	}
+
+	@Override
+	public Subscription getSubscription() {
+		return this.delegate.getSubscription();
+	}
+
+	@Override
+	public String toString() {
+		return this.delegate.toString();
+	}
+
+}
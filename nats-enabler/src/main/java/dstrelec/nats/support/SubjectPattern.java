@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * A subject with named variable tokens such as {@code orders.{region}.created}.
+ * <p>
+ * The pattern is compiled once into the subject to subscribe to, with every variable
+ * replaced by the {@code *} wildcard, and the token index of each variable, so that the
+ * value of a variable is found by counting separators in the received subject.
+ *
+ * @author Dario Strelec
+ *
+ * @see dstrelec.nats.annotation.SubjectVariable
+ */
+public final class SubjectPattern {
+
+	private final String pattern;
+
+	private final String subject;
+
+	private final String[] tokens;
+
+	private final Map<String, Integer> variables;
+
+	private SubjectPattern(String pattern, String subject, String[] tokens, Map<String, Integer> variables) {
+		this.pattern = pattern;
+		this.subject = subject;
+		this.tokens = tokens;
+		this.variables = variables;
+	}
+
+	/**
+	 * Compile the supplied pattern.
+	 * @param pattern the pattern.
+	 * @return the compiled pattern.
+	 */
+	public static SubjectPattern compile(String pattern) {
+		Assert.hasText(pattern, "'pattern' must not be empty");
+		String[] tokens = StringUtils.delimitedListToStringArray(pattern, ".");
+		Map<String, Integer> variables = new LinkedHashMap<>();
+		for (int i = 0; i < tokens.length; i++) {
+			String token = tokens[i];
+			if (token.length() > 2 && token.charAt(0) == '{' && token.charAt(token.length() - 1) == '}') {
+				String name = token.substring(1, token.length() - 1);
+				Assert.isTrue(variables.put(name, i) == null,
+						"Duplicate variable '" + name + "' in subject pattern '" + pattern + "'");
+				tokens[i] = "*";
+			}
+		}
+		String subject = variables.isEmpty() ? pattern : StringUtils.arrayToDelimitedString(tokens, ".");
+		return new SubjectPattern(pattern, subject, tokens,
+				variables.isEmpty() ? Collections.<String, Integer>emptyMap() : variables);
+	}
+
+	/**
+	 * Return the pattern as supplied.
+	 * @return the pattern.
+	 */
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	/**
+	 * Return the subject to subscribe to, with variables replaced by {@code *}.
+	 * @return the subject.
+	 */
+	public String getSubject() {
+		return this.subject;
+	}
+
+	public boolean hasVariables() {
+		return !this.variables.isEmpty();
+	}
+
+	/**
+	 * Return the token index of the variable.
+	 * @param variable the variable name.
+	 * @return the index, or -1 if the pattern does not define the variable.
+	 */
+	public int indexOf(String variable) {
+		Integer index = this.variables.get(variable);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Determine whether the subject of a received message matches the pattern.
+	 * @param subject the subject.
+	 * @return true if it matches.
+	 */
+	public boolean matches(String subject) {
+		int start = 0;
+		for (int i = 0; i < this.tokens.length; i++) {
+			if (start > subject.length()) {
+				return false;
+			}
+			String token = this.tokens[i];
+			if (">".equals(token)) {
+				return start < subject.length();
+			}
+			int end = subject.indexOf('.', start);
+			if (end < 0) {
+				end = subject.length();
+			}
+			if (!"*".equals(token)
+					&& (token.length() != end - start || !subject.regionMatches(start, token, 0, token.length()))) {
+				return false;
+			}
+			start = end + 1;
+		}
+		return start > subject.length();
+	}
+
+	/**
+	 * Return the token at the index of the subject.
+	 * @param subject the subject.
+	 * @param index the token index.
+	 * @return the token, or null if the subject has fewer tokens.
+	 */
+	public static String token(String subject, int index) {
+		int start = 0;
+		for (int i = 0; i < index; i++) {
+			start = subject.indexOf('.', start) + 1;
+			if (start == 0) {
+				return null;
+			}
+		}
+		int end = subject.indexOf('.', start);
+		return subject.substring(start, end < 0 ? subject.length() : end);
+	}
+
+	@Override
+	public String toString() {
+		return this.pattern;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import org.springframework.util.Assert;
+
+/**
+ * A trie of Nats subject patterns, matching a subject against all patterns in
+ * O(tokens).
+ * <p>
+ * Patterns consist of tokens separated by {@code .}; a {@code *} token matches any
+ * single token and a trailing {@code >} matches one or more tokens. Matching walks the
+ * subject in place, comparing token ranges against the children of each node, and
+ * allocates nothing.
+ * <p>
+ * The trie is copy-on-write: {@link #add(String, Object) additions} and
+ * {@link #remove(String, Object) removals} copy the nodes along the pattern's path and
+ * publish a new root, so lookups never lock and always see a consistent trie.
+ *
+ * @param <T> the value type.
+ *
+ * @author Dario Strelec
+ */
+public class SubjectTrie<T> {
+
+	private static final Object[] NO_VALUES = new Object[0];
+
+	private volatile Node root = new Node();
+
+	/**
+	 * Add a value for a subject pattern.
+	 * @param pattern the pattern.
+	 * @param value the value.
+	 */
+	public synchronized void add(String pattern, T value) {
+		Assert.hasText(pattern, "'pattern' must not be empty");
+		Assert.notNull(value, "'value' cannot be null");
+		this.root = update(this.root, pattern, 0, value, true);
+	}
+
+	/**
+	 * Remove a value previously added for a subject pattern.
+	 * @param pattern the pattern.
+	 * @param value the value.
+	 */
+	public synchronized void remove(String pattern, T value) {
+		Assert.hasText(pattern, "'pattern' must not be empty");
+		this.root = update(this.root, pattern, 0, value, false);
+	}
+
+	/**
+	 * Return true if no pattern has a value.
+	 * @return true if empty.
+	 */
+	public boolean isEmpty() {
+		return this.root.isEmpty();
+	}
+
+	/**
+	 * Invoke the consumer with every value whose pattern matches the subject, passing
+	 * the context along so that a non-capturing consumer can be used.
+	 * @param subject the subject.
+	 * @param context the context passed to the consumer.
+	 * @param consumer the consumer.
+	 * @param <C> the context type.
+	 * @return the number of matching values.
+	 */
+	public <C> int match(String subject, C context, BiConsumer<T, C> consumer) {
+		return match(this.root, subject, 0, context, consumer);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <C> int match(Node node, String subject, int start, C context, BiConsumer<T, C> consumer) {
+		int length = subject.length();
+		int end = subject.indexOf('.', start);
+		if (end < 0) {
+			end = length;
+		}
+		int matches = 0;
+		for (Object value : node.fullWildcardValues) {
+			consumer.accept((T) value, context);
+			matches++;
+		}
+		Node exact = node.child(subject, start, end);
+		if (exact != null) {
+			matches += end == length ? accept(exact, context, consumer)
+					: match(exact, subject, end + 1, context, consumer);
+		}
+		if (node.wildcard != null) {
+			matches += end == length ? accept(node.wildcard, context, consumer)
+					: match(node.wildcard, subject, end + 1, context, consumer);
+		}
+		return matches;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, C> int accept(Node node, C context, BiConsumer<T, C> consumer) {
+		for (Object value : node.values) {
+			consumer.accept((T) value, context);
+		}
+		return node.values.length;
+	}
+
+	private static Node update(Node node, String pattern, int start, Object value, boolean add) {
+		int end = pattern.indexOf('.', start);
+		if (end < 0) {
+			end = pattern.length();
+		}
+		Assert.isTrue(end > start, "Empty token in subject pattern '" + pattern + "'");
+		boolean last = end == pattern.length();
+		Node copy = node.copy();
+		if (end - start == 1 && pattern.charAt(start) == '>') {
+			Assert.isTrue(last, "'>' must be the last token of '" + pattern + "'");
+			copy.fullWildcardValues = add ? append(copy.fullWildcardValues, value)
+					: without(copy.fullWildcardValues, value);
+			return copy;
+		}
+		boolean wildcard = end - start == 1 && pattern.charAt(start) == '*';
+		Node child = wildcard ? copy.wildcard : copy.child(pattern, start, end);
+		if (child == null) {
+			if (!add) {
+				return node;
+			}
+			child = new Node();
+		}
+		if (last) {
+			child = child.copy();
+			child.values = add ? append(child.values, value) : without(child.values, value);
+		}
+		else {
+			child = update(child, pattern, end + 1, value, add);
+		}
+		if (child.isEmpty()) {
+			child = null;
+		}
+		if (wildcard) {
+			copy.wildcard = child;
+		}
+		else {
+			copy.putChild(pattern.substring(start, end), child);
+		}
+		return copy;
+	}
+
+	private static Object[] append(Object[] values, Object value) {
+		Object[] result = Arrays.copyOf(values, values.length + 1);
+		result[values.length] = value;
+		return result;
+	}
+
+	private static Object[] without(Object[] values, Object value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				Object[] result = new Object[values.length - 1];
+				System.arraycopy(values, 0, result, 0, i);
+				System.arraycopy(values, i + 1, result, i, values.length - i - 1);
+				return result;
+			}
+		}
+		return values;
+	}
+
+	private static int hash(String s, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + s.charAt(i);
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+
+	/*
+	 * A node with its literal children in an open-addressing table keyed by token, so a
+	 * token can be looked up by its range in the subject. Nodes are never modified once
+	 * published.
+	 */
+	private static final class Node {
+
+		private String[] tokens = new String[0];
+
+		private Node[] children = new Node[0];
+
+		private int childCount;
+
+		private Node wildcard;
+
+		private Object[] values = NO_VALUES;
+
+		private Object[] fullWildcardValues = NO_VALUES;
+
+		private Node child(String subject, int start, int end) {
+			String[] tokens = this.tokens;
+			if (tokens.length == 0) {
+				return null;
+			}
+			int mask = tokens.length - 1;
+			int length = end - start;
+			for (int i = hash(subject, start, end) & mask; tokens[i] != null; i = (i + 1) & mask) {
+				String token = tokens[i];
+				if (token.length() == length && subject.regionMatches(start, token, 0, length)) {
+					return this.children[i];
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * Only called on a private copy; a null child removes the token.
+		 */
+		private void putChild(String token, Node child) {
+			int size = this.childCount + (child == null ? 0 : 1);
+			String[] oldTokens = this.tokens;
+			Node[] oldChildren = this.children;
+			int capacity = 2;
+			while (capacity < size * 2) {
+				capacity <<= 1;
+			}
+			this.tokens = new String[capacity];
+			this.children = new Node[capacity];
+			this.childCount = 0;
+			for (int i = 0; i < oldTokens.length; i++) {
+				if (oldTokens[i] != null && !oldTokens[i].equals(token)) {
+					insert(oldTokens[i], oldChildren[i]);
+				}
+			}
+			if (child != null) {
+				insert(token, child);
+			}
+		}
+
+		private void insert(String token, Node child) {
+			int mask = this.tokens.length - 1;
+			int i = hash(token, 0, token.length()) & mask;
+			while (this.tokens[i] != null) {
+				i = (i + 1) & mask;
+			}
+			this.tokens[i] = token;
+			this.children[i] = child;
+			this.childCount++;
+		}
+
+		private boolean isEmpty() {
+			return this.childCount == 0 && this.wildcard == null && this.values.length == 0
+					&& this.fullWildcardValues.length == 0;
+		}
+
+		private Node copy() {
+			Node copy = new Node();
+			copy.tokens = this.tokens;
+			copy.children = this.children;
+			copy.childCount = this.childCount;
+			copy.wildcard = this.wildcard;
+			copy.values = this.values;
+			copy.fullWildcardValues = this.fullWildcardValues;
+			return copy;
+		}
+
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Base class for message converters encoding payloads with a Jackson {@link ObjectMapper},
+ * in whatever format its factory produces.
+ * <p>
+ * An {@link ObjectReader} is created once per target type and an {@link ObjectWriter}
+ * once per payload class; listener adapters {@link #prepare(Type) prepare} the reader
+ * for their type when the endpoint is created.
+ *
+ * @author Dario Strelec
+ *
+ */
+public abstract class AbstractJacksonMessageConverter extends MessagingMessageConverter {
+
+	private final ObjectMapper objectMapper;
+
+	private final String formatName;
+
+	private final ConcurrentMap<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+	/**
+	 * Create an instance for the supplied mapper.
+	 * @param objectMapper the mapper.
+	 * @param formatName the name of the format, used in error messages.
+	 */
+	protected AbstractJacksonMessageConverter(ObjectMapper objectMapper, String formatName) {
+		Assert.notNull(objectMapper, "'objectMapper' must not be null.");
+		this.objectMapper = objectMapper;
+		this.formatName = formatName;
+	}
+
+	/**
+	 * Apply the defaults of the converters' own mappers: no default view inclusion
+	 * and no failure on unknown properties.
+	 * @param objectMapper the mapper.
+	 * @return the mapper.
+	 */
+	protected static ObjectMapper configureDefaults(ObjectMapper objectMapper) {
+		objectMapper.configure(MapperFeature.DEFAULT_VIEW_INCLUSION, false);
+		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		return objectMapper;
+	}
+
+	protected ObjectMapper getObjectMapper() {
+		return this.objectMapper;
+	}
+
+	@Override
+	public JsonFactory getJsonFactory() {
+		return this.objectMapper.getFactory();
+	}
+
+	/**
+	 * Register modules with the object mapper, for example a bytecode generating
+	 * module such as Jackson's {@code AfterburnerModule}. Readers and writers created
+	 * so far are discarded.
+	 * @param modules the modules.
+	 */
+	public void registerModules(Module... modules) {
+		this.objectMapper.registerModules(modules);
+		this.readers.clear();
+		this.writers.clear();
+	}
+
+	@Override
+	public void prepare(Type type) {
+		if (type != null) {
+			readerFor(type);
+		}
+	}
+
+	/**
+	 * Return the reader for the type, creating it on first use.
+	 * @param type the type.
+	 * @return the reader.
+	 */
+	protected ObjectReader readerFor(Type type) {
+		ObjectReader reader = this.readers.get(type);
+		if (reader == null) {
+			reader = this.objectMapper.readerFor(this.objectMapper.getTypeFactory().constructType(type));
+			ObjectReader existing = this.readers.putIfAbsent(type, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * Return the writer for the payload class, creating it on first use.
+	 * @param payloadClass the payload class.
+	 * @return the writer.
+	 */
+	protected ObjectWriter writerFor(Class<?> payloadClass) {
+		ObjectWriter writer = this.writers.get(payloadClass);
+		if (writer == null) {
+			writer = this.objectMapper.writerFor(payloadClass);
+			ObjectWriter existing = this.writers.putIfAbsent(payloadClass, writer);
+			if (existing != null) {
+				writer = existing;
+			}
+		}
+		return writer;
+	}
+
+	@Override
+	protected byte[] convertPayload(Message<?> message) {
+		Object payload = message.getPayload();
+		try {
+			return payload == null
+					? this.objectMapper.writeValueAsBytes(null)
+					: writerFor(payload.getClass()).writeValueAsBytes(payload);
+		} catch (JsonProcessingException e) {
+			throw new ConversionException("Failed to convert to " + this.formatName, e);
+		}
+	}
+
+	@Override
+	protected Object extractAndConvertValue(io.nats.client.Message message, Type type) {
+		byte[] value = message.getData();
+		if (value == null) {
+			return null;
+		}
+		return convertValue(value, 0, value.length, type);
+	}
+
+	@Override
+	protected Object convertValue(byte[] data, int offset, int length, Type type) {
+		try {
+			return readerFor(type).readValue(data, offset, length);
+		} catch (IOException e) {
+			throw new ConversionException("Failed to convert from " + this.formatName, e);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.lang.reflect.Type;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * Encodes and decodes payloads of one content type of the {@link Envelope}.
+ *
+ * @author Dario Strelec
+ *
+ * @see CodecRegistry
+ */
+public interface Codec {
+
+	/**
+	 * Encode the payload.
+	 * @param payload the payload.
+	 * @return the encoded payload.
+	 */
+	byte[] encode(Object payload);
+
+	/**
+	 * Decode a section of the data of a message.
+	 * @param data the data.
+	 * @param offset the offset of the payload.
+	 * @param length the length of the payload.
+	 * @param type the type required by the listener.
+	 * @return the payload.
+	 */
+	Object decode(byte[] data, int offset, int length, Type type);
+
+	/**
+	 * Return the Jackson factory reading payloads of this content type as a stream of
+	 * tokens, so that fields can be read without decoding the payload.
+	 * @return the factory, or null if the payloads are not in a Jackson format.
+	 * @see dstrelec.nats.listener.adapter.JsonFieldKeyExtractor
+	 */
+	default JsonFactory getJsonFactory() {
+		return null;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * The codecs of the content types announced by an {@link Envelope}, by id.
+ * <p>
+ * The ids are an agreement between the applications exchanging messages; the
+ * constants of this class are suggested for the formats supported by the converters
+ * of this package. {@link #OCTET_STREAM} is reserved for {@code byte[]} payloads,
+ * which are passed on unchanged.
+ *
+ * @author Dario Strelec
+ *
+ * @see MessagingMessageConverter#setCodecRegistry(CodecRegistry)
+ */
+public class CodecRegistry {
+
+	/**
+	 * Raw bytes.
+	 */
+	public static final int OCTET_STREAM = 0;
+
+	public static final int JAVA_SERIALIZATION = 1;
+
+	public static final int JSON = 2;
+
+	public static final int SMILE = 3;
+
+	public static final int CBOR = 4;
+
+	public static final int KRYO = 5;
+
+	private static final Codec OCTET_STREAM_CODEC = new Codec() {
+
+		@Override
+		public byte[] encode(Object payload) {
+			Assert.isInstanceOf(byte[].class, payload, "Payloads of content type 0 must be byte[]");
+			return (byte[]) payload;
+		}
+
+		@Override
+		public Object decode(byte[] data, int offset, int length, Type type) {
+			return Arrays.copyOfRange(data, offset, offset + length);
+		}
+
+	};
+
+	private final AtomicReferenceArray<Codec> codecs = new AtomicReferenceArray<>(256);
+
+	public CodecRegistry() {
+		this.codecs.set(OCTET_STREAM, OCTET_STREAM_CODEC);
+	}
+
+	/**
+	 * Register the codec for a content type.
+	 * @param contentTypeId the content type id, between 1 and 255.
+	 * @param codec the codec.
+	 * @return this registry.
+	 */
+	public CodecRegistry register(int contentTypeId, Codec codec) {
+		Envelope.checkContentTypeId(contentTypeId);
+		Assert.isTrue(contentTypeId != OCTET_STREAM, "Content type id 0 is reserved");
+		Assert.notNull(codec, "'codec' cannot be null");
+		this.codecs.set(contentTypeId, codec);
+		return this;
+	}
+
+	/**
+	 * Register a converter as the codec for a content type.
+	 * @param contentTypeId the content type id, between 1 and 255.
+	 * @param converter the converter.
+	 * @return this registry.
+	 * @see MessagingMessageConverter#asCodec()
+	 */
+	public CodecRegistry register(int contentTypeId, MessagingMessageConverter converter) {
+		return register(contentTypeId, converter.asCodec());
+	}
+
+	/**
+	 * Return the codec for a content type.
+	 * @param contentTypeId the content type id.
+	 * @return the codec, or null.
+	 */
+	public Codec getCodec(int contentTypeId) {
+		return contentTypeId < 0 || contentTypeId > 0xff ? null : this.codecs.get(contentTypeId);
+	}
+
+}
\ No newline at end of file
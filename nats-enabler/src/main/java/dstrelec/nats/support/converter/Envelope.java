@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+/**
+ * The binary envelope announcing the content type of a payload, which Nats
+ * messages cannot carry in headers.
+ * <p>
+ * An envelope starts with the {@link #MAGIC} byte, followed by the content type id,
+ * a flags byte and, if {@link #FLAG_HEADERS} is set, a header block preceded by its
+ * length as an unsigned 16-bit big-endian number. The payload takes the rest of the
+ * data. The magic byte never starts UTF-8 text, Smile, well-formed CBOR or Java
+ * serialization, so data without an envelope is recognized without parsing it.
+ *
+ * @author Dario Strelec
+ *
+ * @see CodecRegistry
+ */
+public final class Envelope {
+
+	/**
+	 * The first byte of every envelope.
+	 */
+	public static final byte MAGIC = (byte) 0xfe;
+
+	/**
+	 * Flag indicating that a header block follows the flags byte.
+	 */
+	public static final int FLAG_HEADERS = 0x01;
+
+	private static final int FIXED_LENGTH = 3;
+
+	private static final int MAX_HEADERS_LENGTH = 0xffff;
+
+	private Envelope() {
+		super();
+	}
+
+	/**
+	 * Wrap a payload into an envelope.
+	 * @param contentTypeId the content type id.
+	 * @param headers the header block, or null.
+	 * @param payload the payload.
+	 * @return the data.
+	 */
+	public static byte[] wrap(int contentTypeId, byte[] headers, byte[] payload) {
+		checkContentTypeId(contentTypeId);
+		int headersLength = headers == null ? 0 : headers.length;
+		if (headersLength > MAX_HEADERS_LENGTH) {
+			throw new ConversionException("Header block of " + headersLength + " bytes exceeds "
+					+ MAX_HEADERS_LENGTH + " bytes", null);
+		}
+		int payloadOffset = FIXED_LENGTH + (headers == null ? 0 : 2 + headersLength);
+		byte[] data = new byte[payloadOffset + payload.length];
+		data[0] = MAGIC;
+		data[1] = (byte) contentTypeId;
+		if (headers != null) {
+			data[2] = FLAG_HEADERS;
+			data[3] = (byte) (headersLength >>> 8);
+			data[4] = (byte) headersLength;
+			System.arraycopy(headers, 0, data, 5, headersLength);
+		}
+		System.arraycopy(payload, 0, data, payloadOffset, payload.length);
+		return data;
+	}
+
+	/**
+	 * Determine whether the data starts with a complete envelope.
+	 * @param data the data.
+	 * @return true for an envelope.
+	 */
+	public static boolean isEnvelope(byte[] data) {
+		if (data == null || data.length < FIXED_LENGTH || data[0] != MAGIC) {
+			return false;
+		}
+		return (data[2] & FLAG_HEADERS) == 0 || (data.length >= FIXED_LENGTH + 2
+				&& FIXED_LENGTH + 2 + headersLength(data) <= data.length);
+	}
+
+	/**
+	 * Return the content type id of an envelope.
+	 * @param data the data of an envelope.
+	 * @return the content type id.
+	 */
+	public static int getContentTypeId(byte[] data) {
+		return data[1] & 0xff;
+	}
+
+	/**
+	 * Return the offset of the header block of an envelope.
+	 * @param data the data of an envelope.
+	 * @return the offset, or -1 if there is no header block.
+	 */
+	public static int getHeadersOffset(byte[] data) {
+		return (data[2] & FLAG_HEADERS) == 0 ? -1 : FIXED_LENGTH + 2;
+	}
+
+	/**
+	 * Return the length of the header block of an envelope.
+	 * @param data the data of an envelope.
+	 * @return the length, 0 if there is no header block.
+	 */
+	public static int getHeadersLength(byte[] data) {
+		return (data[2] & FLAG_HEADERS) == 0 ? 0 : headersLength(data);
+	}
+
+	/**
+	 * Return the offset of the payload of an envelope.
+	 * @param data the data of an envelope.
+	 * @return the offset.
+	 */
+	public static int getPayloadOffset(byte[] data) {
+		return (data[2] & FLAG_HEADERS) == 0 ? FIXED_LENGTH : FIXED_LENGTH + 2 + headersLength(data);
+	}
+
+	private static int headersLength(byte[] data) {
+		return ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+	}
+
+	static void checkContentTypeId(int contentTypeId) {
+		if (contentTypeId < 0 || contentTypeId > 0xff) {
+			throw new IllegalArgumentException("Content type id must be between 0 and 255: " + contentTypeId);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import dstrelec.nats.support.Fingerprints;
+
+/**
+ * Encodes message headers into the header block of an {@link Envelope} and reads
+ * them in place.
+ * <p>
+ * Each entry is the length of the UTF-8 encoded name (one byte), the name, a value
+ * type (one byte), the length of the value as an unsigned 16-bit big-endian number
+ * and the value. {@link String}, {@code byte[]}, {@link Integer}, {@link Long} and
+ * {@link Boolean} values keep their type; other values are sent as their
+ * {@code toString()}. Lookups compare names against the block without decoding the
+ * other entries, and only the value found is decoded. Received blocks must be
+ * checked with {@link #validate} before they are read.
+ *
+ * @author Dario Strelec
+ *
+ * @see LazyNatsMessageHeaders
+ */
+public final class HeaderBlock {
+
+	private static final int STRING = 0;
+
+	private static final int BYTES = 1;
+
+	private static final int INTEGER = 2;
+
+	private static final int LONG = 3;
+
+	private static final int BOOLEAN = 4;
+
+	private HeaderBlock() {
+		super();
+	}
+
+	/**
+	 * Encode the headers.
+	 * @param headers the headers; null values are skipped.
+	 * @return the header block.
+	 */
+	public static byte[] encode(Map<String, ?> headers) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		for (Map.Entry<String, ?> header : headers.entrySet()) {
+			Object value = header.getValue();
+			if (value == null) {
+				continue;
+			}
+			byte[] name = header.getKey().getBytes(StandardCharsets.UTF_8);
+			if (name.length > 0xff) {
+				throw new ConversionException("Header name exceeds 255 bytes: " + header.getKey(), null);
+			}
+			int type;
+			byte[] bytes;
+			if (value instanceof byte[]) {
+				type = BYTES;
+				bytes = (byte[]) value;
+			}
+			else if (value instanceof Integer) {
+				type = INTEGER;
+				bytes = toBytes((Integer) value, 4);
+			}
+			else if (value instanceof Long) {
+				type = LONG;
+				bytes = toBytes((Long) value, 8);
+			}
+			else if (value instanceof Boolean) {
+				type = BOOLEAN;
+				bytes = new byte[] { (byte) ((Boolean) value ? 1 : 0) };
+			}
+			else {
+				type = STRING;
+				bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+			}
+			if (bytes.length > 0xffff) {
+				throw new ConversionException("Value of header '" + header.getKey() + "' exceeds 65535 bytes", null);
+			}
+			out.write(name.length);
+			out.write(name, 0, name.length);
+			out.write(type);
+			out.write(bytes.length >>> 8);
+			out.write(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Check that the entries of a block lie within its bounds and that values of a
+	 * fixed-size type have their size, so that reading the block cannot fail.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @throws ConversionException if the block is malformed.
+	 */
+	public static void validate(byte[] data, int offset, int length) {
+		int end = offset + length;
+		if (offset < 0 || length < 0 || end > data.length) {
+			throw new ConversionException("Header block of " + length + " bytes at " + offset
+					+ " exceeds the data of " + data.length + " bytes", null);
+		}
+		int position = offset;
+		while (position < end) {
+			int valuePosition = position + 1 + (data[position] & 0xff);
+			if (valuePosition + 3 > end) {
+				throw new ConversionException("Truncated header entry at " + position, null);
+			}
+			int valueLength = valueLength(data, valuePosition);
+			int next = valuePosition + 3 + valueLength;
+			if (next > end) {
+				throw new ConversionException("Value of header entry at " + position + " exceeds the header block",
+						null);
+			}
+			int type = data[valuePosition];
+			if ((type == INTEGER && valueLength != 4) || (type == LONG && valueLength != 8)
+					|| (type == BOOLEAN && valueLength != 1)) {
+				throw new ConversionException("Invalid length " + valueLength + " of header value type " + type
+						+ " at " + position, null);
+			}
+			position = next;
+		}
+	}
+
+	/**
+	 * Return the value of a header.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @param name the header name.
+	 * @return the value, or null if the block has no such header.
+	 */
+	public static Object get(byte[] data, int offset, int length, String name) {
+		int entry = indexOf(data, offset, length, name);
+		return entry < 0 ? null : decodeValue(data, entry + 1 + (data[entry] & 0xff));
+	}
+
+	/**
+	 * Return the {@link Fingerprints fingerprint} of the encoded value of a header,
+	 * computed in place; the fingerprint of a {@link String} value equals the one of
+	 * its UTF-8 bytes.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @param name the header name.
+	 * @return the fingerprint, or 0 if the block has no such header.
+	 */
+	public static long fingerprint(byte[] data, int offset, int length, String name) {
+		int entry = indexOf(data, offset, length, name);
+		if (entry < 0) {
+			return 0;
+		}
+		int valuePosition = entry + 1 + (data[entry] & 0xff);
+		return Fingerprints.of(null, data, valuePosition + 3, valueLength(data, valuePosition));
+	}
+
+	/**
+	 * Return the offset of the entry of a header.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @param name the header name.
+	 * @return the offset of the entry, or -1 if the block has no such header.
+	 */
+	public static int indexOf(byte[] data, int offset, int length, String name) {
+		int end = offset + length;
+		int position = offset;
+		while (position < end) {
+			int nameLength = data[position] & 0xff;
+			if (nameEquals(data, position + 1, nameLength, name)) {
+				return position;
+			}
+			position = nextEntry(data, position);
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the number of headers in the block.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @return the number of headers.
+	 */
+	public static int count(byte[] data, int offset, int length) {
+		int end = offset + length;
+		int count = 0;
+		for (int position = offset; position < end; position = nextEntry(data, position)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Decode all headers of the block into the map.
+	 * @param data the data containing the block.
+	 * @param offset the offset of the block.
+	 * @param length the length of the block.
+	 * @param headers the map.
+	 */
+	public static void decodeInto(byte[] data, int offset, int length, Map<String, Object> headers) {
+		int end = offset + length;
+		for (int position = offset; position < end; position = nextEntry(data, position)) {
+			int nameLength = data[position] & 0xff;
+			String name = new String(data, position + 1, nameLength, StandardCharsets.UTF_8);
+			headers.put(name, decodeValue(data, position + 1 + nameLength));
+		}
+	}
+
+	private static int nextEntry(byte[] data, int position) {
+		int valuePosition = position + 1 + (data[position] & 0xff);
+		return valuePosition + 3 + valueLength(data, valuePosition);
+	}
+
+	private static int valueLength(byte[] data, int valuePosition) {
+		return ((data[valuePosition + 1] & 0xff) << 8) | (data[valuePosition + 2] & 0xff);
+	}
+
+	private static Object decodeValue(byte[] data, int valuePosition) {
+		int valueLength = valueLength(data, valuePosition);
+		int start = valuePosition + 3;
+		switch (data[valuePosition]) {
+			case BYTES:
+				return Arrays.copyOfRange(data, start, start + valueLength);
+			case INTEGER:
+				return (int) fromBytes(data, start, 4);
+			case LONG:
+				return fromBytes(data, start, 8);
+			case BOOLEAN:
+				return data[start] != 0;
+			default:
+				return new String(data, start, valueLength, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static boolean nameEquals(byte[] data, int offset, int length, String name) {
+		int nameLength = name.length();
+		for (int i = 0; i < nameLength; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				return new String(data, offset, length, StandardCharsets.UTF_8).equals(name);
+			}
+			if (i >= length || data[offset + i] != (byte) c) {
+				return false;
+			}
+		}
+		return length == nameLength;
+	}
+
+	private static byte[] toBytes(long value, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = length - 1; i >= 0; i--) {
+			bytes[i] = (byte) value;
+			value >>>= 8;
+		}
+		return bytes;
+	}
+
+	private static long fromBytes(byte[] data, int offset, int length) {
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | (data[offset + i] & 0xff);
+		}
+		return value;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.fasterxml.jackson.core.JsonFactory;
+
+/**
+ * Binary message converter for JVM-to-JVM traffic, encoding payloads with Kryo;
+ * requires {@code com.esotericsoftware:kryo}.
+ * <p>
+ * Payloads are written with their class, so they are decoded to the class that was
+ * sent regardless of the listener's type. {@code byte[]} payloads are sent unchanged,
+ * and listeners expecting {@code byte[]} receive the data unchanged.
+ * <p>
+ * {@link Kryo} instances are not thread safe; they are taken from a {@link KryoPool}
+ * created on first use. Classes must be {@link #registerClass(Class) registered} in
+ * the same order on all sides before that. By default every class must be registered,
+ * since the class of an inbound payload is named by the sender.
+ *
+ * @author Dario Strelec
+ *
+ */
+public class KryoMessageConverter extends MessagingMessageConverter {
+
+	private final List<Class<?>> registrations = new ArrayList<>();
+
+	private boolean registrationRequired = true;
+
+	private int bufferSize = 256;
+
+	private int maxBufferSize = -1;
+
+	private volatile KryoPool pool;
+
+	/**
+	 * Register a class; registered classes are written as a small id instead of
+	 * their name.
+	 * @param type the class.
+	 */
+	public synchronized void registerClass(Class<?> type) {
+		Assert.notNull(type, "'type' cannot be null");
+		Assert.state(this.pool == null, "Classes must be registered before the converter is used");
+		this.registrations.add(type);
+	}
+
+	/**
+	 * Set to false to accept payloads of classes that are not registered; default true.
+	 * <p>
+	 * <b>Warning:</b> without required registration, the receiving side instantiates
+	 * any class named in the inbound data, bypassing constructors; only disable it when
+	 * every publisher is trusted.
+	 * @param registrationRequired false to accept unregistered classes.
+	 */
+	public void setRegistrationRequired(boolean registrationRequired) {
+		this.registrationRequired = registrationRequired;
+	}
+
+	/**
+	 * Set the initial size of the buffer payloads are written to.
+	 * @param bufferSize the size in bytes.
+	 */
+	public void setBufferSize(int bufferSize) {
+		Assert.isTrue(bufferSize > 0, "'bufferSize' must be greater than 0");
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set the maximum size of a written payload; -1 (default) for no limit.
+	 * @param maxBufferSize the size in bytes.
+	 */
+	public void setMaxBufferSize(int maxBufferSize) {
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	/**
+	 * Kryo payloads have no fields that can be read without decoding them.
+	 * @return null.
+	 */
+	@Override
+	public JsonFactory getJsonFactory() {
+		return null;
+	}
+
+	/**
+	 * Create a {@link Kryo} instance for the pool. Subclasses can override to
+	 * register serializers; the registrations of this converter are applied afterwards.
+	 * @return the instance.
+	 */
+	protected Kryo createKryo() {
+		Kryo kryo = new Kryo();
+		kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+		return kryo;
+	}
+
+	private KryoPool getPool() {
+		KryoPool pool = this.pool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = this.pool;
+				if (pool == null) {
+					final List<Class<?>> types = new ArrayList<>(this.registrations);
+					final boolean required = this.registrationRequired;
+					pool = new KryoPool.Builder(new KryoFactory() {
+
+						@Override
+						public Kryo create() {
+							Kryo kryo = createKryo();
+							kryo.setRegistrationRequired(required);
+							for (Class<?> type : types) {
+								kryo.register(type);
+							}
+							return kryo;
+						}
+
+					}).softReferences().build();
+					this.pool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	@Override
+	protected byte[] convertPayload(Message<?> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof byte[]) {
+			return (byte[]) payload;
+		}
+		KryoPool pool = getPool();
+		Kryo kryo = pool.borrow();
+		try {
+			Output output = new Output(this.bufferSize, this.maxBufferSize);
+			kryo.writeClassAndObject(output, payload);
+			return output.toBytes();
+		}
+		catch (KryoException | IllegalArgumentException e) {
+			throw new ConversionException("Failed to convert to Kryo", e);
+		}
+		finally {
+			pool.release(kryo);
+		}
+	}
+
+	@Override
+	protected Object extractAndConvertValue(io.nats.client.Message message, Type type) {
+		byte[] data = message.getData();
+		if (data == null || byte[].class.equals(type)) {
+			return data;
+		}
+		return convertValue(data, 0, data.length, type);
+	}
+
+	@Override
+	protected Object convertValue(byte[] data, int offset, int length, Type type) {
+		if (byte[].class.equals(type)) {
+			return super.convertValue(data, offset, length, type);
+		}
+		KryoPool pool = getPool();
+		Kryo kryo = pool.borrow();
+		try {
+			return kryo.readClassAndObject(new Input(data, offset, length));
+		}
+		catch (KryoException | IllegalArgumentException e) {
+			throw new ConversionException("Failed to convert from Kryo", e);
+		}
+		finally {
+			pool.release(kryo);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import dstrelec.nats.support.NatsHeaders;
+
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Message headers backed by the {@link io.nats.client.Message} they describe,
+ * without id and timestamp headers.
+ * <p>
+ * {@link #get(Object)} and {@link #containsKey(Object)} answer the
+ * {@link NatsHeaders#SUBJECT} and {@link NatsHeaders#REPLY_TO} headers straight
+ * from the Nats message; the underlying map is only populated when the headers
+ * are iterated, compared or copied, which most listeners never do.
+ * <p>
+ * Application headers received in the {@link HeaderBlock} of an {@link Envelope}
+ * are looked up in the original data; only the value of a requested header is
+ * decoded.
+ *
+ * @author Dario Strelec
+ *
+ */
+@SuppressWarnings("serial")
+public class LazyNatsMessageHeaders extends MessageHeaders {
+
+	private final transient io.nats.client.Message message;
+
+	private final transient byte[] data;
+
+	private final transient int headersOffset;
+
+	private final transient int headersLength;
+
+	private volatile boolean populated;
+
+	/**
+	 * Create headers for the supplied message.
+	 * @param message the Nats message.
+	 */
+	public LazyNatsMessageHeaders(io.nats.client.Message message) {
+		this(message, null, 0, 0);
+	}
+
+	/**
+	 * Create headers for the supplied message with application headers; the header
+	 * block must have been validated.
+	 * @param message the Nats message.
+	 * @param data the data containing the header block.
+	 * @param headersOffset the offset of the header block.
+	 * @param headersLength the length of the header block.
+	 * @see HeaderBlock#validate
+	 */
+	public LazyNatsMessageHeaders(io.nats.client.Message message, byte[] data, int headersOffset,
+			int headersLength) {
+		super(null, ID_VALUE_NONE, -1L);
+		this.message = message;
+		this.data = data;
+		this.headersOffset = headersOffset;
+		this.headersLength = headersLength;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (NatsHeaders.SUBJECT.equals(key)) {
+			return this.message.getSubject();
+		}
+		if (NatsHeaders.REPLY_TO.equals(key)) {
+			return this.message.getReplyTo();
+		}
+		if (this.headersLength > 0 && key instanceof String) {
+			return HeaderBlock.get(this.data, this.headersOffset, this.headersLength, (String) key);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (NatsHeaders.SUBJECT.equals(key) || NatsHeaders.REPLY_TO.equals(key)) {
+			return true;
+		}
+		return this.headersLength > 0 && key instanceof String
+				&& HeaderBlock.indexOf(this.data, this.headersOffset, this.headersLength, (String) key) >= 0;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return populate().containsValue(value);
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return populate().entrySet();
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return populate().keySet();
+	}
+
+	@Override
+	public Collection<Object> values() {
+		return populate().values();
+	}
+
+	@Override
+	public int size() {
+		if (this.headersLength > 0) {
+			return populate().size();
+		}
+		return 2;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		populate();
+		return super.equals(other);
+	}
+
+	@Override
+	public int hashCode() {
+		populate();
+		return super.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		populate();
+		return super.toString();
+	}
+
+	private Map<String, Object> populate() {
+		Map<String, Object> headers = getRawHeaders();
+		if (!this.populated) {
+			synchronized (this) {
+				if (!this.populated) {
+					if (this.headersLength > 0) {
+						HeaderBlock.decodeInto(this.data, this.headersOffset, this.headersLength, headers);
+					}
+					headers.put(NatsHeaders.SUBJECT, this.message.getSubject());
+					headers.put(NatsHeaders.REPLY_TO, this.message.getReplyTo());
+					this.populated = true;
+				}
+			}
+		}
+		return headers;
+	}
+
+	/*
+	 * Serialize as regular headers; the Nats message is not serializable.
+	 */
+	private Object writeReplace() {
+		NatsMessageHeaders headers = new NatsMessageHeaders(false, false);
+		headers.getRawHeaders().putAll(populate());
+		return headers;
+	}
+
+}
\ No newline at end of file
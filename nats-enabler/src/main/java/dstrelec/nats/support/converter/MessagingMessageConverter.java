@@ -17,19 +17,34 @@
 package dstrelec.nats.support.converter;
 
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import dstrelec.nats.support.NatsHeaders;
 
+import org.springframework.core.ResolvableType;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+import org.springframework.util.PatternMatchUtils;
 import org.springframework.util.SerializationUtils;
 
+import com.fasterxml.jackson.core.JsonFactory;
+
 /**
  * A Messaging {@link MessageConverter} implementation for a message listener that receives individual messages.
  * <p>
  * Populates {@link NatsHeaders} based on the {@link io.nats.client.Message} onto the returned message.
+ * Unless ids or timestamps are generated, the headers are a {@link LazyNatsMessageHeaders}
+ * view of the Nats message.
+ * <p>
+ * With a {@link CodecRegistry}, data wrapped in an {@link Envelope} is decoded by the codec
+ * of its content type, so producers using different formats can share a subject.
+ * Enveloped messages also carry the application headers of the sent message in a
+ * {@link HeaderBlock}, which is read in place when a header is requested.
  *
  * @author Marius Bogoevici
  * @author Gary Russell
@@ -39,10 +54,22 @@ import org.springframework.util.SerializationUtils;
  */
 public class MessagingMessageConverter implements MessageConverter {
 
+	private static final MessageHeaders CODEC_HEADERS = new MessageHeaders(null);
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
 	private boolean generateMessageId = false;
 
 	private boolean generateTimestamp = false;
 
+	private TypeIdRegistry typeIdRegistry;
+
+	private CodecRegistry codecRegistry;
+
+	private int contentTypeId = -1;
+
+	private String[] headerPatterns;
+
 	/**
 	 * Generate {@link Message} {@code ids} for produced messages. If set to {@code false},
 	 * will try to use a default value. By default set to {@code false}.
@@ -61,15 +88,152 @@ public class MessagingMessageConverter implements MessageConverter {
 		this.generateTimestamp = generateTimestamp;
 	}
 
+	/**
+	 * Set the registry of payload type ids. Outgoing payloads of a registered type
+	 * are prefixed with their id and incoming data with an id is decoded into the
+	 * registered type when it is compatible with the requested type. Data starting
+	 * with an id that is not registered is converted as is.
+	 * @param typeIdRegistry the registry.
+	 */
+	public void setTypeIdRegistry(TypeIdRegistry typeIdRegistry) {
+		this.typeIdRegistry = typeIdRegistry;
+	}
+
+	/**
+	 * Set the registry of codecs used to decode incoming data wrapped in an
+	 * {@link Envelope}, by its content type id. Data without an envelope is
+	 * converted by this converter as usual.
+	 * @param codecRegistry the registry.
+	 */
+	public void setCodecRegistry(CodecRegistry codecRegistry) {
+		this.codecRegistry = codecRegistry;
+	}
+
+	public CodecRegistry getCodecRegistry() {
+		return this.codecRegistry;
+	}
+
+	/**
+	 * Return the Jackson factory reading the data this converter decodes as a stream of
+	 * tokens, used to read fields such as routing keys without converting the payload.
+	 * This converter passes {@code byte[]} payloads on, which are read as JSON text.
+	 * @return the factory, or null if the payloads of this converter have no fields.
+	 * @see dstrelec.nats.listener.adapter.JsonFieldKeyExtractor
+	 */
+	public JsonFactory getJsonFactory() {
+		return JSON_FACTORY;
+	}
+
+	/**
+	 * Set the content type id to wrap outgoing payloads with; they are then encoded
+	 * by the codec registered for the id, {@code byte[]} payloads are sent as
+	 * {@link CodecRegistry#OCTET_STREAM}. By default payloads are not wrapped.
+	 * @param contentTypeId the content type id.
+	 * @see #setCodecRegistry(CodecRegistry)
+	 */
+	public void setContentTypeId(int contentTypeId) {
+		Envelope.checkContentTypeId(contentTypeId);
+		this.contentTypeId = contentTypeId;
+	}
+
+	/**
+	 * Set the simple patterns ({@code xxx*}, {@code *xxx}, {@code *xxx*} or
+	 * {@code xxx*yyy}) of the header names carried in the envelope; by default all
+	 * headers except the id, timestamp, subject and reply-to headers are carried.
+	 * Headers are only sent when a content type id is set.
+	 * @param headerPatterns the patterns.
+	 * @see #setContentTypeId(int)
+	 */
+	public void setHeaderPatterns(String... headerPatterns) {
+		this.headerPatterns = headerPatterns;
+	}
+
+	/**
+	 * Return a {@link Codec} that encodes and decodes payloads like this converter.
+	 * @return the codec.
+	 */
+	public Codec asCodec() {
+		return new Codec() {
+
+			@Override
+			public byte[] encode(Object payload) {
+				return convertPayload(MessageBuilder.createMessage(payload, CODEC_HEADERS));
+			}
+
+			@Override
+			public Object decode(byte[] data, int offset, int length, Type type) {
+				return convertValue(data, offset, length, type);
+			}
+
+			@Override
+			public JsonFactory getJsonFactory() {
+				return MessagingMessageConverter.this.getJsonFactory();
+			}
+
+		};
+	}
+
+	/**
+	 * Prepare the conversion of messages to the type, for example by creating
+	 * the reader for it upfront; called once per listener. Does nothing by default.
+	 * @param type the payload type of the listener.
+	 */
+	public void prepare(Type type) {
+	}
+
 	@Override
 	public Message<?> toMessage(io.nats.client.Message message, Type type) {
+		return createMessage(message, type, null);
+	}
+
+	/**
+	 * Create the message for a payload already obtained from {@link #toPayload}, without
+	 * converting the data again.
+	 * @param message the Nats message.
+	 * @param payload the payload.
+	 * @return the message.
+	 */
+	public Message<?> toMessageFromPayload(io.nats.client.Message message, Object payload) {
+		Assert.notNull(payload, "'payload' cannot be null");
+		return createMessage(message, null, payload);
+	}
+
+	private Message<?> createMessage(io.nats.client.Message message, Type type, Object payload) {
+		byte[] data = message.getData();
+		int headersOffset = -1;
+		if (this.codecRegistry != null && Envelope.isEnvelope(data)) {
+			headersOffset = Envelope.getHeadersOffset(data);
+			if (headersOffset >= 0) {
+				HeaderBlock.validate(data, headersOffset, Envelope.getHeadersLength(data));
+			}
+		}
+		if (!this.generateMessageId && !this.generateTimestamp) {
+			LazyNatsMessageHeaders headers = headersOffset < 0 ? new LazyNatsMessageHeaders(message)
+					: new LazyNatsMessageHeaders(message, data, headersOffset, Envelope.getHeadersLength(data));
+			return MessageBuilder.createMessage(payload != null ? payload : extractValue(message, type), headers);
+		}
 		NatsMessageHeaders natsMessageHeaders = new NatsMessageHeaders(this.generateMessageId, this.generateTimestamp);
 
 		Map<String, Object> rawHeaders = natsMessageHeaders.getRawHeaders();
+		if (headersOffset >= 0) {
+			HeaderBlock.decodeInto(data, headersOffset, Envelope.getHeadersLength(data), rawHeaders);
+		}
 		rawHeaders.put(NatsHeaders.SUBJECT, message.getSubject());
 		rawHeaders.put(NatsHeaders.REPLY_TO, message.getReplyTo());
 
-		return MessageBuilder.createMessage(extractAndConvertValue(message, type), natsMessageHeaders);
+		return MessageBuilder.createMessage(payload != null ? payload : extractValue(message, type),
+				natsMessageHeaders);
+	}
+
+	/**
+	 * Convert only the data of the message, without creating headers or a
+	 * {@link Message}; the result is the payload {@link #toMessage} would produce.
+	 * @param message the Nats message.
+	 * @param type the required type.
+	 * @return the payload.
+	 */
+	public Object toPayload(io.nats.client.Message message, Type type) {
+		return extractValue(message, type);
 	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -78,11 +242,59 @@ public class MessagingMessageConverter implements MessageConverter {
 		MessageHeaders headers = message.getHeaders();
 		String subject = headers.get(NatsHeaders.SUBJECT, String.class);
 		String replyTo = headers.get(NatsHeaders.REPLY_TO, String.class);
-		byte[] payload = convertPayload(message);
+		byte[] payload;
+		if (this.contentTypeId >= 0) {
+			payload = encodeEnveloped(message.getPayload(), encodeHeaders(headers));
+		}
+		else {
+			payload = addTypeId(message.getPayload(), convertPayload(message));
+		}
 
 		return new io.nats.client.Message(subject == null ? defaultSubject : subject, replyTo, payload);
 	}
 
+	private byte[] encodeHeaders(MessageHeaders headers) {
+		Map<String, Object> carried = null;
+		for (Map.Entry<String, Object> header : headers.entrySet()) {
+			String name = header.getKey();
+			if (MessageHeaders.ID.equals(name) || MessageHeaders.TIMESTAMP.equals(name)
+					|| NatsHeaders.SUBJECT.equals(name) || NatsHeaders.REPLY_TO.equals(name)
+					|| header.getValue() == null
+					|| (this.headerPatterns != null && !PatternMatchUtils.simpleMatch(this.headerPatterns, name))) {
+				continue;
+			}
+			if (carried == null) {
+				carried = new LinkedHashMap<>();
+			}
+			carried.put(name, header.getValue());
+		}
+		return carried == null ? null : HeaderBlock.encode(carried);
+	}
+
+	private byte[] encodeEnveloped(Object payload, byte[] headers) {
+		if (payload instanceof byte[]) {
+			return Envelope.wrap(CodecRegistry.OCTET_STREAM, headers, (byte[]) payload);
+		}
+		Codec codec = this.codecRegistry == null ? null : this.codecRegistry.getCodec(this.contentTypeId);
+		if (codec == null) {
+			throw new ConversionException("No codec registered for content type id " + this.contentTypeId, null);
+		}
+		return Envelope.wrap(this.contentTypeId, headers, addTypeId(payload, codec.encode(payload)));
+	}
+
+	private byte[] addTypeId(Object payload, byte[] data) {
+		if (this.typeIdRegistry != null && payload != null) {
+			byte[] prefix = this.typeIdRegistry.getPrefix(payload.getClass());
+			if (prefix != null) {
+				byte[] prefixed = new byte[prefix.length + data.length];
+				System.arraycopy(prefix, 0, prefixed, 0, prefix.length);
+				System.arraycopy(data, 0, prefixed, prefix.length, data.length);
+				return prefixed;
+			}
+		}
+		return data;
+	}
+
 	/**
 	 * Subclasses can convert the payload; by default, it's sent unchanged to Nats.
 	 * @param message the message.
@@ -97,6 +309,61 @@ public class MessagingMessageConverter implements MessageConverter {
 		return SerializationUtils.serialize(payload);
 	}
 
+	private Object extractValue(io.nats.client.Message message, Type type) {
+		if (this.codecRegistry == null && this.typeIdRegistry == null) {
+			return extractAndConvertValue(message, type);
+		}
+		byte[] data = message.getData();
+		int offset = 0;
+		int length = data == null ? 0 : data.length;
+		Codec codec = null;
+		if (this.codecRegistry != null && Envelope.isEnvelope(data)) {
+			int contentTypeId = Envelope.getContentTypeId(data);
+			codec = this.codecRegistry.getCodec(contentTypeId);
+			if (codec == null) {
+				throw new ConversionException("No codec registered for content type id " + contentTypeId, null);
+			}
+			offset = Envelope.getPayloadOffset(data);
+			length = data.length - offset;
+		}
+		Type targetType = type;
+		if (this.typeIdRegistry != null) {
+			int prefixLength = TypeIdRegistry.prefixLength(data, offset, length);
+			if (prefixLength > 0) {
+				Class<?> hintedType = this.typeIdRegistry.getType(
+						new String(data, offset + 2, prefixLength - 2, StandardCharsets.UTF_8));
+				// data of a legacy publisher may start with a marker byte by chance
+				if (hintedType != null) {
+					if (ResolvableType.forType(type).resolve(Object.class).isAssignableFrom(hintedType)) {
+						targetType = hintedType;
+					}
+					offset += prefixLength;
+					length -= prefixLength;
+				}
+			}
+		}
+		if (codec != null) {
+			return codec.decode(data, offset, length, targetType);
+		}
+		if (offset == 0) {
+			return extractAndConvertValue(message, type);
+		}
+		return convertValue(data, offset, length, targetType);
+	}
+
+	/**
+	 * Subclasses can convert a section of the data, such as the data following a
+	 * type id; by default, the section is returned as a copy.
+	 * @param data the data of the Nats message.
+	 * @param offset the offset of the section.
+	 * @param length the length of the section.
+	 * @param type the required type.
+	 * @return the value.
+	 */
+	protected Object convertValue(byte[] data, int offset, int length, Type type) {
+		return Arrays.copyOfRange(data, offset, offset + length);
+	}
+
 	/**
 	 * Subclasses can convert the value; by default, it's returned as provided by Nats.
 	 * @param message the Nats message.
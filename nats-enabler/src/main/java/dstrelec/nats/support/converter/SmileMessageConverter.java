@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Binary Smile message converter; requires {@code jackson-dataformat-smile}.
+ * The mapper must be created with a {@link SmileFactory}.
+ *
+ * @author Dario Strelec
+ *
+ */
+public class SmileMessageConverter extends AbstractJacksonMessageConverter {
+
+	public SmileMessageConverter() {
+		this(configureDefaults(new ObjectMapper(new SmileFactory())));
+	}
+
+	public SmileMessageConverter(ObjectMapper objectMapper) {
+		super(objectMapper, "Smile");
+		Assert.isInstanceOf(SmileFactory.class, objectMapper.getFactory(), "The mapper must use a SmileFactory");
+	}
+
+}
\ No newline at end of file
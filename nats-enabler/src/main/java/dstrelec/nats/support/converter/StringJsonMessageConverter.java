@@ -16,18 +16,7 @@
 
 package dstrelec.nats.support.converter;
 
-import java.io.IOException;
-import java.lang.reflect.Type;
-
-import org.springframework.messaging.Message;
-import org.springframework.util.Assert;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.TypeFactory;
 
 /**
  * JSON Message converter - String on output, String or byte[] on input.
@@ -38,62 +27,14 @@ import com.fasterxml.jackson.databind.type.TypeFactory;
  * @author Dario Strelec
  *
  */
-public class StringJsonMessageConverter extends MessagingMessageConverter {
-
-	private final ObjectMapper objectMapper;
+public class StringJsonMessageConverter extends AbstractJacksonMessageConverter {
 
 	public StringJsonMessageConverter() {
-		this(new ObjectMapper());
-		this.objectMapper.configure(MapperFeature.DEFAULT_VIEW_INCLUSION, false);
-		this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		this(configureDefaults(new ObjectMapper()));
 	}
 
 	public StringJsonMessageConverter(ObjectMapper objectMapper) {
-		Assert.notNull(objectMapper, "'objectMapper' must not be null.");
-		this.objectMapper = objectMapper;
-	}
-
-	@Override
-	protected byte[] convertPayload(Message<?> message) {
-		try {
-			return this.objectMapper.writeValueAsBytes(message.getPayload());
-		} catch (JsonProcessingException e) {
-			throw new ConversionException("Failed to convert to JSON", e);
-		}
-	}
-
-
-	@Override
-	protected Object extractAndConvertValue(io.nats.client.Message message, Type type) {
-		Object value = message.getData();
-		if (value == null) {
-			return null;
-		}
-
-		JavaType javaType = TypeFactory.defaultInstance().constructType(type);
-		if (value instanceof String) {
-			try {
-				return this.objectMapper.readValue((String) value, javaType);
-			} catch (IOException e) {
-				throw new ConversionException("Failed to convert from JSON", e);
-			}
-		} else if (value instanceof byte[]) {
-			try {
-				return this.objectMapper.readValue((byte[]) value, javaType);
-			} catch (IOException e) {
-				throw new ConversionException("Failed to convert from JSON", e);
-			}
-		} else {
-			throw new IllegalStateException("Only String or byte[] supported");
-		}
-
-
-		/*JavaType javaType = TypeFactory.defaultInstance().constructType(type);
-		try {
-			return this.objectMapper.readValue(message.getData(), javaType);
-		} catch (IOException e) {
-				throw new ConversionException("Failed to convert from JSON", e);
-		}*/
+		super(objectMapper, "JSON");
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.Assert;
+
+/**
+ * A registry of compact ids for payload types, shared by publishers and consumers.
+ * <p>
+ * A {@link MessagingMessageConverter} configured with a registry prefixes the data
+ * of every message whose payload type is registered with its id, and decodes
+ * incoming data carrying an id straight into the registered type instead of the
+ * type inferred from the listener. Class-level listeners can therefore select their
+ * handler method from the concrete type without decoding the payload into a generic
+ * structure first.
+ * <p>
+ * The prefix is the byte {@code 0x01}, the length of the UTF-8 encoded id and the
+ * id itself; ids are limited to 255 bytes. Data is only stripped of a prefix whose id
+ * is registered, so payloads of publishers unaware of the registry that happen to
+ * start with the marker byte are left intact.
+ *
+ * @author Dario Strelec
+ *
+ * @see MessagingMessageConverter#setTypeIdRegistry(TypeIdRegistry)
+ */
+public class TypeIdRegistry {
+
+	static final byte MARKER = 0x01;
+
+	private final Map<String, Class<?>> typesById = new ConcurrentHashMap<>();
+
+	private final Map<Class<?>, byte[]> prefixesByType = new ConcurrentHashMap<>();
+
+	/**
+	 * Register a type with the supplied id.
+	 * @param id the id.
+	 * @param type the type; subclasses are not covered by the registration.
+	 * @return this registry.
+	 */
+	public TypeIdRegistry register(String id, Class<?> type) {
+		Assert.hasText(id, "'id' must not be empty");
+		Assert.notNull(type, "'type' cannot be null");
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		Assert.isTrue(idBytes.length <= 255, "'id' must not exceed 255 bytes");
+		synchronized (this) {
+			Class<?> existingType = this.typesById.get(id);
+			Assert.isTrue(existingType == null || existingType.equals(type),
+					"Type id '" + id + "' is already registered for " + existingType);
+			Assert.isTrue(existingType != null || !this.prefixesByType.containsKey(type),
+					type + " is already registered with another id");
+			byte[] prefix = new byte[idBytes.length + 2];
+			prefix[0] = MARKER;
+			prefix[1] = (byte) idBytes.length;
+			System.arraycopy(idBytes, 0, prefix, 2, idBytes.length);
+			this.typesById.put(id, type);
+			this.prefixesByType.put(type, prefix);
+		}
+		return this;
+	}
+
+	/**
+	 * Return the type registered with the id.
+	 * @param id the id.
+	 * @return the type, or null.
+	 */
+	public Class<?> getType(String id) {
+		return this.typesById.get(id);
+	}
+
+	/**
+	 * Return the id of the type.
+	 * @param type the type.
+	 * @return the id, or null if the type is not registered.
+	 */
+	public String getTypeId(Class<?> type) {
+		byte[] prefix = this.prefixesByType.get(type);
+		return prefix == null ? null : new String(prefix, 2, prefix.length - 2, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the prefix written before the data of a payload of the type.
+	 * @param type the type.
+	 * @return the prefix, or null if the type is not registered.
+	 */
+	byte[] getPrefix(Class<?> type) {
+		return this.prefixesByType.get(type);
+	}
+
+	/**
+	 * Return the length of the type id prefix at the start of a section of the data.
+	 * @param data the data.
+	 * @param offset the offset of the section.
+	 * @param length the length of the section.
+	 * @return the prefix length, or 0 if the section does not start with a prefix.
+	 */
+	public static int prefixLength(byte[] data, int offset, int length) {
+		if (data == null || length < 2 || data[offset] != MARKER) {
+			return 0;
+		}
+		int prefixLength = (data[offset + 1] & 0xff) + 2;
+		return prefixLength > 2 && prefixLength <= length ? prefixLength : 0;
+	}
+
+}
\ No newline at end of file
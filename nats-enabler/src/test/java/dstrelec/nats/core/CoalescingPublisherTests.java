@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dstrelec.nats.listener.StubConnectionFactory;
+import io.nats.client.Connection;
+import io.nats.client.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class CoalescingPublisherTests {
+
+	private final StubConnectionFactory stub = new StubConnectionFactory();
+
+	private final CountDownLatch entered = new CountDownLatch(1);
+
+	private final CountDownLatch gate = new CountDownLatch(1);
+
+	/*
+	 * Holds the writer thread, but not the calling thread, in getConnection() until
+	 * the gate is opened.
+	 */
+	private final NatsConnectionFactory gatedConnectionFactory = new NatsConnectionFactory() {
+
+		@Override
+		public Connection getConnection() throws IOException {
+			if (Thread.currentThread().getName().equals("test-publisher")) {
+				CoalescingPublisherTests.this.entered.countDown();
+				try {
+					CoalescingPublisherTests.this.gate.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return CoalescingPublisherTests.this.stub.getConnection();
+		}
+
+	};
+
+	private final CoalescingPublisher publisher = new CoalescingPublisher(this.gatedConnectionFactory);
+
+	@After
+	public void destroy() {
+		this.gate.countDown();
+		this.publisher.destroy();
+	}
+
+	@Test
+	public void publishesOnTheCallingThreadByDefault() {
+		Message message = message("1");
+		this.publisher.publish(message);
+		assertEquals(1, this.stub.getPublished().size());
+		assertSame(message, this.stub.getPublished().get(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsMessagesOnceDestroyed() {
+		this.publisher.destroy();
+		this.publisher.publish(message("1"));
+	}
+
+	@Test
+	public void queuedMessagesArePublishedByTheWriter() throws Exception {
+		this.publisher.setQueueCapacity(10);
+		this.publisher.setThreadName("test-publisher");
+		this.gate.countDown();
+		for (int i = 0; i < 5; i++) {
+			this.publisher.publish(message(Integer.toString(i)));
+		}
+		this.publisher.destroy();
+		assertEquals(5, this.stub.getPublished().size());
+		assertEquals("0", new String(this.stub.getPublished().get(0).getData(), "UTF-8"));
+	}
+
+	@Test
+	public void dropPolicyDropsMessagesThatDoNotFit() throws Exception {
+		this.publisher.setQueueCapacity(1);
+		this.publisher.setOverflowPolicy(CoalescingPublisher.OverflowPolicy.DROP);
+		this.publisher.setThreadName("test-publisher");
+		this.publisher.publish(message("taken"));
+		assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+		this.publisher.publish(message("queued"));
+		this.publisher.publish(message("dropped"));
+		assertEquals(1, this.publisher.getDroppedCount());
+		assertEquals(0, this.stub.getPublished().size());
+		this.gate.countDown();
+		this.publisher.destroy();
+		assertEquals(2, this.stub.getPublished().size());
+	}
+
+	@Test
+	public void callerRunsPolicyPublishesMessagesThatDoNotFit() throws Exception {
+		this.publisher.setQueueCapacity(1);
+		this.publisher.setThreadName("test-publisher");
+		this.publisher.publish(message("taken"));
+		assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+		this.publisher.publish(message("queued"));
+		this.publisher.publish(message("overflow"));
+		assertEquals(1, this.stub.getPublished().size());
+		assertEquals("overflow", new String(this.stub.getPublished().get(0).getData(), "UTF-8"));
+		this.gate.countDown();
+		this.publisher.destroy();
+		assertEquals(3, this.stub.getPublished().size());
+		assertEquals(0, this.publisher.getDroppedCount());
+	}
+
+	private static Message message(String payload) {
+		return new Message("replies", null, payload.getBytes());
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dstrelec.nats.NatsException;
+import io.nats.client.Message;
+
+import org.apache.commons.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class AggregatingErrorHandlerTests {
+
+	private final AggregatingErrorHandler errorHandler = new AggregatingErrorHandler();
+
+	private final List<Object[]> errors = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void recordErrors() throws Exception {
+		Log log = (Log) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Log.class },
+				new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("error")) {
+							AggregatingErrorHandlerTests.this.errors.add(args);
+						}
+						return method.getReturnType() == boolean.class ? true : null;
+					}
+
+				});
+		Field logger = AggregatingErrorHandler.class.getDeclaredField("logger");
+		logger.setAccessible(true);
+		logger.set(this.errorHandler, log);
+		this.errorHandler.setInterval(60000);
+	}
+
+	@After
+	public void destroy() {
+		this.errorHandler.destroy();
+	}
+
+	@Test
+	public void firstFailureOfAGroupIsLoggedAndTheRestSummarized() {
+		IllegalStateException first = new IllegalStateException("first");
+		this.errorHandler.handle(first, message("orders.created"));
+		this.errorHandler.handle(new IllegalStateException("second"), message("orders.created"));
+		this.errorHandler.handle(new IllegalStateException("third"), message("orders.created"));
+		assertEquals(1, this.errors.size());
+		assertSame(first, this.errors.get(0)[1]);
+		this.errorHandler.logSummaries();
+		assertEquals(2, this.errors.size());
+		assertTrue(this.errors.get(1)[0].toString().startsWith("2 more java.lang.IllegalStateException"));
+		assertEquals("second", ((Exception) this.errors.get(1)[1]).getMessage());
+	}
+
+	@Test
+	public void groupsAreKeyedByMessageSubjectAndCauseType() {
+		this.errorHandler.handle(new IllegalStateException(), message("orders.eu.created"));
+		this.errorHandler.handle(new IllegalStateException(), message("orders.us.created"));
+		this.errorHandler.handle(new NatsException("wrapped", new IllegalArgumentException()),
+				message("orders.eu.created"));
+		this.errorHandler.handle(new IllegalArgumentException(), message("orders.eu.created"));
+		assertEquals(3, this.errors.size());
+	}
+
+	@Test
+	public void quietGroupsAreForgotten() {
+		this.errorHandler.handle(new IllegalStateException(), message("orders.created"));
+		this.errorHandler.logSummaries();
+		assertEquals(1, this.errors.size());
+		this.errorHandler.handle(new IllegalStateException(), message("orders.created"));
+		assertEquals(2, this.errors.size());
+	}
+
+	@Test
+	public void failuresAreLoggedIndividuallyOnceDestroyed() {
+		this.errorHandler.destroy();
+		this.errorHandler.handle(new IllegalStateException(), message("orders.created"));
+		this.errorHandler.handle(new IllegalStateException(), message("orders.created"));
+		assertEquals(2, this.errors.size());
+	}
+
+	private static Message message(String subject) {
+		return new Message(subject, null, new byte[0]);
+	}
+
+}
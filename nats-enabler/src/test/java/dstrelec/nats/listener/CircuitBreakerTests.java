@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dstrelec.nats.listener.CircuitBreaker.State;
+import dstrelec.nats.listener.config.CircuitBreakerProperties;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class CircuitBreakerTests {
+
+	private final CircuitBreakerProperties properties = new CircuitBreakerProperties();
+
+	private final List<State> transitions = new ArrayList<>();
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		this.properties.setConsecutiveFailures(3);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordFailure();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertEquals(Arrays.asList(State.CLOSED, State.OPEN), this.transitions);
+	}
+
+	@Test
+	public void opensAtTheFailureRateOnceMinimumCallsAreReached() {
+		this.properties.setConsecutiveFailures(0);
+		this.properties.setFailureRateThreshold(50);
+		this.properties.setMinimumCalls(4);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordFailure();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.recordSuccess();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void failureRateWindowRestarts() {
+		this.properties.setConsecutiveFailures(0);
+		this.properties.setFailureRateThreshold(50);
+		this.properties.setMinimumCalls(2);
+		this.properties.setWindowSize(3);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordFailure();
+		assertEquals("one call in the new window", State.CLOSED, circuitBreaker.getState());
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void halfOpenClosesAfterSuccessfulProbes() {
+		this.properties.setProbes(2);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		assertFalse(circuitBreaker.halfOpen());
+		assertTrue(circuitBreaker.open());
+		assertTrue(circuitBreaker.halfOpen());
+		circuitBreaker.recordSuccess();
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		circuitBreaker.recordSuccess();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(Arrays.asList(State.CLOSED, State.OPEN, State.OPEN, State.HALF_OPEN, State.HALF_OPEN,
+				State.CLOSED), this.transitions);
+	}
+
+	@Test
+	public void halfOpenOpensOnAFailedProbe() {
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.open();
+		circuitBreaker.halfOpen();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void halfOpenOpensWhenIgnoredMessagesUseUpTheProbes() {
+		this.properties.setProbes(2);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.setProbeLimit(3);
+		circuitBreaker.open();
+		circuitBreaker.halfOpen();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordIgnored();
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		circuitBreaker.recordIgnored();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void ignoredMessagesDoNotAffectAClosedCircuit() {
+		this.properties.setConsecutiveFailures(2);
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordIgnored();
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void resetClosesTheCircuit() {
+		CircuitBreaker circuitBreaker = circuitBreaker();
+		circuitBreaker.open();
+		assertFalse(circuitBreaker.open());
+		circuitBreaker.reset();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+	}
+
+	private CircuitBreaker circuitBreaker() {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(this.properties);
+		circuitBreaker.setStateListener((previous, current) -> {
+			this.transitions.add(previous);
+			this.transitions.add(current);
+		});
+		return circuitBreaker;
+	}
+
+}
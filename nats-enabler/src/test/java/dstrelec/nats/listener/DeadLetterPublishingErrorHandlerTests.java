@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dstrelec.nats.NatsException;
+import dstrelec.nats.core.CoalescingPublisher;
+import io.nats.client.Message;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Dario Strelec
+ */
+public class DeadLetterPublishingErrorHandlerTests {
+
+	private final StubConnectionFactory connectionFactory = new StubConnectionFactory();
+
+	@Test
+	public void failedMessageIsPublishedInAnEnvelope() throws Exception {
+		DeadLetterPublishingErrorHandler errorHandler = new DeadLetterPublishingErrorHandler(
+				new CoalescingPublisher(this.connectionFactory), "orders.dlq");
+		byte[] data = { 1, 2, 3 };
+		errorHandler.handle(new NatsException("Listener failed", new IllegalStateException("boom")),
+				new Message("orders.created", "inbox.1", data));
+		assertEquals(1, this.connectionFactory.getPublished().size());
+		Message deadLetter = this.connectionFactory.getPublished().get(0);
+		assertEquals("orders.dlq", deadLetter.getSubject());
+		JsonNode envelope = new ObjectMapper().readTree(deadLetter.getData());
+		assertEquals("orders.created", envelope.get("subject").asText());
+		assertEquals("inbox.1", envelope.get("replyTo").asText());
+		assertEquals(NatsException.class.getName(), envelope.get("exception").asText());
+		assertTrue(envelope.get("exceptionMessage").asText().startsWith("Listener failed"));
+		assertEquals(IllegalStateException.class.getName(), envelope.get("rootCause").asText());
+		assertEquals("boom", envelope.get("rootCauseMessage").asText());
+		assertArrayEquals(data, envelope.get("payload").binaryValue());
+	}
+
+	@Test
+	public void errorsWithoutAMessageAreNotPublished() {
+		DeadLetterPublishingErrorHandler errorHandler = new DeadLetterPublishingErrorHandler(
+				new CoalescingPublisher(this.connectionFactory), "orders.dlq");
+		errorHandler.handle(new IllegalStateException(), null);
+		assertEquals(0, this.connectionFactory.getPublished().size());
+	}
+
+	@Test
+	public void ownPublisherIsDrainedOnDestroy() {
+		DeadLetterPublishingErrorHandler errorHandler = new DeadLetterPublishingErrorHandler(this.connectionFactory,
+				"orders.dlq");
+		for (int i = 0; i < 3; i++) {
+			errorHandler.handle(new IllegalStateException(), new Message("orders.created", null, new byte[0]));
+		}
+		errorHandler.destroy();
+		assertEquals(3, this.connectionFactory.getPublished().size());
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dstrelec.nats.listener.adapter.FilteringMessageListenerAdapter;
+import dstrelec.nats.listener.config.CircuitBreakerProperties;
+import dstrelec.nats.listener.config.ContainerProperties;
+import io.nats.client.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class DefaultNatsListenerContainerTests {
+
+	private final StubConnectionFactory connectionFactory = new StubConnectionFactory();
+
+	private DefaultNatsListenerContainer container;
+
+	@After
+	public void stop() {
+		if (this.container != null && this.container.isRunning()) {
+			this.container.stop();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxInFlightMustBePositive() {
+		new ContainerProperties("orders").setMaxInFlight(0);
+	}
+
+	@Test
+	public void maxInFlightBlocksDeliveryUntilAnInvocationCompletes() throws Exception {
+		PendingListener listener = new PendingListener();
+		ContainerProperties containerProperties = new ContainerProperties("orders");
+		containerProperties.setMaxInFlight(2);
+		start(containerProperties, listener);
+		deliver("1");
+		deliver("2");
+		final CountDownLatch delivered = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			deliver("3");
+			delivered.countDown();
+		});
+		thread.start();
+		assertFalse(delivered.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, listener.completions.size());
+		listener.completions.get(0).complete(null);
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		assertEquals(3, listener.completions.size());
+		thread.join();
+		listener.completeAll();
+	}
+
+	@Test
+	public void stopClosesTheConnectionAfterInFlightInvocations() throws Exception {
+		PendingListener listener = new PendingListener();
+		ContainerProperties containerProperties = new ContainerProperties("orders");
+		containerProperties.setShutdownTimeout(5000);
+		start(containerProperties, listener);
+		deliver("1");
+		Thread thread = new Thread(this.container::stop);
+		thread.start();
+		thread.join(200);
+		assertTrue(thread.isAlive());
+		assertFalse(this.connectionFactory.isClosed());
+		listener.completions.get(0).complete(null);
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertTrue(this.connectionFactory.isClosed());
+		assertFalse(this.container.isRunning());
+	}
+
+	@Test
+	public void filteredMessagesDoNotResetTheCircuitBreaker() {
+		CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+		circuitBreaker.setConsecutiveFailures(2);
+		ContainerProperties containerProperties = new ContainerProperties("orders");
+		containerProperties.setCircuitBreaker(circuitBreaker);
+		containerProperties.setErrorHandler((e, message) -> { });
+		MessageListener failing = message -> {
+			throw new IllegalStateException("expected");
+		};
+		start(containerProperties, new FilteringMessageListenerAdapter(failing,
+				message -> new String(message.getData(), StandardCharsets.UTF_8).equals("skip")));
+		deliver("1");
+		deliver("skip");
+		assertEquals(CircuitBreaker.State.CLOSED, this.container.getCircuitBreaker().getState());
+		deliver("2");
+		assertEquals(CircuitBreaker.State.OPEN, this.container.getCircuitBreaker().getState());
+	}
+
+	@Test
+	public void openCircuitRemovesTheSubscriptionsUntilAProbeSucceeds() throws Exception {
+		CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+		circuitBreaker.setConsecutiveFailures(1);
+		circuitBreaker.setOpenDuration(500);
+		circuitBreaker.setProbes(1);
+		ContainerProperties containerProperties = new ContainerProperties("orders");
+		containerProperties.setCircuitBreaker(circuitBreaker);
+		containerProperties.setErrorHandler((e, message) -> { });
+		final AtomicBoolean failing = new AtomicBoolean(true);
+		start(containerProperties, message -> {
+			if (failing.get()) {
+				throw new IllegalStateException("expected");
+			}
+		});
+		deliver("1");
+		assertEquals(CircuitBreaker.State.OPEN, this.container.getCircuitBreaker().getState());
+		awaitSubscriptions(0);
+		awaitState(CircuitBreaker.State.HALF_OPEN);
+		// the probe subscription is added right after the state change
+		awaitSubscriptions(1);
+		failing.set(false);
+		deliver("2");
+		awaitState(CircuitBreaker.State.CLOSED);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.container.isPaused() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(this.container.isPaused());
+		assertEquals(1, this.connectionFactory.getSubscriptions().size());
+	}
+
+	private void awaitSubscriptions(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.connectionFactory.getSubscriptions().size() != count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, this.connectionFactory.getSubscriptions().size());
+	}
+
+	private void awaitState(CircuitBreaker.State state) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.container.getCircuitBreaker().getState() != state && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(state, this.container.getCircuitBreaker().getState());
+	}
+
+	private void start(ContainerProperties containerProperties, MessageListener listener) {
+		containerProperties.setMessageListener(listener);
+		this.container = new DefaultNatsListenerContainer(this.connectionFactory, containerProperties);
+		this.container.start();
+	}
+
+	private void deliver(String payload) {
+		this.connectionFactory.deliver("orders", payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private static final class PendingListener implements AsyncMessageListener {
+
+		private final List<CompletableFuture<Void>> completions = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onMessage(Message message) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CompletionStage<?> onMessageAsync(Message message) {
+			CompletableFuture<Void> completion = new CompletableFuture<>();
+			this.completions.add(completion);
+			return completion;
+		}
+
+		private void completeAll() {
+			for (CompletableFuture<Void> completion : this.completions) {
+				completion.complete(null);
+			}
+		}
+
+	}
+
+}
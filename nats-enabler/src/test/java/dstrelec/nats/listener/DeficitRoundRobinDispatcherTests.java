@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class DeficitRoundRobinDispatcherTests {
+
+	private final List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+
+	private final Executor executor = runnable -> {
+		Thread thread = new Thread(runnable);
+		thread.setDaemon(true);
+		thread.setUncaughtExceptionHandler((t, e) -> this.uncaught.add(e));
+		thread.start();
+	};
+
+	private final GatedHandler handler = new GatedHandler();
+
+	private final DeficitRoundRobinDispatcher dispatcher = new DeficitRoundRobinDispatcher(this.handler);
+
+	@After
+	public void stop() {
+		this.handler.open();
+		this.dispatcher.stop(5000);
+	}
+
+	@Test
+	public void queuesAreServedInProportionToTheirWeights() throws Exception {
+		Map<String, Integer> weights = new HashMap<>();
+		weights.put("a", 2);
+		this.dispatcher.setWeights(weights);
+		this.dispatcher.start(this.executor);
+		hold();
+		for (int i = 0; i < 4; i++) {
+			this.dispatcher.dispatch(new Message("a", null, new byte[0]), null);
+		}
+		for (int i = 0; i < 4; i++) {
+			this.dispatcher.dispatch(new Message("b", null, new byte[0]), null);
+		}
+		this.handler.open();
+		this.handler.await(9);
+		assertEquals(Arrays.asList("hold", "a", "a", "b", "a", "a", "b", "b", "b"), this.handler.subjects);
+	}
+
+	@Test
+	public void fullQueueBlocksDeliveryAndCountsItOnce() throws Exception {
+		this.dispatcher.setQueueCapacity(1);
+		this.dispatcher.start(this.executor);
+		hold();
+		this.dispatcher.dispatch(new Message("a", null, new byte[0]), null);
+		final CountDownLatch dispatched = new CountDownLatch(1);
+		new Thread(() -> {
+			this.dispatcher.dispatch(new Message("a", null, new byte[0]), null);
+			dispatched.countDown();
+		}).start();
+		assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+		this.dispatcher.dispatch(new Message("b", null, new byte[0]), null);
+		this.handler.open();
+		assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+		this.handler.await(4);
+		assertEquals(1, this.dispatcher.getQueueMetrics().get("a").getBlocked());
+		assertEquals(0, this.dispatcher.getQueueMetrics().get("b").getBlocked());
+		assertEquals(2, this.dispatcher.getQueueMetrics().get("a").getDispatched());
+	}
+
+	@Test
+	public void redispatchedMessagesGoToTheirHandler() throws Exception {
+		this.handler.open();
+		this.dispatcher.start(this.executor);
+		final CountDownLatch redispatched = new CountDownLatch(1);
+		assertTrue(this.dispatcher.dispatch(new Message("a", null, new byte[0]), message -> redispatched.countDown()));
+		assertTrue(redispatched.await(5, TimeUnit.SECONDS));
+		assertEquals(Collections.emptyList(), this.handler.subjects);
+	}
+
+	@Test
+	public void errorReplacesTheWorkerAndReachesTheExecutor() throws Exception {
+		this.handler.open();
+		this.dispatcher.start(this.executor);
+		this.dispatcher.dispatch(new Message("a", null, new byte[0]), message -> {
+			throw new AssertionError("expected");
+		});
+		this.dispatcher.dispatch(new Message("a", null, new byte[0]), null);
+		this.handler.await(1);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.uncaught.isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, this.uncaught.size());
+		assertTrue(this.uncaught.get(0) instanceof AssertionError);
+		long start = System.nanoTime();
+		this.dispatcher.stop(5000);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+	}
+
+	@Test
+	public void stopDrainsTheQueuesAndRejectsNewMessages() throws Exception {
+		this.dispatcher.start(this.executor);
+		hold();
+		for (int i = 0; i < 3; i++) {
+			this.dispatcher.dispatch(new Message("a", null, new byte[0]), null);
+		}
+		this.handler.open();
+		this.dispatcher.stop(5000);
+		assertEquals(4, this.handler.subjects.size());
+		assertFalse(this.dispatcher.dispatch(new Message("a", null, new byte[0]), null));
+	}
+
+	/*
+	 * Occupy the single worker, so that the following messages stay queued until the
+	 * handler is opened.
+	 */
+	private void hold() throws InterruptedException {
+		this.dispatcher.dispatch(new Message("hold", null, new byte[0]), null);
+		assertTrue(this.handler.entered.await(5, TimeUnit.SECONDS));
+	}
+
+
+	private static final class GatedHandler implements MessageHandler {
+
+		private final List<String> subjects = Collections.synchronizedList(new ArrayList<String>());
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+
+		@Override
+		public void onMessage(Message message) {
+			this.entered.countDown();
+			try {
+				this.gate.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.subjects.add(message.getSubject());
+		}
+
+		private void open() {
+			this.gate.countDown();
+		}
+
+		private void await(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (this.subjects.size() < count && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(count, this.subjects.size());
+		}
+
+	}
+
+}
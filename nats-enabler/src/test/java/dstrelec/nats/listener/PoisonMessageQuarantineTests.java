@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import io.nats.client.Message;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class PoisonMessageQuarantineTests {
+
+	@Test
+	public void messageIsQuarantinedAtTheThreshold() {
+		PoisonMessageQuarantine quarantine = new PoisonMessageQuarantine();
+		quarantine.setThreshold(3);
+		Message message = message("orders", "poison");
+		assertFalse(quarantine.recordFailure(message));
+		assertFalse(quarantine.recordFailure(message));
+		assertFalse(quarantine.isQuarantined(message));
+		assertTrue(quarantine.recordFailure(message));
+		assertTrue(quarantine.isQuarantined(message("orders", "poison")));
+		assertFalse(quarantine.isQuarantined(message("orders", "healthy")));
+		assertFalse(quarantine.isQuarantined(message("invoices", "poison")));
+	}
+
+	@Test
+	public void entriesExpireAfterTheTimeToLive() throws Exception {
+		PoisonMessageQuarantine quarantine = new PoisonMessageQuarantine();
+		quarantine.setThreshold(2);
+		quarantine.setTimeToLive(50);
+		Message message = message("orders", "poison");
+		quarantine.recordFailure(message);
+		assertTrue(quarantine.recordFailure(message));
+		Thread.sleep(100);
+		assertFalse(quarantine.isQuarantined(message));
+		assertFalse("the count restarts once expired", quarantine.recordFailure(message));
+	}
+
+	@Test
+	public void clearForgetsEveryFingerprint() {
+		PoisonMessageQuarantine quarantine = new PoisonMessageQuarantine();
+		quarantine.setThreshold(1);
+		Message message = message("orders", "poison");
+		assertTrue(quarantine.recordFailure(message));
+		quarantine.clear();
+		assertFalse(quarantine.isQuarantined(message));
+	}
+
+	@Test
+	public void fullTableEvictsOneEntry() throws Exception {
+		PoisonMessageQuarantine quarantine = new PoisonMessageQuarantine(8);
+		quarantine.setThreshold(1);
+		long now = System.currentTimeMillis();
+		for (long fingerprint = 1; fingerprint <= 8; fingerprint++) {
+			assertTrue(quarantine.recordFailure(fingerprint));
+		}
+		Thread.sleep(5);
+		assertTrue(quarantine.recordFailure(100));
+		assertTrue(quarantine.isQuarantined(100, now));
+		int remaining = 0;
+		for (long fingerprint = 1; fingerprint <= 8; fingerprint++) {
+			if (quarantine.isQuarantined(fingerprint, now)) {
+				remaining++;
+			}
+		}
+		assertEquals(7, remaining);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void thresholdMustFitTheCounter() {
+		new PoisonMessageQuarantine().setThreshold(256);
+	}
+
+	private static Message message(String subject, String payload) {
+		return new Message(subject, null, payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
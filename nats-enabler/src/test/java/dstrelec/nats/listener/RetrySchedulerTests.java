@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import dstrelec.nats.listener.config.RetryProperties;
+import io.nats.client.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class RetrySchedulerTests {
+
+	private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+	private final BlockingQueue<Runnable> handedOff = new LinkedBlockingQueue<>();
+
+	private final RecordingRedelivery redelivery = new RecordingRedelivery();
+
+	private final RetryProperties retryProperties = new RetryProperties();
+
+	@Before
+	public void setUp() {
+		this.retryProperties.setInitialInterval(10);
+		this.retryProperties.setJitter(0);
+	}
+
+	@After
+	public void tearDown() {
+		this.scheduler.shutdownNow();
+	}
+
+	@Test
+	public void backoffGrowsUpToTheMaximumInterval() {
+		this.retryProperties.setInitialInterval(100);
+		this.retryProperties.setMultiplier(2);
+		this.retryProperties.setMaxInterval(300);
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler);
+		assertEquals(100, retryScheduler.delayFor(1));
+		assertEquals(200, retryScheduler.delayFor(2));
+		assertEquals(300, retryScheduler.delayFor(3));
+		assertEquals(300, retryScheduler.delayFor(4));
+	}
+
+	@Test
+	public void jitterStaysWithinItsFraction() {
+		this.retryProperties.setInitialInterval(1000);
+		this.retryProperties.setJitter(0.1);
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler);
+		for (int i = 0; i < 100; i++) {
+			long delay = retryScheduler.delayFor(1);
+			assertTrue(delay >= 900 && delay <= 1100);
+		}
+	}
+
+	@Test
+	public void exhaustedAttemptsAreNotScheduled() {
+		this.retryProperties.setMaxAttempts(3);
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler);
+		assertTrue(retryScheduler.schedule(message(1), 2, new IllegalStateException(), this.redelivery));
+		assertFalse(retryScheduler.schedule(message(1), 3, new IllegalStateException(), this.redelivery));
+	}
+
+	@Test
+	public void pendingBytesAreCapped() {
+		this.retryProperties.setInitialInterval(60000);
+		this.retryProperties.setMaxPendingBytes(10);
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler);
+		assertTrue(retryScheduler.schedule(message(8), 1, new IllegalStateException(), this.redelivery));
+		assertFalse(retryScheduler.schedule(message(8), 1, new IllegalStateException(), this.redelivery));
+		assertTrue(retryScheduler.schedule(message(2), 1, new IllegalStateException(), this.redelivery));
+		assertEquals(2, retryScheduler.getPendingCount());
+		assertEquals(10, retryScheduler.getPendingBytes());
+	}
+
+	@Test
+	public void dueRetriesAreHandedToTheExecutorAndStayPendingUntilTheyRun() throws Exception {
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler, this.handedOff::add);
+		Message message = message(4);
+		IllegalStateException failure = new IllegalStateException();
+		assertTrue(retryScheduler.schedule(message, 1, failure, this.redelivery));
+		Runnable task = this.handedOff.poll(5, TimeUnit.SECONDS);
+		assertEquals(1, retryScheduler.getPendingCount());
+		assertEquals(4, retryScheduler.getPendingBytes());
+		assertTrue(this.redelivery.redelivered.isEmpty());
+		task.run();
+		assertEquals(1, this.redelivery.redelivered.size());
+		assertSame(message, this.redelivery.redelivered.get(0));
+		assertEquals(Integer.valueOf(2), this.redelivery.attempts.get(0));
+		assertEquals(0, retryScheduler.getPendingCount());
+		assertEquals(0, retryScheduler.getPendingBytes());
+	}
+
+	@Test
+	public void cancelDiscardsRetriesHandedOffButNotStarted() throws Exception {
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler, this.handedOff::add);
+		assertTrue(retryScheduler.schedule(message(1), 1, new IllegalStateException(), this.redelivery));
+		Runnable task = this.handedOff.poll(5, TimeUnit.SECONDS);
+		retryScheduler.cancelPending();
+		task.run();
+		assertTrue(this.redelivery.redelivered.isEmpty());
+		assertEquals(1, this.redelivery.discarded.size());
+		assertEquals(0, retryScheduler.getPendingCount());
+	}
+
+	@Test
+	public void retriesTheExecutorRejectsAreDiscarded() throws Exception {
+		Executor rejecting = task -> {
+			throw new RejectedExecutionException();
+		};
+		RetryScheduler retryScheduler = new RetryScheduler(this.retryProperties, this.scheduler, rejecting);
+		assertTrue(retryScheduler.schedule(message(1), 1, new IllegalStateException(), this.redelivery));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.redelivery.discarded.isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, this.redelivery.discarded.size());
+		assertEquals(0, retryScheduler.getPendingBytes());
+	}
+
+	private static Message message(int size) {
+		return new Message("orders", null, new byte[size]);
+	}
+
+
+	private static final class RecordingRedelivery implements RetryScheduler.Redelivery {
+
+		private final List<Message> redelivered = new CopyOnWriteArrayList<>();
+
+		private final List<Integer> attempts = new CopyOnWriteArrayList<>();
+
+		private final List<Message> discarded = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void redeliver(Message message, int attempt, Exception previous) {
+			this.redelivered.add(message);
+			this.attempts.add(attempt);
+		}
+
+		@Override
+		public void discard(Message message, Exception previous) {
+			this.discarded.add(message);
+		}
+
+	}
+
+}
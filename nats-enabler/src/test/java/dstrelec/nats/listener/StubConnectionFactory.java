@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.SubjectPattern;
+import io.nats.client.AsyncSubscription;
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+/**
+ * Connection factory of an in-memory connection recording subscriptions and published
+ * messages; {@link #deliver(Message)} hands a message to the matching subscriptions,
+ * one per queue group in turn, as the server does.
+ *
+ * @author Dario Strelec
+ */
+public class StubConnectionFactory implements NatsConnectionFactory {
+
+	private final List<StubSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	private final List<Message> published = new CopyOnWriteArrayList<>();
+
+	private final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					return invokeConnection(method, args);
+				}
+
+			});
+
+	private volatile boolean closed;
+
+	private int deliveries;
+
+	@Override
+	public Connection getConnection() {
+		return this.connection;
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Return the valid subscriptions.
+	 * @return the subscriptions.
+	 */
+	public List<StubSubscription> getSubscriptions() {
+		List<StubSubscription> valid = new ArrayList<>();
+		for (StubSubscription subscription : this.subscriptions) {
+			if (subscription.valid) {
+				valid.add(subscription);
+			}
+		}
+		return valid;
+	}
+
+	public List<Message> getPublished() {
+		return this.published;
+	}
+
+	/**
+	 * Deliver a message to every matching subscription outside of a queue group and to
+	 * one matching subscription of each queue group, alternating between them.
+	 * @param message the message.
+	 * @return the number of subscriptions the message was delivered to.
+	 */
+	public int deliver(Message message) {
+		List<StubSubscription> matching = new ArrayList<>();
+		List<String> queues = new ArrayList<>();
+		for (StubSubscription subscription : getSubscriptions()) {
+			if (!SubjectPattern.compile(subscription.subject).matches(message.getSubject())) {
+				continue;
+			}
+			if (subscription.queue == null) {
+				matching.add(subscription);
+			}
+			else if (!queues.contains(subscription.queue)) {
+				queues.add(subscription.queue);
+				List<StubSubscription> members = new ArrayList<>();
+				for (StubSubscription member : getSubscriptions()) {
+					if (subscription.queue.equals(member.queue)
+							&& SubjectPattern.compile(member.subject).matches(message.getSubject())) {
+						members.add(member);
+					}
+				}
+				matching.add(members.get(this.deliveries++ % members.size()));
+			}
+		}
+		for (StubSubscription subscription : matching) {
+			subscription.handler.onMessage(message);
+		}
+		return matching.size();
+	}
+
+	public int deliver(String subject, byte[] data) {
+		return deliver(new Message(subject, null, data));
+	}
+
+	private Object invokeConnection(Method method, Object[] args) {
+		switch (method.getName()) {
+			case "subscribe":
+			case "subscribeAsync":
+				if (args.length == 2 && args[1] instanceof MessageHandler) {
+					return subscribe((String) args[0], null, (MessageHandler) args[1]);
+				}
+				if (args.length == 3) {
+					return subscribe((String) args[0], (String) args[1], (MessageHandler) args[2]);
+				}
+				throw new UnsupportedOperationException(method.toString());
+			case "publish":
+				if (args.length == 1) {
+					this.published.add((Message) args[0]);
+				}
+				else if (args.length == 2) {
+					this.published.add(new Message((String) args[0], null, (byte[]) args[1]));
+				}
+				else {
+					this.published.add(new Message((String) args[0], (String) args[1], (byte[]) args[2]));
+				}
+				return null;
+			case "close":
+				this.closed = true;
+				return null;
+			case "isClosed":
+				return this.closed;
+			case "isConnected":
+				return !this.closed;
+			case "hashCode":
+				return System.identityHashCode(this);
+			case "equals":
+				return this.connection == args[0];
+			case "toString":
+				return "StubConnection";
+			default:
+				return defaultValue(method.getReturnType());
+		}
+	}
+
+	private AsyncSubscription subscribe(String subject, String queue, MessageHandler handler) {
+		StubSubscription subscription = new StubSubscription(subject, queue, handler);
+		this.subscriptions.add(subscription);
+		return subscription.proxy;
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+
+
+	/**
+	 * A subscription of the stub connection.
+	 */
+	public static final class StubSubscription {
+
+		private final String subject;
+
+		private final String queue;
+
+		private final MessageHandler handler;
+
+		private final AsyncSubscription proxy;
+
+		private volatile boolean valid = true;
+
+		private StubSubscription(String subject, String queue, MessageHandler handler) {
+			this.subject = subject;
+			this.queue = queue;
+			this.handler = handler;
+			this.proxy = (AsyncSubscription) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { AsyncSubscription.class }, new InvocationHandler() {
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							switch (method.getName()) {
+								case "getSubject":
+									return StubSubscription.this.subject;
+								case "getQueue":
+									return StubSubscription.this.queue;
+								case "isValid":
+									return StubSubscription.this.valid;
+								case "unsubscribe":
+								case "close":
+									StubSubscription.this.valid = false;
+									return null;
+								case "hashCode":
+									return System.identityHashCode(proxy);
+								case "equals":
+									return proxy == args[0];
+								case "toString":
+									return "StubSubscription [" + StubSubscription.this.subject + "]";
+								default:
+									return defaultValue(method.getReturnType());
+							}
+						}
+
+					});
+		}
+
+		public String getSubject() {
+			return this.subject;
+		}
+
+		public String getQueue() {
+			return this.queue;
+		}
+
+		public boolean isValid() {
+			return this.valid;
+		}
+
+		public MessageHandler getHandler() {
+			return this.handler;
+		}
+
+	}
+
+}
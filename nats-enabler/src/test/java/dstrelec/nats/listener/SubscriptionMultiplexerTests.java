@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import dstrelec.nats.listener.StubConnectionFactory.StubSubscription;
+import dstrelec.nats.support.SharedMessage;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class SubscriptionMultiplexerTests {
+
+	private static final RoutingKeyExtractor PAYLOAD = new RoutingKeyExtractor() {
+
+		@Override
+		public String getRoutingKey(Message message) {
+			return new String(message.getData(), StandardCharsets.UTF_8);
+		}
+
+	};
+
+	private final StubConnectionFactory connectionFactory = new StubConnectionFactory();
+
+	private final SubscriptionMultiplexer multiplexer = new SubscriptionMultiplexer(this.connectionFactory);
+
+	@Test
+	public void siblingSubjectsShareAPrefixSubscription() throws Exception {
+		Recorder eu = new Recorder();
+		Recorder us = new Recorder();
+		this.multiplexer.register("orders.eu.created", null, eu);
+		this.multiplexer.register("orders.us.created", null, us);
+		List<StubSubscription> subscriptions = this.connectionFactory.getSubscriptions();
+		assertEquals(1, subscriptions.size());
+		assertEquals("orders.>", subscriptions.get(0).getSubject());
+		assertNull(subscriptions.get(0).getQueue());
+		this.connectionFactory.deliver("orders.eu.created", payload("1"));
+		this.connectionFactory.deliver("orders.asia.created", payload("2"));
+		assertEquals(1, eu.messages.size());
+		assertEquals(0, us.messages.size());
+	}
+
+	@Test
+	public void noPrefixTokensSharesIdenticalSubjectsOnly() throws Exception {
+		this.multiplexer.setPrefixTokens(0);
+		this.multiplexer.register("orders.eu.created", null, new Recorder());
+		this.multiplexer.register("orders.eu.created", null, new Recorder());
+		this.multiplexer.register("orders.us.created", null, new Recorder());
+		assertEquals(2, this.connectionFactory.getSubscriptions().size());
+	}
+
+	@Test
+	public void queueGroupRegistrationsBalanceMessages() throws Exception {
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		this.multiplexer.register("orders.eu.created", "workers", first);
+		this.multiplexer.register("orders.eu.created", "workers", second);
+		List<StubSubscription> subscriptions = this.connectionFactory.getSubscriptions();
+		assertEquals(2, subscriptions.size());
+		for (StubSubscription subscription : subscriptions) {
+			assertEquals("orders.eu.created", subscription.getSubject());
+			assertEquals("workers", subscription.getQueue());
+		}
+		for (int i = 0; i < 4; i++) {
+			assertEquals(1, this.connectionFactory.deliver("orders.eu.created", payload(Integer.toString(i))));
+		}
+		assertEquals(2, first.messages.size());
+		assertEquals(2, second.messages.size());
+	}
+
+	@Test
+	public void routingConditionsSelectRegistrations() throws Exception {
+		Recorder a = new Recorder();
+		Recorder b = new Recorder();
+		Recorder all = new Recorder();
+		this.multiplexer.register("tenants.created", null, new RoutingCondition(PAYLOAD, "a"), a);
+		this.multiplexer.register("tenants.created", null, new RoutingCondition(PAYLOAD, "b"), b);
+		this.multiplexer.register("tenants.created", null, all);
+		this.connectionFactory.deliver("tenants.created", payload("a"));
+		this.connectionFactory.deliver("tenants.created", payload("c"));
+		assertEquals(1, a.messages.size());
+		assertEquals(0, b.messages.size());
+		assertEquals(2, all.messages.size());
+	}
+
+	@Test
+	public void sharedConversionsWrapMessagesWithSeveralRecipients() throws Exception {
+		this.multiplexer.setShareConversions(true);
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		this.multiplexer.register("orders.created", null, first);
+		this.multiplexer.register("orders.*", null, second);
+		this.connectionFactory.deliver("orders.created", payload("1"));
+		assertTrue(first.messages.get(0) instanceof SharedMessage);
+		assertSame(first.messages.get(0), second.messages.get(0));
+		this.connectionFactory.deliver("orders.cancelled", payload("2"));
+		assertFalse(second.messages.get(1) instanceof SharedMessage);
+	}
+
+	@Test
+	public void cancelUnsubscribesWithTheLastRegistration() throws Exception {
+		Recorder first = new Recorder();
+		SubscriptionMultiplexer.Registration eu = this.multiplexer.register("orders.eu.created", null, first);
+		SubscriptionMultiplexer.Registration us = this.multiplexer.register("orders.us.created", null,
+				new Recorder());
+		eu.cancel();
+		assertEquals(1, this.connectionFactory.getSubscriptions().size());
+		this.connectionFactory.deliver("orders.eu.created", payload("1"));
+		assertEquals(0, first.messages.size());
+		us.cancel();
+		assertEquals(0, this.connectionFactory.getSubscriptions().size());
+	}
+
+	@Test
+	public void cancelRemovesOnlyItsQueueSubscription() throws Exception {
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		SubscriptionMultiplexer.Registration registration = this.multiplexer.register("orders.created", "workers",
+				first);
+		this.multiplexer.register("orders.created", "workers", second);
+		registration.cancel();
+		assertEquals(1, this.connectionFactory.getSubscriptions().size());
+		this.connectionFactory.deliver("orders.created", payload("1"));
+		this.connectionFactory.deliver("orders.created", payload("2"));
+		assertEquals(0, first.messages.size());
+		assertEquals(2, second.messages.size());
+	}
+
+	@Test
+	public void destroyUnsubscribesAll() throws Exception {
+		this.multiplexer.register("orders.created", null, new Recorder());
+		this.multiplexer.register("orders.created", "workers", new Recorder());
+		this.multiplexer.destroy();
+		assertEquals(0, this.connectionFactory.getSubscriptions().size());
+	}
+
+	private static byte[] payload(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+
+	private static final class Recorder implements MessageHandler {
+
+		private final List<Message> messages = new ArrayList<>();
+
+		@Override
+		public void onMessage(Message message) {
+			this.messages.add(message);
+		}
+
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import dstrelec.nats.support.Fingerprints;
+import io.nats.client.Message;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class DeduplicatingMessageFilterStrategyTests {
+
+	private static final DeduplicationKeyExtractor DATA_KEY =
+			message -> Long.parseLong(new String(message.getData(), StandardCharsets.UTF_8));
+
+	@Test
+	public void filtersRepeatedKeys() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY);
+		assertFalse(strategy.filter(message(1)));
+		assertTrue(strategy.filter(message(1)));
+		assertFalse(strategy.filter(message(2)));
+		assertEquals(2, strategy.size());
+	}
+
+	@Test
+	public void messagesWithoutKeyAreNeverFiltered() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY);
+		assertFalse(strategy.filter(message(0)));
+		assertFalse(strategy.filter(message(0)));
+		strategy.processingFailed(message(0));
+		assertEquals(0, strategy.size());
+	}
+
+	@Test
+	public void failedProcessingReleasesTheKey() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY);
+		assertFalse(strategy.filter(message(1)));
+		strategy.processingFailed(message(1));
+		assertEquals(0, strategy.size());
+		assertFalse(strategy.filter(message(1)));
+		assertTrue(strategy.filter(message(1)));
+	}
+
+	@Test
+	public void evictsTheOldestKeyBeyondCapacity() {
+		// a capacity of 32 leaves two keys per stripe
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY, 32);
+		long[] keys = keysOfOneStripe(3);
+		assertFalse(strategy.filter(message(keys[0])));
+		assertFalse(strategy.filter(message(keys[1])));
+		assertFalse(strategy.filter(message(keys[2])));
+		assertTrue(strategy.filter(message(keys[1])));
+		assertTrue(strategy.filter(message(keys[2])));
+		assertFalse(strategy.filter(message(keys[0])));
+	}
+
+	@Test
+	public void releasedKeySeenAgainIsNotEvictedByItsStaleEntry() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY, 32);
+		long[] keys = keysOfOneStripe(2);
+		assertFalse(strategy.filter(message(keys[0])));
+		strategy.processingFailed(message(keys[0]));
+		assertFalse(strategy.filter(message(keys[0])));
+		// evicts the stale entry of the first insertion only
+		assertFalse(strategy.filter(message(keys[1])));
+		assertTrue(strategy.filter(message(keys[0])));
+		assertTrue(strategy.filter(message(keys[1])));
+	}
+
+	@Test
+	public void sizeIsBoundedByCapacity() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY, 16);
+		for (int i = 1; i <= 1000; i++) {
+			assertFalse(strategy.filter(message(i)));
+		}
+		assertTrue(strategy.size() <= 16);
+		assertTrue(strategy.filter(message(1000)));
+	}
+
+	@Test
+	public void keysExpire() throws InterruptedException {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY);
+		strategy.setTimeToLive(10);
+		assertFalse(strategy.filter(message(1)));
+		Thread.sleep(50);
+		assertFalse(strategy.filter(message(1)));
+	}
+
+	@Test
+	public void fingerprintsOfSubjectAndPayload() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(60000);
+		assertFalse(strategy.filter(new Message("orders", null, "a".getBytes(StandardCharsets.UTF_8))));
+		assertTrue(strategy.filter(new Message("orders", null, "a".getBytes(StandardCharsets.UTF_8))));
+		assertFalse(strategy.filter(new Message("invoices", null, "a".getBytes(StandardCharsets.UTF_8))));
+		assertFalse(strategy.filter(new Message("orders", null, "b".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fingerprintsRequireATimeToLive() {
+		new DeduplicatingMessageFilterStrategy(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fingerprintsRejectAZeroTimeToLive() {
+		new DeduplicatingMessageFilterStrategy(60000).setTimeToLive(0);
+	}
+
+	@Test
+	public void keysMayBeKeptByCapacityOnly() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(DATA_KEY);
+		strategy.setTimeToLive(0);
+		assertFalse(strategy.filter(message(1)));
+		assertTrue(strategy.filter(message(1)));
+	}
+
+	private static Message message(long key) {
+		return new Message("subject", null, Long.toString(key).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Keys sharing a stripe, which is selected by the top four bits of the mixed key.
+	 */
+	private static long[] keysOfOneStripe(int count) {
+		long[] keys = new long[count];
+		int found = 0;
+		for (long key = 1; found < count; key++) {
+			if (Fingerprints.mix(key) >>> 60 == 0) {
+				keys[found++] = key;
+			}
+		}
+		return keys;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import dstrelec.nats.support.Fingerprints;
+import dstrelec.nats.support.converter.CodecRegistry;
+import dstrelec.nats.support.converter.Envelope;
+import dstrelec.nats.support.converter.HeaderBlock;
+import dstrelec.nats.support.converter.StringJsonMessageConverter;
+import io.nats.client.Message;
+
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Dario Strelec
+ */
+public class HeaderKeyExtractorTests {
+
+	private final HeaderKeyExtractor extractor = new HeaderKeyExtractor("correlationId");
+
+	@Test
+	public void keyOfTheHeaderValue() {
+		long key = this.extractor.getKey(publish("order", "c-1"));
+		assertEquals(Fingerprints.of(null, "c-1".getBytes(StandardCharsets.UTF_8)), key);
+		assertEquals(key, this.extractor.getKey(publish("other payload", "c-1")));
+		assertNotEquals(key, this.extractor.getKey(publish("order", "c-2")));
+	}
+
+	@Test
+	public void messagesWithoutTheHeaderHaveNoKey() {
+		assertEquals(0, this.extractor.getKey(publish("order", null)));
+		assertEquals(0, this.extractor.getKey(new Message("orders", null, "{}".getBytes(StandardCharsets.UTF_8))));
+		assertEquals(0, this.extractor.getKey(new Message("orders", null, null)));
+	}
+
+	@Test
+	public void malformedHeaderBlocksHaveNoKey() {
+		byte[] headers = HeaderBlock.encode(Collections.singletonMap("correlationId", "c-1"));
+		headers[headers.length - 4] = 0x7f;
+		assertEquals(0, this.extractor.getKey(new Message("orders", null,
+				Envelope.wrap(CodecRegistry.JSON, headers, new byte[] { '1' }))));
+	}
+
+	@Test
+	public void deduplicatesRepublishedMessages() {
+		DeduplicatingMessageFilterStrategy strategy = new DeduplicatingMessageFilterStrategy(this.extractor);
+		assertFalse(strategy.filter(publish("order", "c-1")));
+		assertTrue(strategy.filter(publish("order", "c-1")));
+		assertFalse(strategy.filter(publish("order", "c-2")));
+		assertFalse(strategy.filter(publish("order", null)));
+		assertFalse(strategy.filter(publish("order", null)));
+	}
+
+	@Test
+	public void deduplicatesEnvelopedJsonByField() {
+		DeduplicatingMessageFilterStrategy strategy =
+				new DeduplicatingMessageFilterStrategy(new JsonFieldKeyExtractor("id"));
+		assertFalse(strategy.filter(publish(Collections.singletonMap("id", "1"), null)));
+		assertTrue(strategy.filter(publish(Collections.singletonMap("id", "1"), null)));
+	}
+
+	private static Message publish(Object payload, String correlationId) {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setCodecRegistry(new CodecRegistry().register(CodecRegistry.JSON, converter));
+		converter.setContentTypeId(CodecRegistry.JSON);
+		MessageBuilder<Object> builder = MessageBuilder.withPayload(payload).setHeader("other", 1);
+		if (correlationId != null) {
+			builder.setHeader("correlationId", correlationId);
+		}
+		return converter.fromMessage(builder.build(), "orders");
+	}
+
+}
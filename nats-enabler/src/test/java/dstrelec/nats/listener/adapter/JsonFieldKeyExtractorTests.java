@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dstrelec.nats.config.MethodNatsListenerEndpoint;
+import dstrelec.nats.listener.RoutingCondition;
+import dstrelec.nats.support.converter.CborMessageConverter;
+import dstrelec.nats.support.converter.CodecRegistry;
+import dstrelec.nats.support.converter.KryoMessageConverter;
+import dstrelec.nats.support.converter.MessagingMessageConverter;
+import dstrelec.nats.support.converter.SmileMessageConverter;
+import dstrelec.nats.support.converter.StringJsonMessageConverter;
+import dstrelec.nats.support.converter.TypeIdRegistry;
+import io.nats.client.Message;
+
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Dario Strelec
+ */
+public class JsonFieldKeyExtractorTests {
+
+	@Test
+	public void readsJsonText() {
+		JsonFieldKeyExtractor extractor = new JsonFieldKeyExtractor("tenant");
+		assertEquals("a", extractor.extractValue(json("{\"nested\":{\"tenant\":\"b\"},\"list\":[1],\"tenant\":\"a\"}")));
+		assertEquals("42", extractor.extractValue(json("{\"tenant\":42}")));
+		assertNull(extractor.extractValue(json("{\"tenant\":null}")));
+		assertNull(extractor.extractValue(json("{\"tenant\":{\"id\":1}}")));
+		assertNull(extractor.extractValue(json("{\"other\":\"a\"}")));
+		assertNull(extractor.extractValue(json("[\"tenant\"]")));
+		assertNull(extractor.extractValue(json("{\"tenant\":")));
+		assertNull(extractor.extractValue(new Message("subject", null, new byte[0])));
+	}
+
+	@Test
+	public void keysOfEqualValuesAreEqual() {
+		JsonFieldKeyExtractor extractor = new JsonFieldKeyExtractor("id");
+		assertEquals(extractor.getKey(json("{\"id\":\"1\"}")), extractor.getKey(json("{\"x\":0,\"id\":\"1\"}")));
+		assertNotEquals(extractor.getKey(json("{\"id\":\"1\"}")), extractor.getKey(json("{\"id\":\"2\"}")));
+		assertEquals(0, extractor.getKey(json("{\"x\":0}")));
+	}
+
+	@Test
+	public void readsEnvelopedPayloadsThroughTheirCodec() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		CodecRegistry codecRegistry = new CodecRegistry()
+				.register(CodecRegistry.JSON, converter)
+				.register(CodecRegistry.SMILE, new SmileMessageConverter())
+				.register(CodecRegistry.CBOR, new CborMessageConverter())
+				.register(CodecRegistry.KRYO, new KryoMessageConverter());
+		converter.setCodecRegistry(codecRegistry);
+		JsonFieldKeyExtractor extractor = new JsonFieldKeyExtractor("tenant", converter);
+		for (int contentTypeId : new int[] { CodecRegistry.JSON, CodecRegistry.SMILE, CodecRegistry.CBOR }) {
+			MessagingMessageConverter publisher = new MessagingMessageConverter();
+			publisher.setCodecRegistry(codecRegistry);
+			publisher.setContentTypeId(contentTypeId);
+			assertEquals("a", extractor.extractValue(publish(publisher, order("a"))));
+		}
+		MessagingMessageConverter kryoPublisher = new MessagingMessageConverter();
+		kryoPublisher.setCodecRegistry(codecRegistry);
+		kryoPublisher.setContentTypeId(CodecRegistry.KRYO);
+		assertNull(extractor.extractValue(publish(kryoPublisher, "a")));
+	}
+
+	@Test
+	public void skipsTheTypeId() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", LinkedHashMap.class));
+		Message message = publish(converter, order("a"));
+		assertEquals(0x01, message.getData()[0]);
+		assertEquals("a", new JsonFieldKeyExtractor("tenant", converter).extractValue(message));
+		assertEquals("a", new JsonFieldKeyExtractor("tenant").extractValue(message));
+	}
+
+	@Test
+	public void readsTheFormatOfTheConverter() {
+		SmileMessageConverter converter = new SmileMessageConverter();
+		Message message = publish(converter, order("a"));
+		assertEquals("a", new JsonFieldKeyExtractor("tenant", converter).extractValue(message));
+		assertNull(new JsonFieldKeyExtractor("tenant").extractValue(message));
+	}
+
+	@Test
+	public void jsonEnvelopesWithoutConverter() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setCodecRegistry(new CodecRegistry().register(CodecRegistry.JSON, converter));
+		converter.setContentTypeId(CodecRegistry.JSON);
+		assertEquals("a", new JsonFieldKeyExtractor("tenant").extractValue(publish(converter, order("a"))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsConvertersWithoutFields() {
+		new JsonFieldKeyExtractor("tenant", new KryoMessageConverter());
+	}
+
+	@Test
+	public void routesEnvelopedMessages() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setCodecRegistry(new CodecRegistry().register(CodecRegistry.JSON, converter));
+		converter.setContentTypeId(CodecRegistry.JSON);
+		RoutingCondition condition = new RoutingCondition(new JsonFieldKeyExtractor("tenant", converter), "a");
+		assertTrue(condition.matches(publish(converter, order("a"))));
+		assertFalse(condition.matches(publish(converter, order("b"))));
+	}
+
+	@Test
+	public void extractorsForTheSameConverterAreEqual() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		assertEquals(new JsonFieldKeyExtractor("tenant", converter), new JsonFieldKeyExtractor("tenant", converter));
+		assertNotEquals(new JsonFieldKeyExtractor("tenant", converter), new JsonFieldKeyExtractor("tenant"));
+		assertNotEquals(new JsonFieldKeyExtractor("id", converter), new JsonFieldKeyExtractor("tenant", converter));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void endpointRejectsRoutingFieldWithoutFields() {
+		MethodNatsListenerEndpoint endpoint = new MethodNatsListenerEndpoint();
+		endpoint.setRoutingField("tenant", "a");
+		endpoint.setupListenerContainer(null, new KryoMessageConverter());
+	}
+
+	private static Map<String, Object> order(String tenant) {
+		Map<String, Object> order = new LinkedHashMap<>();
+		order.put("id", 1);
+		order.put("lines", Collections.singletonList(Collections.singletonMap("tenant", "x")));
+		order.put("tenant", tenant);
+		return order;
+	}
+
+	private static Message publish(MessagingMessageConverter converter, Object payload) {
+		return converter.fromMessage(MessageBuilder.withPayload(payload).build(), "orders");
+	}
+
+	private static Message json(String json) {
+		return new Message("orders", null, json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.listener.adapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.messaging.handler.annotation.support.MethodArgumentNotValidException;
+import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * @author Dario Strelec
+ */
+public class MethodHandleInvokerTests {
+
+	private final DefaultMessageHandlerMethodFactory factory = new DefaultMessageHandlerMethodFactory();
+
+	private final Listener listener = new Listener();
+
+	public MethodHandleInvokerTests() {
+		this.factory.afterPropertiesSet();
+	}
+
+	@Test
+	public void payloadOfTheParameterTypeIsPassedDirectly() throws Exception {
+		assertEquals("handled order", invoker("string").invoke(MessageBuilder.withPayload("order").build()));
+	}
+
+	@Test
+	public void payloadNeedingConversionFallsBackToTheHandlerMethod() throws Exception {
+		assertEquals(43, invoker("integer").invoke(MessageBuilder.withPayload("42").build()));
+	}
+
+	@Test(expected = MethodArgumentNotValidException.class)
+	public void emptyPayloadIsRejectedByTheHandlerMethod() throws Exception {
+		invoker("string").invoke(MessageBuilder.withPayload("").build());
+	}
+
+	@Test
+	public void headersAreExtracted() throws Exception {
+		Message<String> message = MessageBuilder.withPayload("order").setHeader("tenant", "acme").build();
+		assertEquals("order for acme", invoker("header").invoke(message));
+		assertSame(message.getHeaders(), invoker("headers").invoke(message));
+		assertEquals("acme", invoker("headerMap").invoke(message));
+	}
+
+	@Test
+	public void headerNeedingConversionFallsBackToTheHandlerMethod() throws Exception {
+		Message<String> message = MessageBuilder.withPayload("order").setHeader("count", "5").build();
+		assertEquals(6, invoker("count").invoke(message));
+	}
+
+	@Test(expected = MessageHandlingException.class)
+	public void missingHeaderIsReportedByTheHandlerMethod() throws Exception {
+		invoker("header").invoke(MessageBuilder.withPayload("order").build());
+	}
+
+	@Test
+	public void messageWithAnotherPayloadTypeFallsBackToTheHandlerMethod() throws Exception {
+		Message<Integer> integer = MessageBuilder.withPayload(7).build();
+		assertSame(integer, invoker("message").invoke(integer));
+		Object converted = invoker("message").invoke(MessageBuilder.withPayload("7").build());
+		assertEquals(7, ((Message<?>) converted).getPayload());
+	}
+
+	@Test
+	public void providedArgumentsTakePrecedence() throws Exception {
+		io.nats.client.Message raw = new io.nats.client.Message("orders", null, new byte[0]);
+		assertEquals("order from orders", invoker("raw").invoke(MessageBuilder.withPayload("order").build(), raw));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void exceptionsOfTheMethodAreThrownUnwrapped() throws Exception {
+		invoker("failing").invoke(MessageBuilder.withPayload("order").build());
+	}
+
+	@Test
+	public void unsupportedParametersUseReflectiveInvocation() {
+		assertNull(MethodHandleInvoker.create(handlerMethod("expression")));
+		assertNull(MethodHandleInvoker.create(handlerMethod("unnamedHeader")));
+	}
+
+	private MethodHandleInvoker invoker(String name) {
+		MethodHandleInvoker invoker = MethodHandleInvoker.create(handlerMethod(name));
+		assertNotNull(invoker);
+		return invoker;
+	}
+
+	private InvocableHandlerMethod handlerMethod(String name) {
+		for (Method method : ReflectionUtils.getUniqueDeclaredMethods(Listener.class)) {
+			if (method.getName().equals(name)) {
+				return this.factory.createInvocableHandlerMethod(this.listener, method);
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+
+
+	public static class Listener {
+
+		public String string(String payload) {
+			return "handled " + payload;
+		}
+
+		public int integer(Integer payload) {
+			return payload + 1;
+		}
+
+		public String header(@Payload String payload, @Header("tenant") String tenant) {
+			return payload + " for " + tenant;
+		}
+
+		public MessageHeaders headers(MessageHeaders headers) {
+			return headers;
+		}
+
+		public Object headerMap(@Headers Map<String, Object> headers) {
+			return headers.get("tenant");
+		}
+
+		public int count(@Header("count") Integer count) {
+			return count + 1;
+		}
+
+		public Message<Integer> message(Message<Integer> message) {
+			return message;
+		}
+
+		public String raw(String payload, io.nats.client.Message raw) {
+			return payload + " from " + raw.getSubject();
+		}
+
+		public String failing(String payload) {
+			throw new IllegalStateException("expected");
+		}
+
+		public String expression(@Payload("length()") Integer length) {
+			return null;
+		}
+
+		public String unnamedHeader(@Header String tenant) {
+			return tenant;
+		}
+
+	}
+
+}
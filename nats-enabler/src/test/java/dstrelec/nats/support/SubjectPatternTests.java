@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class SubjectPatternTests {
+
+	@Test
+	public void compileReplacesVariablesWithWildcards() {
+		SubjectPattern pattern = SubjectPattern.compile("orders.{region}.{type}.created");
+		assertEquals("orders.*.*.created", pattern.getSubject());
+		assertEquals("orders.{region}.{type}.created", pattern.getPattern());
+		assertTrue(pattern.hasVariables());
+		assertEquals(1, pattern.indexOf("region"));
+		assertEquals(2, pattern.indexOf("type"));
+		assertEquals(-1, pattern.indexOf("customer"));
+	}
+
+	@Test
+	public void compileWithoutVariables() {
+		SubjectPattern pattern = SubjectPattern.compile("orders.*.created");
+		assertEquals("orders.*.created", pattern.getSubject());
+		assertFalse(pattern.hasVariables());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compileRejectsDuplicateVariables() {
+		SubjectPattern.compile("orders.{region}.{region}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compileRejectsEmptyPattern() {
+		SubjectPattern.compile("");
+	}
+
+	@Test
+	public void matches() {
+		SubjectPattern pattern = SubjectPattern.compile("orders.{region}.created");
+		assertTrue(pattern.matches("orders.eu.created"));
+		assertFalse(pattern.matches("orders.eu.deleted"));
+		assertFalse(pattern.matches("orders.eu"));
+		assertFalse(pattern.matches("orders.eu.created.late"));
+		assertFalse(pattern.matches("orders..created.x"));
+	}
+
+	@Test
+	public void matchesFullWildcard() {
+		SubjectPattern pattern = SubjectPattern.compile("orders.{region}.>");
+		assertTrue(pattern.matches("orders.eu.created"));
+		assertTrue(pattern.matches("orders.eu.created.late"));
+		assertFalse(pattern.matches("orders.eu"));
+		assertFalse(pattern.matches("orders.eu."));
+	}
+
+	@Test
+	public void token() {
+		assertEquals("orders", SubjectPattern.token("orders.eu.created", 0));
+		assertEquals("eu", SubjectPattern.token("orders.eu.created", 1));
+		assertEquals("created", SubjectPattern.token("orders.eu.created", 2));
+		assertNull(SubjectPattern.token("orders.eu.created", 3));
+		assertEquals("", SubjectPattern.token("orders..created", 1));
+	}
+
+}
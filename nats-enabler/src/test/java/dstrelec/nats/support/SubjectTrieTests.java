@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class SubjectTrieTests {
+
+	@Test
+	public void matchLiteralAndWildcards() {
+		SubjectTrie<String> trie = new SubjectTrie<>();
+		trie.add("orders.created", "literal");
+		trie.add("orders.*", "single");
+		trie.add("orders.>", "full");
+		trie.add(">", "all");
+		trie.add("invoices.*", "other");
+		assertEquals(Arrays.asList("all", "full", "literal", "single"), match(trie, "orders.created"));
+		assertEquals(Arrays.asList("all", "full"), match(trie, "orders.created.late"));
+		assertEquals(Collections.singletonList("all"), match(trie, "orders"));
+		assertEquals(Arrays.asList("all", "other"), match(trie, "invoices.paid"));
+	}
+
+	@Test
+	public void fullWildcardRequiresAToken() {
+		SubjectTrie<String> trie = new SubjectTrie<>();
+		trie.add("orders.>", "full");
+		assertEquals(Collections.emptyList(), match(trie, "orders"));
+		assertEquals(Collections.singletonList("full"), match(trie, "orders.x.y.z"));
+	}
+
+	@Test
+	public void matchCountsValues() {
+		SubjectTrie<String> trie = new SubjectTrie<>();
+		trie.add("orders.*", "first");
+		trie.add("orders.*", "second");
+		assertEquals(2, trie.match("orders.created", null, (value, context) -> { }));
+		assertEquals(0, trie.match("orders", null, (value, context) -> { }));
+	}
+
+	@Test
+	public void remove() {
+		SubjectTrie<String> trie = new SubjectTrie<>();
+		assertTrue(trie.isEmpty());
+		trie.add("orders.*", "first");
+		trie.add("orders.*", "second");
+		trie.remove("orders.*", "first");
+		assertEquals(Collections.singletonList("second"), match(trie, "orders.created"));
+		trie.remove("orders.*", "unknown");
+		trie.remove("invoices.*", "second");
+		assertFalse(trie.isEmpty());
+		trie.remove("orders.*", "second");
+		assertTrue(trie.isEmpty());
+		assertEquals(Collections.emptyList(), match(trie, "orders.created"));
+	}
+
+	@Test
+	public void lookupsKeepTheirSnapshot() {
+		SubjectTrie<String> trie = new SubjectTrie<>();
+		trie.add("orders.*", "first");
+		List<String> matched = new ArrayList<>();
+		trie.match("orders.created", matched, (value, context) -> {
+			trie.add("orders.*", "added");
+			context.add(value);
+		});
+		assertEquals(Collections.singletonList("first"), matched);
+		assertEquals(Arrays.asList("added", "first"), match(trie, "orders.created"));
+	}
+
+	private static List<String> match(SubjectTrie<String> trie, String subject) {
+		List<String> matched = new ArrayList<>();
+		trie.match(subject, matched, (value, context) -> context.add(value));
+		Collections.sort(matched);
+		return matched;
+	}
+
+}
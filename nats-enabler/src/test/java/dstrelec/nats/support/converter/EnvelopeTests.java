@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class EnvelopeTests {
+
+	private static final byte[] PAYLOAD = "payload".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void roundTripWithoutHeaders() {
+		byte[] data = Envelope.wrap(42, null, PAYLOAD);
+		assertTrue(Envelope.isEnvelope(data));
+		assertEquals(42, Envelope.getContentTypeId(data));
+		assertEquals(-1, Envelope.getHeadersOffset(data));
+		assertEquals(0, Envelope.getHeadersLength(data));
+		assertArrayEquals(PAYLOAD, Arrays.copyOfRange(data, Envelope.getPayloadOffset(data), data.length));
+	}
+
+	@Test
+	public void roundTripWithHeaders() {
+		byte[] headers = { 1, 2, 3 };
+		byte[] data = Envelope.wrap(255, headers, PAYLOAD);
+		assertTrue(Envelope.isEnvelope(data));
+		assertEquals(255, Envelope.getContentTypeId(data));
+		int headersOffset = Envelope.getHeadersOffset(data);
+		assertArrayEquals(headers, Arrays.copyOfRange(data, headersOffset,
+				headersOffset + Envelope.getHeadersLength(data)));
+		assertArrayEquals(PAYLOAD, Arrays.copyOfRange(data, Envelope.getPayloadOffset(data), data.length));
+	}
+
+	@Test
+	public void emptyPayload() {
+		byte[] data = Envelope.wrap(0, new byte[0], new byte[0]);
+		assertTrue(Envelope.isEnvelope(data));
+		assertEquals(data.length, Envelope.getPayloadOffset(data));
+	}
+
+	@Test
+	public void notAnEnvelope() {
+		assertFalse(Envelope.isEnvelope(null));
+		assertFalse(Envelope.isEnvelope(new byte[0]));
+		assertFalse(Envelope.isEnvelope(new byte[] { Envelope.MAGIC, 1 }));
+		assertFalse(Envelope.isEnvelope(PAYLOAD));
+	}
+
+	@Test
+	public void truncatedHeaderBlockIsNotAnEnvelope() {
+		byte[] data = Envelope.wrap(1, new byte[] { 1, 2, 3 }, new byte[0]);
+		assertFalse(Envelope.isEnvelope(Arrays.copyOf(data, data.length - 1)));
+		assertFalse(Envelope.isEnvelope(Arrays.copyOf(data, 4)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void contentTypeIdOutOfRange() {
+		Envelope.wrap(256, null, PAYLOAD);
+	}
+
+	@Test(expected = ConversionException.class)
+	public void headerBlockTooLarge() {
+		Envelope.wrap(1, new byte[0x10000], PAYLOAD);
+	}
+
+}
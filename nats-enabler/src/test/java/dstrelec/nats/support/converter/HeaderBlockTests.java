@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Dario Strelec
+ */
+public class HeaderBlockTests {
+
+	@Test
+	public void roundTrip() {
+		Map<String, Object> headers = new LinkedHashMap<>();
+		headers.put("string", "value");
+		headers.put("bytes", new byte[] { 1, 2 });
+		headers.put("integer", -42);
+		headers.put("long", Long.MAX_VALUE);
+		headers.put("boolean", true);
+		headers.put("other", 1.5d);
+		headers.put("null", null);
+		headers.put("\u00fcn\u00efcode", "v\u00e4lue");
+		byte[] block = HeaderBlock.encode(headers);
+		HeaderBlock.validate(block, 0, block.length);
+
+		assertEquals(7, HeaderBlock.count(block, 0, block.length));
+		assertEquals("value", HeaderBlock.get(block, 0, block.length, "string"));
+		assertArrayEquals(new byte[] { 1, 2 }, (byte[]) HeaderBlock.get(block, 0, block.length, "bytes"));
+		assertEquals(-42, HeaderBlock.get(block, 0, block.length, "integer"));
+		assertEquals(Long.MAX_VALUE, HeaderBlock.get(block, 0, block.length, "long"));
+		assertEquals(true, HeaderBlock.get(block, 0, block.length, "boolean"));
+		assertEquals("1.5", HeaderBlock.get(block, 0, block.length, "other"));
+		assertEquals("v\u00e4lue", HeaderBlock.get(block, 0, block.length, "\u00fcn\u00efcode"));
+		assertNull(HeaderBlock.get(block, 0, block.length, "null"));
+		assertNull(HeaderBlock.get(block, 0, block.length, "strin"));
+		assertNull(HeaderBlock.get(block, 0, block.length, "strings"));
+		assertEquals(-1, HeaderBlock.indexOf(block, 0, block.length, "missing"));
+
+		Map<String, Object> decoded = new HashMap<>();
+		HeaderBlock.decodeInto(block, 0, block.length, decoded);
+		assertEquals(7, decoded.size());
+		assertEquals(-42, decoded.get("integer"));
+	}
+
+	@Test
+	public void readsInPlace() {
+		byte[] block = HeaderBlock.encode(Collections.singletonMap("name", "value"));
+		byte[] data = new byte[block.length + 4];
+		System.arraycopy(block, 0, data, 2, block.length);
+		HeaderBlock.validate(data, 2, block.length);
+		assertEquals("value", HeaderBlock.get(data, 2, block.length, "name"));
+	}
+
+	@Test
+	public void emptyBlock() {
+		byte[] block = HeaderBlock.encode(new HashMap<String, Object>());
+		assertEquals(0, block.length);
+		HeaderBlock.validate(block, 0, 0);
+		assertEquals(0, HeaderBlock.count(block, 0, 0));
+	}
+
+	@Test(expected = ConversionException.class)
+	public void nameTooLong() {
+		char[] name = new char[256];
+		Arrays.fill(name, 'a');
+		HeaderBlock.encode(Collections.singletonMap(new String(name), "value"));
+	}
+
+	@Test(expected = ConversionException.class)
+	public void valueTooLong() {
+		HeaderBlock.encode(Collections.singletonMap("name", new byte[0x10000]));
+	}
+
+	@Test
+	public void validateRejectsTruncatedBlocks() {
+		byte[] block = HeaderBlock.encode(Collections.singletonMap("name", "value"));
+		for (int length = 1; length < block.length; length++) {
+			assertInvalid(block, 0, length);
+		}
+	}
+
+	@Test
+	public void validateRejectsBlockBeyondData() {
+		byte[] block = HeaderBlock.encode(Collections.singletonMap("name", "value"));
+		assertInvalid(block, 1, block.length);
+		assertInvalid(block, -1, block.length);
+		assertInvalid(block, 0, -1);
+	}
+
+	@Test
+	public void validateRejectsNameBeyondBlock() {
+		assertInvalid(new byte[] { (byte) 0xff, 'a' }, 0, 2);
+	}
+
+	@Test
+	public void validateRejectsValueBeyondBlock() {
+		byte[] block = { 1, 'a', 0, (byte) 0xff, (byte) 0xff, 'v' };
+		assertInvalid(block, 0, block.length);
+	}
+
+	@Test
+	public void validateRejectsFixedSizeValuesOfTheWrongLength() {
+		assertInvalid(new byte[] { 1, 'a', 2, 0, 1, 0 }, 0, 6);
+		assertInvalid(new byte[] { 1, 'a', 3, 0, 4, 0, 0, 0, 0 }, 0, 9);
+		assertInvalid(new byte[] { 1, 'a', 4, 0, 0 }, 0, 5);
+	}
+
+	private static void assertInvalid(byte[] data, int offset, int length) {
+		try {
+			HeaderBlock.validate(data, offset, length);
+			fail("Expected ConversionException for " + Arrays.toString(data) + " at " + offset + ", " + length);
+		}
+		catch (ConversionException ex) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.nats.client.Message;
+
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Dario Strelec
+ */
+public class KryoMessageConverterTests {
+
+	@Test
+	public void roundTripDecodesTheSentClass() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.registerClass(Order.class);
+		converter.registerClass(ArrayList.class);
+		Message message = converter.fromMessage(MessageBuilder.withPayload(new Order("42", "apple", "pear")).build(),
+				"orders");
+		assertEquals("orders", message.getSubject());
+
+		Object payload = converter.toMessage(message, Object.class).getPayload();
+		assertTrue(payload instanceof Order);
+		assertEquals("42", ((Order) payload).id);
+		assertEquals(Arrays.asList("apple", "pear"), ((Order) payload).items);
+	}
+
+	@Test
+	public void rejectsUnregisteredClassesByDefault() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		try {
+			converter.fromMessage(MessageBuilder.withPayload(new Order("1")).build(), "orders");
+			fail("Expected ConversionException");
+		}
+		catch (ConversionException e) {
+			assertEquals("Failed to convert to Kryo", e.getMessage().substring(0, 25));
+		}
+
+		KryoMessageConverter sender = new KryoMessageConverter();
+		sender.setRegistrationRequired(false);
+		Message message = sender.fromMessage(MessageBuilder.withPayload(new Order("1")).build(), "orders");
+		try {
+			converter.toPayload(message, Object.class);
+			fail("Expected ConversionException");
+		}
+		catch (ConversionException e) {
+			assertEquals("Failed to convert from Kryo", e.getMessage().substring(0, 27));
+		}
+	}
+
+	@Test
+	public void acceptsUnregisteredClassesWhenNotRequired() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.setRegistrationRequired(false);
+		Message message = converter.fromMessage(MessageBuilder.withPayload(new Order("7", "fig")).build(), "orders");
+		Order received = (Order) converter.toPayload(message, Order.class);
+		assertEquals("7", received.id);
+		assertEquals(Arrays.asList("fig"), received.items);
+	}
+
+	@Test
+	public void bytesAreSentAndReceivedUnchanged() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		byte[] data = { 1, 2, 3 };
+		Message message = converter.fromMessage(MessageBuilder.withPayload(data).build(), "raw");
+		assertArrayEquals(data, message.getData());
+		assertArrayEquals(data, (byte[]) converter.toPayload(message, byte[].class));
+	}
+
+	@Test
+	public void rejectsRegistrationOnceUsed() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.registerClass(Order.class);
+		converter.registerClass(ArrayList.class);
+		converter.fromMessage(MessageBuilder.withPayload(new Order("1")).build(), "orders");
+		try {
+			converter.registerClass(String.class);
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("Classes must be registered before the converter is used", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectsPayloadsExceedingTheMaxBufferSize() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.setRegistrationRequired(false);
+		converter.setBufferSize(16);
+		converter.setMaxBufferSize(32);
+		char[] items = new char[64];
+		Arrays.fill(items, 'x');
+		try {
+			converter.fromMessage(MessageBuilder.withPayload(new Order("1", new String(items))).build(), "orders");
+			fail("Expected ConversionException");
+		}
+		catch (ConversionException e) {
+			assertEquals("Failed to convert to Kryo", e.getMessage().substring(0, 25));
+		}
+	}
+
+	@Test
+	public void roundTripWithTypeId() {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.registerClass(Order.class);
+		converter.registerClass(ArrayList.class);
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", Order.class));
+		Message message = converter.fromMessage(MessageBuilder.withPayload(new Order("9")).build(), "orders");
+		assertEquals(7, TypeIdRegistry.prefixLength(message.getData(), 0, message.getData().length));
+		assertEquals("9", ((Order) converter.toPayload(message, Object.class)).id);
+		byte[] data = (byte[]) converter.toPayload(message, byte[].class);
+		assertArrayEquals(Arrays.copyOfRange(message.getData(), 7, message.getData().length), data);
+	}
+
+	public static class Order {
+
+		private final String id;
+
+		private final List<String> items;
+
+		public Order(String id, String... items) {
+			this.id = id;
+			this.items = new ArrayList<>(Arrays.asList(items));
+		}
+
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.nats.client.Message;
+
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * @author Dario Strelec
+ */
+public class SmileMessageConverterTests {
+
+	private final SmileMessageConverter converter = new SmileMessageConverter();
+
+	@Test
+	public void roundTrip() throws Exception {
+		Order order = order("42", "apple", "pear");
+		Message message = this.converter.fromMessage(MessageBuilder.withPayload(order).build(), "orders");
+		assertEquals("orders", message.getSubject());
+		assertTrue(new ObjectMapper(new SmileFactory()).readTree(message.getData()).isObject());
+
+		org.springframework.messaging.Message<?> converted = this.converter.toMessage(message, Order.class);
+		Order received = (Order) converted.getPayload();
+		assertEquals("42", received.id);
+		assertEquals(Arrays.asList("apple", "pear"), received.items);
+		assertEquals("42", ((Order) this.converter.toPayload(message, Order.class)).id);
+	}
+
+	@Test
+	public void ignoresUnknownProperties() throws Exception {
+		byte[] data = new ObjectMapper(new SmileFactory())
+				.writeValueAsBytes(Collections.singletonMap("number", 7));
+		Order received = (Order) this.converter.toPayload(new Message("orders", null, data), Order.class);
+		assertNull(received.id);
+	}
+
+	@Test
+	public void throwsConversionExceptionForMalformedData() {
+		try {
+			this.converter.toPayload(new Message("orders", null, new byte[] { (byte) 0xff, 0x00, 0x13 }),
+					Order.class);
+			fail("Expected ConversionException");
+		}
+		catch (ConversionException e) {
+			assertTrue(e.getMessage().startsWith("Failed to convert from Smile"));
+		}
+	}
+
+	@Test
+	public void roundTripInEnvelope() {
+		SmileMessageConverter converter = new SmileMessageConverter();
+		converter.setCodecRegistry(new CodecRegistry().register(7, converter));
+		converter.setContentTypeId(7);
+		Message message = converter.fromMessage(MessageBuilder.withPayload(order("1", "fig")).build(), "orders");
+		assertTrue(Envelope.isEnvelope(message.getData()));
+		assertEquals(7, Envelope.getContentTypeId(message.getData()));
+		Order received = (Order) converter.toPayload(message, Order.class);
+		assertEquals("1", received.id);
+		assertEquals(Collections.singletonList("fig"), received.items);
+	}
+
+	@Test
+	public void rejectsMapperOfAnotherFormat() {
+		try {
+			new SmileMessageConverter(new ObjectMapper());
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("The mapper must use a SmileFactory"));
+		}
+	}
+
+	private static Order order(String id, String... items) {
+		Order order = new Order();
+		order.id = id;
+		order.items = Arrays.asList(items);
+		return order;
+	}
+
+	public static class Order {
+
+		public String id;
+
+		public List<String> items;
+
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dstrelec.nats.support.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.nats.client.Message;
+
+import org.junit.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author Dario Strelec
+ */
+public class TypeIdRegistryTests {
+
+	@Test
+	public void registerAndLookUp() {
+		TypeIdRegistry registry = new TypeIdRegistry().register("order", Order.class);
+		assertEquals(Order.class, registry.getType("order"));
+		assertEquals("order", registry.getTypeId(Order.class));
+		assertArrayEquals(new byte[] { TypeIdRegistry.MARKER, 5, 'o', 'r', 'd', 'e', 'r' },
+				registry.getPrefix(Order.class));
+		assertNull(registry.getType("invoice"));
+		assertNull(registry.getTypeId(Invoice.class));
+		assertNull(registry.getPrefix(Invoice.class));
+	}
+
+	@Test
+	public void registeringTheSameTypeAgainIsAllowed() {
+		TypeIdRegistry registry = new TypeIdRegistry().register("order", Order.class).register("order", Order.class);
+		assertEquals(Order.class, registry.getType("order"));
+	}
+
+	@Test
+	public void rejectsIdRegisteredForAnotherType() {
+		TypeIdRegistry registry = new TypeIdRegistry().register("order", Order.class);
+		try {
+			registry.register("order", Invoice.class);
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Type id 'order' is already registered"));
+		}
+		assertEquals(Order.class, registry.getType("order"));
+	}
+
+	@Test
+	public void rejectsTypeRegisteredWithAnotherId() {
+		TypeIdRegistry registry = new TypeIdRegistry().register("order", Order.class);
+		try {
+			registry.register("purchase", Order.class);
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().endsWith("is already registered with another id"));
+		}
+		assertNull(registry.getType("purchase"));
+		assertEquals("order", registry.getTypeId(Order.class));
+	}
+
+	@Test
+	public void rejectsIdLongerThan255Bytes() {
+		char[] id = new char[256];
+		Arrays.fill(id, 'x');
+		TypeIdRegistry registry = new TypeIdRegistry();
+		registry.register(new String(id, 0, 255), Order.class);
+		try {
+			registry.register(new String(id), Invoice.class);
+			fail("Expected IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("'id' must not exceed 255 bytes", e.getMessage());
+		}
+	}
+
+	@Test
+	public void prefixLength() {
+		byte[] data = { 9, TypeIdRegistry.MARKER, 2, 'i', 'd', '{', '}' };
+		assertEquals(4, TypeIdRegistry.prefixLength(data, 1, 6));
+		assertEquals(0, TypeIdRegistry.prefixLength(data, 0, 7));
+		assertEquals(0, TypeIdRegistry.prefixLength(data, 1, 3));
+		assertEquals(0, TypeIdRegistry.prefixLength(data, 1, 1));
+		assertEquals(0, TypeIdRegistry.prefixLength(new byte[] { TypeIdRegistry.MARKER, 0, 'x' }, 0, 3));
+		assertEquals(0, TypeIdRegistry.prefixLength(null, 0, 0));
+	}
+
+	@Test
+	public void converterDecodesRegisteredTypeForObjectListener() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", Order.class));
+		Order order = new Order();
+		order.id = "42";
+		Message message = converter.fromMessage(MessageBuilder.withPayload(order).build(), "orders");
+		byte[] data = message.getData();
+		assertEquals(7, TypeIdRegistry.prefixLength(data, 0, data.length));
+		assertEquals("{\"id\":\"42\"}", new String(data, 7, data.length - 7, StandardCharsets.UTF_8));
+
+		Object payload = converter.toMessage(message, Object.class).getPayload();
+		assertTrue(payload instanceof Order);
+		assertEquals("42", ((Order) payload).id);
+		assertEquals("42", ((Order) converter.toPayload(message, Order.class)).id);
+	}
+
+	@Test
+	public void converterDoesNotPrefixUnregisteredTypes() {
+		StringJsonMessageConverter converter = new StringJsonMessageConverter();
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", Order.class));
+		Invoice invoice = new Invoice();
+		invoice.number = 7;
+		Message message = converter.fromMessage(MessageBuilder.withPayload(invoice).build(), "invoices");
+		assertEquals("{\"number\":7}", new String(message.getData(), StandardCharsets.UTF_8));
+		assertEquals(7, ((Invoice) converter.toPayload(message, Invoice.class)).number);
+	}
+
+	@Test
+	public void converterLeavesDataWithUnknownIdIntact() {
+		MessagingMessageConverter converter = new MessagingMessageConverter();
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", Order.class));
+		byte[] data = { TypeIdRegistry.MARKER, 2, 'x', 'y', 3 };
+		Object payload = converter.toPayload(new Message("legacy", null, data), byte[].class);
+		assertArrayEquals(data, (byte[]) payload);
+	}
+
+	@Test
+	public void converterStripsRegisteredIdFromBytes() {
+		MessagingMessageConverter converter = new MessagingMessageConverter();
+		converter.setTypeIdRegistry(new TypeIdRegistry().register("order", Order.class));
+		byte[] data = { TypeIdRegistry.MARKER, 5, 'o', 'r', 'd', 'e', 'r', 3, 4 };
+		Object payload = converter.toPayload(new Message("orders", null, data), byte[].class);
+		assertArrayEquals(new byte[] { 3, 4 }, (byte[]) payload);
+	}
+
+	public static class Order {
+
+		public String id;
+
+	}
+
+	public static class Invoice {
+
+		public int number;
+
+	}
+
+}
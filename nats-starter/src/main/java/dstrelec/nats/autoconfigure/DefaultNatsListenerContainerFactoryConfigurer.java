@@ -18,6 +18,7 @@ package dstrelec.nats.autoconfigure;
 
 import dstrelec.nats.config.DefaultNatsListenerContainerFactory;
 import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.converter.MessageConverter;
 
 /**
  * Configure {@link DefaultNatsListenerContainerFactory} with sensible defaults.
@@ -29,6 +30,8 @@ public class DefaultNatsListenerContainerFactoryConfigurer {
 
 	private NatsProperties properties;
 
+	private MessageConverter messageConverter;
+
 	/**
 	 * Set the {@link NatsProperties} to use.
 	 * @param properties the properties
@@ -37,6 +40,14 @@ public class DefaultNatsListenerContainerFactoryConfigurer {
 		this.properties = properties;
 	}
 
+	/**
+	 * Set the {@link MessageConverter} to use.
+	 * @param messageConverter the message converter
+	 */
+	void setMessageConverter(MessageConverter messageConverter) {
+		this.messageConverter = messageConverter;
+	}
+
 	/**
 	 * Configure the specified Nats listener container factory. The factory can be
 	 * further tuned and default settings can be overridden.
@@ -48,6 +59,9 @@ public class DefaultNatsListenerContainerFactoryConfigurer {
 			DefaultNatsListenerContainerFactory listenerContainerFactory,
 			NatsConnectionFactory connectionFactory) {
 		listenerContainerFactory.setConnectionFactory(connectionFactory);
+		if (this.messageConverter != null) {
+			listenerContainerFactory.setMessageConverter(this.messageConverter);
+		}
 	}
 
 }
\ No newline at end of file
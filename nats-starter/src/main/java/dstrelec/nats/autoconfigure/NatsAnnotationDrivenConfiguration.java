@@ -20,6 +20,8 @@ import dstrelec.nats.annotation.EnableNats;
 import dstrelec.nats.config.DefaultNatsListenerContainerFactory;
 import dstrelec.nats.config.NatsListenerConfigUtils;
 import dstrelec.nats.core.NatsConnectionFactory;
+import dstrelec.nats.support.converter.MessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
@@ -37,8 +39,11 @@ class NatsAnnotationDrivenConfiguration {
 
 	private final NatsProperties properties;
 
-	NatsAnnotationDrivenConfiguration(NatsProperties properties) {
+	private final MessageConverter messageConverter;
+
+	NatsAnnotationDrivenConfiguration(NatsProperties properties, ObjectProvider<MessageConverter> messageConverter) {
 		this.properties = properties;
+		this.messageConverter = messageConverter.getIfUnique();
 	}
 
 	@Bean
@@ -46,6 +51,7 @@ class NatsAnnotationDrivenConfiguration {
 	public DefaultNatsListenerContainerFactoryConfigurer natsListenerContainerFactoryConfigurer() {
 		DefaultNatsListenerContainerFactoryConfigurer configurer = new DefaultNatsListenerContainerFactoryConfigurer();
 		configurer.setNatsProperties(this.properties);
+		configurer.setMessageConverter(this.messageConverter);
 		return configurer;
 	}
 
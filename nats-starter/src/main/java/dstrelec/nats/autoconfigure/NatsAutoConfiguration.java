@@ -19,7 +19,14 @@ package dstrelec.nats.autoconfigure;
 import dstrelec.nats.core.DefaultConnectionFactory;
 import dstrelec.nats.core.NatsConnectionFactory;
 import dstrelec.nats.core.NatsTemplate;
+import dstrelec.nats.support.converter.CborMessageConverter;
+import dstrelec.nats.support.converter.KryoMessageConverter;
+import dstrelec.nats.support.converter.MessageConverter;
+import dstrelec.nats.support.converter.MessagingMessageConverter;
+import dstrelec.nats.support.converter.SmileMessageConverter;
+import dstrelec.nats.support.converter.StringJsonMessageConverter;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -27,6 +34,8 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 
 /**
  * {@link EnableAutoConfiguration Auto-configuration} for Nats.
@@ -48,12 +57,51 @@ public class NatsAutoConfiguration {
 
 	@Bean
 	@ConditionalOnMissingBean(NatsTemplate.class)
-	public NatsTemplate natsTemplate(NatsConnectionFactory connectionFactory) {
+	public NatsTemplate natsTemplate(NatsConnectionFactory connectionFactory,
+			ObjectProvider<MessageConverter> messageConverter) {
 		NatsTemplate natsTemplate = new NatsTemplate(connectionFactory);
 		natsTemplate.setDefaultSubject(properties.getTemplate().getDefaultSubject());
+		MessageConverter converter = messageConverter.getIfUnique();
+		if (converter != null) {
+			natsTemplate.setMessageConverter(converter);
+		}
 		return natsTemplate;
 	}
 
+	@Bean
+	@ConditionalOnMissingBean(MessageConverter.class)
+	public MessageConverter natsMessageConverter() {
+		switch (properties.getConverter().getType()) {
+			case JSON:
+				return new StringJsonMessageConverter();
+			case SMILE:
+				assertPresent("com.fasterxml.jackson.dataformat.smile.SmileFactory", "jackson-dataformat-smile");
+				return new SmileMessageConverter();
+			case CBOR:
+				assertPresent("com.fasterxml.jackson.dataformat.cbor.CBORFactory", "jackson-dataformat-cbor");
+				return new CborMessageConverter();
+			case KRYO:
+				assertPresent("com.esotericsoftware.kryo.Kryo", "kryo");
+				return kryoMessageConverter(properties.getConverter().getKryo());
+			default:
+				return new MessagingMessageConverter();
+		}
+	}
+
+	private KryoMessageConverter kryoMessageConverter(NatsProperties.Kryo kryo) {
+		KryoMessageConverter converter = new KryoMessageConverter();
+		converter.setRegistrationRequired(kryo.isRegistrationRequired());
+		for (String className : kryo.getRegisteredClasses()) {
+			converter.registerClass(ClassUtils.resolveClassName(className, getClass().getClassLoader()));
+		}
+		return converter;
+	}
+
+	private void assertPresent(String className, String artifactId) {
+		Assert.state(ClassUtils.isPresent(className, getClass().getClassLoader()), "nats.converter.type="
+				+ properties.getConverter().getType().name().toLowerCase() + " requires " + artifactId);
+	}
+
 	@Bean
 	@ConditionalOnMissingBean(NatsConnectionFactory.class)
 	public NatsConnectionFactory natsConnectionFactory() {
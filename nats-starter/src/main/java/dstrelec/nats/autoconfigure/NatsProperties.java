@@ -16,6 +16,7 @@
 
 package dstrelec.nats.autoconfigure;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import io.nats.client.ConnectionFactory;
@@ -207,10 +208,16 @@ public class NatsProperties {
 
 	private final Template template = new Template();
 
+	private final Converter converter = new Converter();
+
 	public Template getTemplate() {
 		return this.template;
 	}
 
+	public Converter getConverter() {
+		return this.converter;
+	}
+
 	public static class Template {
 
 		/**
@@ -228,4 +235,90 @@ public class NatsProperties {
 
 	}
 
+	public static class Converter {
+
+		/**
+		 * Format of message payloads, used by the template and the listener containers.
+		 * The binary formats require the corresponding Jackson dataformat module.
+		 */
+		private ConverterType type = ConverterType.DEFAULT;
+
+		private final Kryo kryo = new Kryo();
+
+		public ConverterType getType() {
+			return this.type;
+		}
+
+		public void setType(ConverterType type) {
+			this.type = type;
+		}
+
+		public Kryo getKryo() {
+			return this.kryo;
+		}
+
+	}
+
+	public static class Kryo {
+
+		/**
+		 * Fully qualified names of the classes to register, in the same order for
+		 * all applications exchanging messages.
+		 */
+		private List<String> registeredClasses = new ArrayList<>();
+
+		/**
+		 * Whether payloads of classes that are not registered are rejected. Only
+		 * disable when every publisher is trusted, as any class named in inbound
+		 * data is then instantiated.
+		 */
+		private boolean registrationRequired = true;
+
+		public List<String> getRegisteredClasses() {
+			return this.registeredClasses;
+		}
+
+		public void setRegisteredClasses(List<String> registeredClasses) {
+			this.registeredClasses = registeredClasses;
+		}
+
+		public boolean isRegistrationRequired() {
+			return this.registrationRequired;
+		}
+
+		public void setRegistrationRequired(boolean registrationRequired) {
+			this.registrationRequired = registrationRequired;
+		}
+
+	}
+
+	public enum ConverterType {
+
+		/**
+		 * Byte arrays as they are, other payloads with Java serialization.
+		 */
+		DEFAULT,
+
+		/**
+		 * JSON.
+		 */
+		JSON,
+
+		/**
+		 * Smile, binary JSON.
+		 */
+		SMILE,
+
+		/**
+		 * CBOR.
+		 */
+		CBOR,
+
+		/**
+		 * Kryo, for traffic between JVM applications.
+		 */
+		KRYO
+
+	}
+
 }
\ No newline at end of file